@@ -0,0 +1,56 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.bench;
+
+import com.linkedin.rookboom.web.dust.engine.DustEngineFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.collection.immutable.Map;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of server side template rendering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DustBenchmark {
+
+    @Param({"10", "1000"})
+    public int words;
+
+    private DustEngineFactory engineFactory;
+    private Map<String, Object> model;
+
+    @Setup
+    public void setUp() {
+        engineFactory = BenchData.dustEngineFactory();
+        model = BenchData.appointmentBody(words);
+    }
+
+    @Benchmark
+    public String render() {
+        StringWriter writer = new StringWriter();
+        engineFactory.getEngine().render("appointment_body", model, writer);
+        return writer.toString();
+    }
+
+}
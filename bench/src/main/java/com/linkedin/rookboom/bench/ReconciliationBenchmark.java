@@ -0,0 +1,70 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.bench;
+
+import com.linkedin.rookboom.schedule.Event;
+import com.linkedin.rookboom.schedule.EwsScheduleManager;
+import com.linkedin.rookboom.schedule.dao.EwsEvent;
+import com.linkedin.rookboom.schedule.dao.InternalEvent;
+import org.openjdk.jmh.annotations.*;
+import scala.collection.Seq;
+import scala.collection.immutable.Map;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of matching stored events against events fetched from Exchange, done on every reload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReconciliationBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int rooms;
+
+    @Param({"7", "31", "220"})
+    public int days;
+
+    @Param({"4", "12"})
+    public int eventsPerDay;
+
+    private Seq<InternalEvent> stored;
+    private Seq<EwsEvent> fetched;
+
+    @Setup
+    public void setUp() {
+        Map<String, Seq<Event>> schedule = BenchData.schedule(BenchData.rooms(rooms), days, eventsPerDay);
+        stored = BenchData.storedEvents(schedule);
+        // a few changes since the previous reload
+        fetched = BenchData.fetchedEvents(schedule, 0.01);
+    }
+
+    @Benchmark
+    public Seq<EwsEvent> findCreated() {
+        return EwsScheduleManager.findCreated(stored, fetched);
+    }
+
+    @Benchmark
+    public Seq<InternalEvent> findDeleted() {
+        return EwsScheduleManager.findDeleted(stored, fetched);
+    }
+
+}
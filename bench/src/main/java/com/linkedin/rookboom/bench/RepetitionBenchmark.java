@@ -0,0 +1,52 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.bench;
+
+import com.linkedin.rookboom.schedule.Repetition;
+import com.linkedin.rookboom.schedule.TimeSlot;
+import org.openjdk.jmh.annotations.*;
+import scala.collection.Seq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of generating occurrences of a recurring meeting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RepetitionBenchmark {
+
+    @Param({"10", "52", "260"})
+    public int occurrences;
+
+    private Repetition repetition;
+
+    @Setup
+    public void setUp() {
+        repetition = BenchData.repetition(occurrences);
+    }
+
+    @Benchmark
+    public Seq<TimeSlot> toOccurrences() {
+        return repetition.toOccurrences(BenchData.Start(), BenchData.Zone());
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.bench;
+
+import com.linkedin.rookboom.schedule.CachedScheduleManager;
+import com.linkedin.rookboom.schedule.CompactSchedule;
+import com.linkedin.rookboom.schedule.Event;
+import com.linkedin.rookboom.schedule.ScheduleVersions;
+import com.linkedin.rookboom.schedule.TimeMask;
+import com.linkedin.rookboom.schedule.TimeSlot;
+import com.linkedin.rookboom.web.AvailabilityRecord;
+import com.linkedin.rookboom.web.ScheduleController;
+import net.sf.ehcache.CacheManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import scala.collection.Iterator;
+import scala.collection.Seq;
+import scala.collection.immutable.Map;
+import scala.collection.immutable.Set;
+import scala.Tuple2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the schedule lookups done on every page load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScheduleBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int rooms;
+
+    @Param({"1", "7", "31"})
+    public int days;
+
+    @Param({"4", "12"})
+    public int eventsPerDay;
+
+    private Set<String> mailboxes;
+    private Map<String, Seq<Event>> schedule;
+    private InMemoryScheduleManager inMemoryManager;
+    private CacheManager cacheManager;
+    private CachedScheduleManager cachedManager;
+    private TimeSlot span;
+    private Seq<TimeSlot> occurrences;
+    private TimeMask mask;
+
+    @Setup
+    public void setUp() {
+        mailboxes = BenchData.rooms(rooms);
+        schedule = BenchData.schedule(mailboxes, days, eventsPerDay);
+        inMemoryManager = new InMemoryScheduleManager(schedule);
+        cacheManager = CacheManager.newInstance();
+        cacheManager.addCache("schedule");
+        cachedManager = new CachedScheduleManager(inMemoryManager, cacheManager, TimeUnit.HOURS.toMillis(1), new ScheduleVersions());
+        span = BenchData.span(days);
+        // one occurrence a week over the day span
+        occurrences = BenchData.weekly(Math.max(1, days / 7));
+        mask = BenchData.timeMask(BenchData.Start());
+        // warm the cache up
+        cachedManager.getSchedule(mailboxes, span);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Benchmark
+    public Map<String, Seq<Event>> cachedGetSchedule() {
+        return cachedManager.getSchedule(mailboxes, span);
+    }
+
+    @Benchmark
+    public Map<String, Seq<Event>> cachedGetRecurringSchedule() {
+        return cachedManager.getSchedule(mailboxes, occurrences);
+    }
+
+    @Benchmark
+    public Map<String, Seq<Event>> combineSchedules() {
+        return inMemoryManager.getSchedule(mailboxes, occurrences);
+    }
+
+    @Benchmark
+    public void convertSchedule(Blackhole blackhole) {
+        Iterator<Tuple2<String, Seq<Event>>> iterator = schedule.iterator();
+        while (iterator.hasNext()) {
+            Tuple2<String, Seq<Event>> entry = iterator.next();
+            Seq<AvailabilityRecord> records = ScheduleController.convertSchedule(entry._1(), entry._2(), mask);
+            blackhole.consume(records);
+        }
+    }
+
+    @Benchmark
+    public CompactSchedule compactSchedule() {
+        return CompactSchedule.apply(schedule, mask);
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.bench;
+
+import com.microsoft.exchange.types.SerializableTimeZone;
+import com.microsoft.exchange.utils.TimeZoneCache;
+import com.microsoft.exchange.utils.TimeZoneHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of converting time zones into their EWS representation, done for every Exchange request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TimeZoneBenchmark {
+
+    @Param({"UTC", "America/Los_Angeles", "Europe/Dublin", "Asia/Kolkata"})
+    public String zone;
+
+    private TimeZone timeZone;
+
+    private final TimeZoneCache cache = new TimeZoneCache();
+
+    @Setup
+    public void setUp() {
+        timeZone = TimeZone.getTimeZone(zone);
+    }
+
+    @Benchmark
+    public SerializableTimeZone toSerializableTimeZone() {
+        return TimeZoneHelper.toSerializableTimeZone(timeZone);
+    }
+
+    @Benchmark
+    public SerializableTimeZone cachedSerializableTimeZone() {
+        return cache.getSerializableTimeZone(timeZone);
+    }
+
+}
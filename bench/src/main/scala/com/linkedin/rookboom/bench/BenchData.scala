@@ -0,0 +1,148 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.bench
+
+import com.linkedin.rookboom.schedule._
+import com.linkedin.rookboom.schedule.dao.{EwsEvent, InternalEvent}
+import com.linkedin.rookboom.util.TimeUtils._
+import java.util.TimeZone
+import scala.util.Random
+import com.linkedin.rookboom.web.dust.engine.{DustEngineFactoryImpl, DustEngineFactory}
+import com.linkedin.rookboom.web.dust.loader.TemplateLoader
+import org.springframework.util.FileCopyUtils
+import java.io.InputStreamReader
+
+/**
+ * Synthetic data generators for the benchmarks. The data is deterministic for the same parameters.
+ */
+object BenchData {
+
+  /**
+   * The first day of generated schedules (a Monday).
+   */
+  val Start = roundToDayDown(1388966400000L)
+
+  val Zone = TimeZone.getTimeZone("America/Los_Angeles")
+
+  def rooms(count: Int): Set[String] = (1 to count).map("room" + _ + "@linkedin.com").toSet
+
+  /**
+   * Generates schedule of the given rooms. Events are spread over working hours of each day and may overlap.
+   */
+  def schedule(rooms: Set[String], days: Int, eventsPerDay: Int): Map[String, Seq[Event]] = {
+    val random = new Random(days * 31 + eventsPerDay)
+    var id = 0L
+    rooms.map(room => {
+      val events = for (d <- 0 until days; e <- 0 until eventsPerDay) yield {
+        val begin = Start + d * day + 8 * hour + random.nextInt(20) * 30 * minute
+        id += 1
+        Event(id, TimeSlot(begin, begin + (1 + random.nextInt(4)) * 30 * minute))
+      }
+      room -> events.sortBy(_.time.begin)
+    }).toMap
+  }
+
+  /**
+   * Time slot covering the given number of days from the start.
+   */
+  def span(days: Int): TimeSlot = TimeSlot(Start, Start + days * day)
+
+  /**
+   * Weekly occurrences of a working day slot.
+   */
+  def weekly(occurrences: Int): Seq[TimeSlot] = {
+    (0 until occurrences).map(week => TimeSlot(Start + week * 7 * day + 8 * hour, Start + week * 7 * day + 18 * hour))
+  }
+
+  def repetition(occurrences: Int): Repetition = {
+    val slot = TimeSlot(Start + 10 * hour, Start + 11 * hour)
+    Repetition(slot, Weekly(1, Set(DayOfWeek.Monday, DayOfWeek.Wednesday)), After(occurrences))
+  }
+
+  def timeMask(day: Long): TimeMask = new TimeMaskManagerImpl().getMask(day, Timeframe.Day)
+
+  /**
+   * Stored events of the schedule, with ids resolved for a half of them.
+   */
+  def storedEvents(schedule: Map[String, Seq[Event]]): Seq[InternalEvent] = {
+    schedule.toSeq.flatMap {
+      case (room, events) => events.map(e => InternalEvent(e.id, room, e.time, extId(e)))
+    }
+  }
+
+  /**
+   * Fetched events of the schedule with the given share of them changed.
+   */
+  def fetchedEvents(schedule: Map[String, Seq[Event]], changedShare: Double): Seq[EwsEvent] = {
+    val random = new Random(42)
+    schedule.toSeq.flatMap {
+      case (room, events) => events.map(e => {
+        val time = if (random.nextDouble() < changedShare) TimeSlot(e.time.begin, e.time.end + 30 * minute) else e.time
+        EwsEvent(extId(e), room, time)
+      })
+    }
+  }
+
+  private def extId(event: Event) = if (event.id % 2 == 0) Some("ext" + event.id) else None
+
+  /**
+   * Template model of an appointment body.
+   */
+  def appointmentBody(words: Int): Map[String, AnyRef] = {
+    Map("text" -> ("Agenda " * words), "url" -> "https://rookboom.linkedin.com")
+  }
+
+  /**
+   * Creates a dust engine factory with the server side templates loaded from the classpath.
+   */
+  def dustEngineFactory(): DustEngineFactory = {
+    val loader = new ClasspathTemplateLoader(Seq("appointment_body"))
+    val factory = new DustEngineFactoryImpl(DustEngineFactoryImpl.DefaultResources, loader, true)
+    factory.reloadTemplates()
+    factory
+  }
+
+}
+
+/**
+ * A schedule manager serving a fixed schedule from memory.
+ */
+class InMemoryScheduleManager(val schedule: Map[String, Seq[Event]]) extends AbstractScheduleManager {
+
+  override def getSchedule(mailboxes: Set[String], time: TimeSlot): Map[String, Seq[Event]] = {
+    mailboxes.map(mailbox => {
+      mailbox -> schedule.getOrElse(mailbox, Seq.empty).filter(e => e.time.end > time.begin && e.time.begin < time.end)
+    }).toMap
+  }
+
+}
+
+/**
+ * Loads the given templates from the 'tmpl' classpath directory.
+ */
+class ClasspathTemplateLoader(val names: Seq[String]) extends TemplateLoader {
+
+  override def loadTemplates() = loadTemplates(0)
+
+  override def loadTemplates(since: Long) = {
+    names.map(name => {
+      val stream = getClass.getClassLoader.getResourceAsStream("tmpl/" + name + ".dust")
+      name -> FileCopyUtils.copyToString(new InputStreamReader(stream, "UTF-8"))
+    }).toMap
+  }
+
+}
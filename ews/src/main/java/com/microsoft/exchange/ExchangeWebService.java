@@ -80,6 +80,10 @@ public class ExchangeWebService {
     }
 
     public ExchangeServicePortType getNtlmServicePort(String endpointUrl, String userName, String password, String domain) {
+        return getNtlmServicePort(endpointUrl, userName, password, domain, DEFAULT_TIMEOUT);
+    }
+
+    public ExchangeServicePortType getNtlmServicePort(String endpointUrl, String userName, String password, String domain, long timeout) {
         ExchangeServicePortType port = getServicePort();
         Map<String, Object> requestContext = ((BindingProvider) port).getRequestContext();
         requestContext.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, endpointUrl);
@@ -94,9 +98,9 @@ public class ExchangeWebService {
         HTTPClientPolicy clientPolicy = conduit.getClient();
         clientPolicy.setAllowChunking(false);
         clientPolicy.setAutoRedirect(true);
-        clientPolicy.setConnectionTimeout(DEFAULT_TIMEOUT);
-        clientPolicy.setReceiveTimeout(DEFAULT_TIMEOUT);
-        clientPolicy.setAsyncExecuteTimeout(DEFAULT_TIMEOUT);
+        clientPolicy.setConnectionTimeout(timeout);
+        clientPolicy.setReceiveTimeout(timeout);
+        clientPolicy.setAsyncExecuteTimeout(timeout);
         return port;
     }
 
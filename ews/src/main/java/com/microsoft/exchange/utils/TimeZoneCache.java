@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.microsoft.exchange.utils;
+
+import com.microsoft.exchange.types.SerializableTimeZone;
+import com.microsoft.exchange.types.TimeZoneDefinitionType;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches EWS representations of time zones.
+ * <p/>
+ * Time zone definitions are cached by the Windows time zone id, so zones mapped to the same Windows zone share one
+ * definition. They are reloaded once expired. Serializable time zones are computed locally and cached until the next
+ * transition of the zone, when their content changes.
+ * <p/>
+ * The cached objects are shared, they must not be modified.
+ */
+public class TimeZoneCache {
+
+    /**
+     * Default time after which a time zone definition is loaded again.
+     */
+    public static final long DEFAULT_DEFINITION_EXPIRATION = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Loads a time zone definition from Exchange.
+     */
+    public interface DefinitionLoader {
+
+        /**
+         * Loads the definition of the given Windows time zone.
+         *
+         * @param windowsId Windows time zone id
+         * @return the time zone definition
+         */
+        TimeZoneDefinitionType load(String windowsId);
+
+    }
+
+    private final long definitionExpiration;
+
+    private final ConcurrentMap<String, Entry<TimeZoneDefinitionType>> definitions = new ConcurrentHashMap<String, Entry<TimeZoneDefinitionType>>();
+
+    private final ConcurrentMap<String, Entry<SerializableTimeZone>> serializableTimeZones = new ConcurrentHashMap<String, Entry<SerializableTimeZone>>();
+
+    public TimeZoneCache() {
+        this(DEFAULT_DEFINITION_EXPIRATION);
+    }
+
+    public TimeZoneCache(long definitionExpiration) {
+        this.definitionExpiration = definitionExpiration;
+    }
+
+    /**
+     * Returns the definition of the Windows time zone corresponding to the given time zone.
+     *
+     * @param timeZone time zone
+     * @param loader   loads the definition if it is not cached
+     * @return the time zone definition
+     * @throws IllegalArgumentException if there is no corresponding windows time zone id found
+     */
+    public TimeZoneDefinitionType getDefinition(TimeZone timeZone, DefinitionLoader loader) {
+        String windowsId = TimeZoneHelper.getWindowsId(timeZone);
+        long now = DateTimeUtils.currentTimeMillis();
+        Entry<TimeZoneDefinitionType> entry = definitions.get(windowsId);
+        if (entry == null || entry.isExpired(now)) {
+            entry = new Entry<TimeZoneDefinitionType>(loader.load(windowsId), now + definitionExpiration);
+            definitions.put(windowsId, entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Returns the EWS representation of the given time zone valid at the current time.
+     *
+     * @param timeZone time zone
+     * @return the resulting SerializableTimeZone object
+     */
+    public SerializableTimeZone getSerializableTimeZone(TimeZone timeZone) {
+        long now = DateTimeUtils.currentTimeMillis();
+        Entry<SerializableTimeZone> entry = serializableTimeZones.get(timeZone.getID());
+        if (entry == null || entry.isExpired(now)) {
+            DateTimeZone zone = DateTimeZone.forTimeZone(timeZone);
+            long expires = zone.isFixed() ? Long.MAX_VALUE : zone.nextTransition(now);
+            entry = new Entry<SerializableTimeZone>(TimeZoneHelper.toSerializableTimeZone(timeZone, now), expires);
+            serializableTimeZones.put(timeZone.getID(), entry);
+        }
+        return entry.value;
+    }
+
+    private static class Entry<T> {
+
+        private final T value;
+
+        private final long expires;
+
+        private Entry(T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+    }
+
+}
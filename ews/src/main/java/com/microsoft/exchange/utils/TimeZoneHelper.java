@@ -52,7 +52,18 @@ public class TimeZoneHelper {
      * @return the resulting SerializableTimeZone object
      */
     public static SerializableTimeZone toSerializableTimeZone(TimeZone tz) {
-        long now = DateTimeUtils.currentTimeMillis();
+        return toSerializableTimeZone(tz, DateTimeUtils.currentTimeMillis());
+    }
+
+    /**
+     * Converts the given Java time zone into into the corresponding EWS representation valid at the given time.
+     * The representation contains the next two transitions, so it changes when the next transition is passed.
+     *
+     * @param tz  time zone to convert
+     * @param now the current time
+     * @return the resulting SerializableTimeZone object
+     */
+    public static SerializableTimeZone toSerializableTimeZone(TimeZone tz, long now) {
         DateTimeZone zone = DateTimeZone.forTimeZone(tz);
         int standardOffset = zone.getStandardOffset(now);
         SerializableTimeZone result = new SerializableTimeZone();
@@ -0,0 +1,94 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.microsoft.exchange.utils;
+
+import com.microsoft.exchange.types.SerializableTimeZone;
+import com.microsoft.exchange.types.TimeZoneDefinitionType;
+import org.joda.time.DateTimeUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+@Test
+public class TimeZoneCacheTest {
+
+    // 2013-08-20 18:12:58 UTC
+    private static final long NOW = 1377022378000L;
+
+    // 2013-11-03 09:00:00 UTC, the end of daylight saving time in Los Angeles
+    private static final long LA_TRANSITION = 1383469200000L;
+
+    private final List<String> loaded = new ArrayList<String>();
+
+    private final TimeZoneCache.DefinitionLoader loader = new TimeZoneCache.DefinitionLoader() {
+        public TimeZoneDefinitionType load(String windowsId) {
+            loaded.add(windowsId);
+            return new TimeZoneDefinitionType().withId(windowsId);
+        }
+    };
+
+    @BeforeMethod
+    public void setup() {
+        loaded.clear();
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    public void testDefinitionSharedByWindowsId() {
+        TimeZoneCache cache = new TimeZoneCache();
+        TimeZoneDefinitionType la = cache.getDefinition(TimeZone.getTimeZone("America/Los_Angeles"), loader);
+        TimeZoneDefinitionType vancouver = cache.getDefinition(TimeZone.getTimeZone("America/Vancouver"), loader);
+        Assert.assertSame(vancouver, la);
+        Assert.assertEquals(la.getId(), "Pacific Standard Time");
+        Assert.assertEquals(loaded.size(), 1);
+    }
+
+    public void testDefinitionExpiration() {
+        TimeZoneCache cache = new TimeZoneCache(1000);
+        TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        cache.getDefinition(timeZone, loader);
+        DateTimeUtils.setCurrentMillisFixed(NOW + 999);
+        cache.getDefinition(timeZone, loader);
+        Assert.assertEquals(loaded.size(), 1);
+        DateTimeUtils.setCurrentMillisFixed(NOW + 1000);
+        cache.getDefinition(timeZone, loader);
+        Assert.assertEquals(loaded.size(), 2);
+    }
+
+    public void testSerializableTimeZoneRefreshedOnTransition() {
+        TimeZoneCache cache = new TimeZoneCache();
+        TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        SerializableTimeZone before = cache.getSerializableTimeZone(timeZone);
+        Assert.assertEquals(before, TimeZoneHelper.toSerializableTimeZone(timeZone));
+        DateTimeUtils.setCurrentMillisFixed(LA_TRANSITION - 1);
+        Assert.assertSame(cache.getSerializableTimeZone(timeZone), before);
+        DateTimeUtils.setCurrentMillisFixed(LA_TRANSITION);
+        SerializableTimeZone after = cache.getSerializableTimeZone(timeZone);
+        Assert.assertEquals(after, TimeZoneHelper.toSerializableTimeZone(timeZone));
+        Assert.assertFalse(after.equals(before));
+    }
+
+}
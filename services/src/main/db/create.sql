@@ -21,28 +21,57 @@ CREATE TABLE IF NOT EXISTS `appointment` (
 ENGINE = InnoDB;
 
 
+-- -----------------------------------------------------
+-- Table `mailbox`
+-- -----------------------------------------------------
+DROP TABLE IF EXISTS `mailbox` ;
+
+CREATE TABLE IF NOT EXISTS `mailbox` (
+  `id` INT UNSIGNED NOT NULL AUTO_INCREMENT,
+  `address` VARCHAR(255) NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE INDEX `address_UNIQUE` (`address` ASC))
+ENGINE = InnoDB;
+
+
 -- -----------------------------------------------------
 -- Table `event`
+-- Partitioned by month of the start time, the partitions are added and dropped by the application.
+-- Partitioned tables can't have foreign keys, appointments are purged only when no event refers to them.
 -- -----------------------------------------------------
 DROP TABLE IF EXISTS `event` ;
 
 CREATE TABLE IF NOT EXISTS `event` (
   `id` INT UNSIGNED NOT NULL AUTO_INCREMENT,
   `created` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
-  `mailbox` VARCHAR(255) NOT NULL,
+  `mailbox_id` INT UNSIGNED NOT NULL,
   `start` BIGINT NOT NULL,
   `end` BIGINT NOT NULL,
   `ext_id` VARCHAR(255) NULL,
   `appointment_id` INT UNSIGNED NULL,
-  PRIMARY KEY (`id`),
-  INDEX `idx_event_mailbox_time` (`mailbox` ASC, `start` ASC, `end` ASC),
+  PRIMARY KEY (`id`, `start`),
+  INDEX `idx_event_mailbox_time` (`mailbox_id` ASC, `start` ASC, `end` ASC),
   INDEX `idx_event_ext_id` (`ext_id` ASC),
-  INDEX `fk_event_appointment_id_idx` (`appointment_id` ASC),
-  CONSTRAINT `fk_event_appointment_id`
-    FOREIGN KEY (`appointment_id`)
-    REFERENCES `appointment` (`id`)
-    ON DELETE SET NULL
-    ON UPDATE SET NULL)
+  INDEX `idx_event_appointment_id` (`appointment_id` ASC))
+ENGINE = InnoDB
+PARTITION BY RANGE (`start`) (
+  PARTITION `pmax` VALUES LESS THAN MAXVALUE);
+
+-- -----------------------------------------------------
+-- Table `sync_state`
+-- The last calendar synchronization state of a mailbox, so synchronization survives restarts.
+-- -----------------------------------------------------
+DROP TABLE IF EXISTS `sync_state` ;
+
+CREATE TABLE IF NOT EXISTS `sync_state` (
+  `mailbox_id` INT UNSIGNED NOT NULL,
+  `state` TEXT NOT NULL,
+  PRIMARY KEY (`mailbox_id`),
+  CONSTRAINT `fk_sync_state_mailbox_id`
+    FOREIGN KEY (`mailbox_id`)
+    REFERENCES `mailbox` (`id`)
+    ON DELETE CASCADE
+    ON UPDATE NO ACTION)
 ENGINE = InnoDB;
 
 SET SQL_MODE = '';
@@ -51,7 +80,7 @@ GRANT USAGE ON *.* TO gobook@localhost;
 SET SQL_MODE='TRADITIONAL,ALLOW_INVALID_DATES';
 CREATE USER 'gobook'@'localhost' IDENTIFIED BY 'koobog';
 
-GRANT INDEX, DELETE, INSERT, SELECT, UPDATE, TRIGGER ON TABLE schedule.* TO 'gobook'@'localhost';
+GRANT ALTER, DROP, INDEX, DELETE, INSERT, SELECT, UPDATE, TRIGGER ON TABLE schedule.* TO 'gobook'@'localhost';
 
 SET SQL_MODE=@OLD_SQL_MODE;
 SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;
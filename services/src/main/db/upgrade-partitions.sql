@@ -0,0 +1,37 @@
+-- Upgrades a database created by an older create.sql: mailboxes are moved to a dictionary and events get partitioned.
+-- Stop the application before running it, the event table is rebuilt.
+
+USE `schedule` ;
+
+CREATE TABLE IF NOT EXISTS `mailbox` (
+  `id` INT UNSIGNED NOT NULL AUTO_INCREMENT,
+  `address` VARCHAR(255) NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE INDEX `address_UNIQUE` (`address` ASC))
+ENGINE = InnoDB;
+
+INSERT IGNORE INTO `mailbox` (`address`) SELECT DISTINCT `mailbox` FROM `event`;
+
+-- partitioned tables can't have foreign keys
+ALTER TABLE `event` DROP FOREIGN KEY `fk_event_appointment_id`;
+
+ALTER TABLE `event` ADD COLUMN `mailbox_id` INT UNSIGNED NOT NULL DEFAULT 0 AFTER `created`;
+
+UPDATE `event` e JOIN `mailbox` m ON e.`mailbox` = m.`address` SET e.`mailbox_id` = m.`id`;
+
+ALTER TABLE `event`
+  ALTER COLUMN `mailbox_id` DROP DEFAULT,
+  DROP INDEX `idx_event_mailbox_time`,
+  DROP INDEX `fk_event_appointment_id_idx`,
+  DROP COLUMN `mailbox`,
+  DROP PRIMARY KEY,
+  ADD PRIMARY KEY (`id`, `start`),
+  ADD INDEX `idx_event_mailbox_time` (`mailbox_id` ASC, `start` ASC, `end` ASC),
+  ADD INDEX `idx_event_appointment_id` (`appointment_id` ASC);
+
+-- monthly partitions are split from this one by the application
+ALTER TABLE `event` PARTITION BY RANGE (`start`) (
+  PARTITION `pmax` VALUES LESS THAN MAXVALUE);
+
+-- partitions are added and dropped by the application
+GRANT ALTER, DROP ON TABLE schedule.* TO 'gobook'@'localhost';
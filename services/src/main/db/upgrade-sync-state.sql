@@ -0,0 +1,15 @@
+-- Upgrades a database created by an older create.sql: calendar synchronization states are stored.
+-- It can be run while the application is running, the synchronization just starts over for every mailbox.
+
+USE `schedule` ;
+
+CREATE TABLE IF NOT EXISTS `sync_state` (
+  `mailbox_id` INT UNSIGNED NOT NULL,
+  `state` TEXT NOT NULL,
+  PRIMARY KEY (`mailbox_id`),
+  CONSTRAINT `fk_sync_state_mailbox_id`
+    FOREIGN KEY (`mailbox_id`)
+    REFERENCES `mailbox` (`id`)
+    ON DELETE CASCADE
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB;
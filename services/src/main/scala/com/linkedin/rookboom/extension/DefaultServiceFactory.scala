@@ -18,14 +18,15 @@ package com.linkedin.rookboom.extension
 
 import com.linkedin.rookboom.user.{LdapUserManager, UserManager}
 import com.linkedin.rookboom.schedule._
-import com.linkedin.rookboom.layout.{LdapLayoutManager, LayoutManager}
+import com.linkedin.rookboom.layout.{AbstractLayoutManager, LdapLayoutManager, LayoutManager}
 import com.linkedin.rookboom.filter.{FileFilterManager, FilterManager}
 import java.io.File
 import org.springframework.ldap.core.LdapTemplate
-import com.linkedin.rookboom.schedule.dao.{EwsAppointmentDao, EwsScheduleDao, InternalScheduleDao}
+import com.linkedin.rookboom.schedule.dao.{EwsMessageSender, EwsAppointmentDao, EwsScheduleDao, InternalScheduleDao}
 import net.sf.ehcache.CacheManager
 import org.springframework.transaction.PlatformTransactionManager
-import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.util.{LdapPagedSearch, Logging}
+import com.linkedin.rookboom.util.TimeUtils._
 
 /**
  * Default service factory implementation. It can be subclassed to override only certain methods.
@@ -53,12 +54,17 @@ class DefaultServiceFactory(context: ServiceContext) extends AbstractServiceFact
     new TimeMaskManagerImpl()
   }
 
+  lazy val ldapPagedSearch: LdapPagedSearch = {
+    val ldapTemplate = context.getDependency(classOf[LdapTemplate])
+    val pageSize = context.getProperty("ldap.page.size").toInt
+    new LdapPagedSearch(ldapTemplate, pageSize)
+  }
+
   lazy val layoutManager: LayoutManager = {
     log.info("Creating LdapLayoutManager")
-    val ldapTemplate = context.getDependency(classOf[LdapTemplate])
     val searchBase = context.getProperty("ldap.rooms.base")
     val searchFilter = context.getProperty("ldap.rooms.filter")
-    val layoutManager = new LdapLayoutManager(ldapTemplate, searchBase, searchFilter)
+    val layoutManager = new LdapLayoutManager(ldapPagedSearch, searchBase, searchFilter)
     val reloadTrigger = context.getProperty("layout.reload.cron")
     context.schedule(reloadTrigger, layoutManager.reload(), init = true)
     layoutManager
@@ -66,17 +72,25 @@ class DefaultServiceFactory(context: ServiceContext) extends AbstractServiceFact
 
   lazy val userManager: UserManager = {
     log.info("Creating LdapUserManager")
-    val ldapTemplate = context.getDependency(classOf[LdapTemplate])
     val usersBase = context.getProperty("ldap.users.base")
     val usersFilter = context.getProperty("ldap.users.filter")
     val groupsBase = context.getProperty("ldap.groups.base")
     val groupsFilter = context.getProperty("ldap.groups.filter")
-    val userManager = new LdapUserManager(ldapTemplate, usersBase, usersFilter, groupsBase, groupsFilter)
+    val changeAttribute = context.getProperty("ldap.change.attribute")
+    val userManager = new LdapUserManager(ldapPagedSearch, usersBase, usersFilter, groupsBase, groupsFilter, changeAttribute)
     val reloadTrigger = context.getProperty("users.reload.cron")
     context.schedule(reloadTrigger, userManager.reload(), init = true)
+    // only the changes are loaded in between the full reloads
+    val refreshTrigger = context.getProperty("users.refresh.cron")
+    context.schedule(refreshTrigger, userManager.refresh())
     userManager
   }
 
+  lazy val scheduleVersions: ScheduleVersions = {
+    log.info("Creating ScheduleVersions")
+    new ScheduleVersions
+  }
+
   lazy val ewsScheduleManager = {
     log.info("Creating EwsScheduleManager")
     val txManager = context.getDependency(classOf[PlatformTransactionManager])
@@ -84,9 +98,17 @@ class DefaultServiceFactory(context: ServiceContext) extends AbstractServiceFact
     val ewsDao = context.getDependency(classOf[EwsScheduleDao])
     val reloadDays = context.getProperty("exchange.reload.days").toInt
     val resolveDays = context.getProperty("exchange.resolve.days").toInt
-    val ewsScheduleManager = new EwsScheduleManager(txManager, userManager, layoutManager, internalDao, ewsDao, reloadDays, resolveDays)
-    val reloadTrigger = context.getProperty("exchange.reload.cron")
-    context.schedule(reloadTrigger, ewsScheduleManager.reload())
+    val ewsScheduleManager = new EwsScheduleManager(txManager, userManager, layoutManager, internalDao, ewsDao, reloadDays, resolveDays, scheduleVersions)
+    // the synchronization keeps the rooms up to date, so the full reload is only a safety net then
+    if (context.getProperty("exchange.sync.enabled").toBoolean) {
+      val reloadTrigger = context.getProperty("exchange.sync.reload.cron")
+      context.schedule(reloadTrigger, ewsScheduleManager.reload())
+      val syncTrigger = context.getProperty("exchange.sync.cron")
+      context.schedule(syncTrigger, ewsScheduleManager.sync())
+    } else {
+      val reloadTrigger = context.getProperty("exchange.reload.cron")
+      context.schedule(reloadTrigger, ewsScheduleManager.reload())
+    }
     val resolveTrigger = context.getProperty("exchange.resolve.cron")
     context.schedule(resolveTrigger, ewsScheduleManager.resolve())
     ewsScheduleManager
@@ -95,21 +117,62 @@ class DefaultServiceFactory(context: ServiceContext) extends AbstractServiceFact
   lazy val cachedScheduleManager = {
     log.info("Creating CachedScheduleManager")
     val cacheManager = context.getDependency(classOf[CacheManager])
-    new CachedScheduleManager(ewsScheduleManager, cacheManager)
+    val refreshAfter = context.getProperty("schedule.cache.refresh.seconds").toLong * second
+    new CachedScheduleManager(ewsScheduleManager, cacheManager, refreshAfter, scheduleVersions)
   }
 
   lazy val scheduleManager: ScheduleManager = cachedScheduleManager
 
+  lazy val scheduleWarmer: ScheduleWarmer = {
+    log.info("Creating ScheduleWarmer")
+    val maxSchedules = context.getProperty("schedule.warmup.max").toInt
+    val scheduleWarmer = new ScheduleWarmer(cachedScheduleManager, layoutManager, maxSchedules)
+    layoutManager match {
+      case manager: AbstractLayoutManager => manager.addListener(scheduleWarmer)
+      case _ =>
+    }
+    val warmUpTrigger = context.getProperty("schedule.warmup.cron")
+    context.schedule(warmUpTrigger, scheduleWarmer.warmUp())
+    scheduleWarmer
+  }
+
+  lazy val schedulePurger: SchedulePurger = {
+    log.info("Creating SchedulePurger")
+    val txManager = context.getDependency(classOf[PlatformTransactionManager])
+    val internalDao = context.getDependency(classOf[InternalScheduleDao])
+    val retentionDays = context.getProperty("schedule.retention.days").toInt
+    // partitions are needed for all the events being reloaded
+    val aheadDays = context.getProperty("exchange.reload.days").toInt
+    val schedulePurger = new SchedulePurger(txManager, internalDao, retentionDays, aheadDays)
+    val purgeTrigger = context.getProperty("schedule.purge.cron")
+    context.schedule(purgeTrigger, schedulePurger.purge())
+    schedulePurger
+  }
+
   lazy val bookingService: BookingService = {
     log.info("Creating BookingServiceImpl")
     val txManager = context.getDependency(classOf[PlatformTransactionManager])
     val appointmentDao = context.getDependency(classOf[EwsAppointmentDao])
     val internalDao = context.getDependency(classOf[InternalScheduleDao])
     val timeout = context.getProperty("booking.timeout.millis").toLong
-    val eventListeners = Seq(cachedScheduleManager, ewsScheduleManager)
-    new BookingServiceImpl(txManager, appointmentDao, internalDao, ewsScheduleManager, eventListeners, timeout, timeout)
+    // user managers may rank people by recent meetings
+    val eventListeners = Seq[BookingEventListener](cachedScheduleManager, ewsScheduleManager, roomFinderImpl) ++
+      Some(userManager).collect { case listener: BookingEventListener => listener }
+    // bookings are made on behalf of the authenticated user
+    val domain = context.getProperty("exchange.domain")
+    val userCredentials = () => EwsMessageSender.currentUserCredentials(domain)
+    new BookingServiceImpl(txManager, appointmentDao, internalDao, ewsScheduleManager, eventListeners, timeout, timeout,
+      userCredentials)
+  }
+
+  lazy val roomFinderImpl = {
+    log.info("Creating RoomFinderImpl")
+    val refreshAfter = context.getProperty("schedule.cache.refresh.seconds").toLong * second
+    new RoomFinderImpl(scheduleManager, layoutManager, refreshAfter)
   }
 
+  lazy val roomFinder: RoomFinder = roomFinderImpl
+
   def getConfigFile(fileName: String): File = {
     val fullPath = context.getProperty("rookboom.config.dir") + File.separator + fileName
     new File(fullPath)
@@ -18,7 +18,7 @@ package com.linkedin.rookboom.extension
 
 import com.linkedin.rookboom.filter.FilterManager
 import com.linkedin.rookboom.layout.LayoutManager
-import com.linkedin.rookboom.schedule.{TimeMaskManager, BookingService, ScheduleManager}
+import com.linkedin.rookboom.schedule.{SchedulePurger, ScheduleWarmer, ScheduleVersions, RoomFinder, TimeMaskManager, BookingService, ScheduleManager}
 import com.linkedin.rookboom.user.UserManager
 
 /**
@@ -37,6 +37,14 @@ trait ServiceFactory {
 
   def scheduleManager: ScheduleManager
 
+  def scheduleVersions: ScheduleVersions
+
+  def scheduleWarmer: ScheduleWarmer
+
+  def schedulePurger: SchedulePurger
+
   def bookingService: BookingService
 
+  def roomFinder: RoomFinder
+
 }
@@ -17,6 +17,7 @@
 package com.linkedin.rookboom.layout
 
 import com.linkedin.rookboom.util.{Logging, Reloadable}
+import scala.util.control.NonFatal
 
 /**
  * Abstract class containing shared code for typical LayoutManager implementations.
@@ -27,6 +28,13 @@ abstract class AbstractLayoutManager extends LayoutManager with Logging with Rel
   @volatile
   private var layoutMap: Map[String, Layout] = Map.empty
 
+  @volatile
+  private var listeners: Seq[LayoutListener] = Seq.empty
+
+  def addListener(listener: LayoutListener) {
+    listeners :+= listener
+  }
+
   override def getAvailableLayouts = layoutMap.keys.toSeq
 
   override def getLayout(id: String): Option[Layout] = {
@@ -50,8 +58,27 @@ abstract class AbstractLayoutManager extends LayoutManager with Logging with Rel
 
   override def reload() {
     log.info("Reloading layouts...")
+    val previous = layoutMap
     layoutMap = loadLayouts()
     log.info("There are {} layouts loaded", layoutMap.size)
+    // the very first load isn't a change
+    if (previous.nonEmpty) {
+      notifyRoomsAdded(previous)
+    }
+  }
+
+  private def notifyRoomsAdded(previous: Map[String, Layout]) {
+    val previousRooms = previous.values.flatMap(_.rooms.map(_.email)).toSet
+    for (layout <- layoutMap.values; added = layout.rooms.filterNot(r => previousRooms.contains(r.email)) if added.nonEmpty) {
+      log.info("There are {} rooms added to layout '{}'", added.size, layout.id)
+      listeners.foreach(listener => {
+        try {
+          listener.onRoomsAdded(layout, added)
+        } catch {
+          case NonFatal(e) => log.error("Error notifying about added rooms", e)
+        }
+      })
+    }
   }
 
   protected def loadLayouts(): Map[String, Layout]
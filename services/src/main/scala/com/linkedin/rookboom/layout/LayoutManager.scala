@@ -51,6 +51,20 @@ trait LayoutManager {
   def defaultLayoutId: Option[String]
 }
 
+/**
+ * Gets notified about changes of layouts.
+ */
+trait LayoutListener {
+
+  /**
+   * Called when rooms appear in a layout.
+   * @param layout the layout
+   * @param rooms the new rooms
+   */
+  def onRoomsAdded(layout: Layout, rooms: Seq[Room])
+
+}
+
 /**
  * Immutable classes that represent conference rooms layout.
  *
@@ -16,18 +16,17 @@
 
 package com.linkedin.rookboom.layout
 
-import com.linkedin.rookboom.util.{LdapAttributesMapper, Reloadable, Logging}
-import javax.naming.directory.{SearchControls, Attributes}
-import org.springframework.ldap.core.LdapTemplate
+import com.linkedin.rookboom.util.{LdapPagedSearch, LdapAttributesMapper, Reloadable, Logging}
+import javax.naming.directory.Attributes
 import java.util.TimeZone
-import collection.JavaConverters._
+import scala.collection.mutable
 
 
 /**
  * A LDAP based implementation of the LayoutManager interface.
  * @author Dmitriy Yefremov
  */
-class LdapLayoutManager(val ldapTemplate: LdapTemplate,
+class LdapLayoutManager(val pagedSearch: LdapPagedSearch,
                         val searchBase: String,
                         val searchFilter: String) extends AbstractLayoutManager with Logging with Reloadable {
 
@@ -35,10 +34,10 @@ class LdapLayoutManager(val ldapTemplate: LdapTemplate,
 
   def loadRooms(): Seq[Room] = {
     log.info("Fetching LDAP conference rooms...")
-    val results = ldapTemplate.search(searchBase, searchFilter, SearchControls.SUBTREE_SCOPE, roomMapper.attributes.toArray, roomMapper)
-    val rooms = results.asScala.toSeq.collect {
-      case Some(room: Room) => room
-    }
+    val rooms = mutable.ArrayBuffer.empty[Room]
+    pagedSearch.search(searchBase, searchFilter, roomMapper.attributes)((_, attributes) => {
+      rooms ++= roomMapper.mapFromAttributes(attributes)
+    })
     log.info("There are {} rooms fetched", rooms.size)
     rooms
   }
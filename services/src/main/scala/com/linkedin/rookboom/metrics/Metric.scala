@@ -0,0 +1,248 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.metrics
+
+import com.linkedin.rookboom.util.TimeUtils._
+import java.util.concurrent.atomic.{AtomicLongArray, AtomicLong}
+import scala.compat.Platform
+
+/**
+ * A named measurement exported through JMX and the metrics endpoint.
+ */
+trait Metric {
+
+  /**
+   * The current values of the metric by name.
+   */
+  def values: Map[String, Any]
+
+}
+
+trait CounterMBean {
+
+  def getCount: Long
+
+}
+
+/**
+ * A counter of events.
+ */
+class Counter extends Metric with CounterMBean {
+
+  private val count = new AtomicLong()
+
+  def inc(n: Long = 1) {
+    count.addAndGet(n)
+  }
+
+  override def getCount = count.get
+
+  override def values = Map("count" -> getCount)
+
+}
+
+trait HistogramMBean {
+
+  def getCount: Long
+
+  def getLast: Long
+
+  def getMin: Long
+
+  def getMax: Long
+
+  def getMean: Double
+
+  def get50thPercentile: Long
+
+  def get95thPercentile: Long
+
+  def get99thPercentile: Long
+
+}
+
+/**
+ * A distribution of values, such as latencies in milliseconds or sizes. Values are counted in buckets of exponentially
+ * growing bounds, so percentiles are estimated with the bucket bound without keeping any samples.
+ *
+ * Percentiles only count the values of the recent window, so they follow the current behavior. The window moves in
+ * steps of one slot (a fifth of it), so it covers from four fifths to all of its length. Count, last, min, max and mean
+ * are over all the values.
+ *
+ * @param window the time percentiles are estimated over
+ * @param clock current time source
+ */
+class Histogram(window: Long = Histogram.DefaultWindow, clock: () => Long = () => Platform.currentTime)
+  extends Metric with HistogramMBean {
+
+  import Histogram._
+
+  private val slotLength = math.max(1, window / Slots)
+
+  private val slots = Array.fill(Slots)(new Slot)
+
+  private val count = new AtomicLong()
+
+  private val sum = new AtomicLong()
+
+  private val last = new AtomicLong()
+
+  private val min = new AtomicLong(Long.MaxValue)
+
+  private val max = new AtomicLong(Long.MinValue)
+
+  def update(value: Long) {
+    currentSlot.buckets.incrementAndGet(bucket(value))
+    count.incrementAndGet()
+    sum.addAndGet(value)
+    last.set(value)
+    updateMin(value)
+    updateMax(value)
+  }
+
+  /**
+   * Records the time the given function takes in milliseconds, whether it succeeds or not.
+   */
+  def time[A](f: => A): A = {
+    val start = Platform.currentTime
+    try {
+      f
+    } finally {
+      update(Platform.currentTime - start)
+    }
+  }
+
+  /**
+   * Estimates the value that the given share of the values doesn't exceed.
+   * @param quantile a number from 0 to 1
+   */
+  def percentile(quantile: Double): Long = {
+    val period = clock() / slotLength
+    val recent = slots.filter(_.period > period - Slots)
+    // the last bucket takes everything above the highest bound
+    val buckets = Array.tabulate(Bounds.length + 1)(i => recent.map(_.buckets.get(i)).sum)
+    val total = buckets.sum
+    if (total == 0) {
+      return 0
+    }
+    val rank = math.max(1, math.ceil(quantile * total).toLong)
+    var seen = 0L
+    for (i <- 0 until Bounds.length) {
+      seen += buckets(i)
+      if (seen >= rank) {
+        return math.min(Bounds(i), getMax)
+      }
+    }
+    getMax
+  }
+
+  override def getCount = count.get
+
+  override def getLast = last.get
+
+  override def getMin = if (getCount == 0) 0 else min.get
+
+  override def getMax = if (getCount == 0) 0 else max.get
+
+  override def getMean = if (getCount == 0) 0.0 else sum.get.toDouble / getCount
+
+  override def get50thPercentile = percentile(0.5)
+
+  override def get95thPercentile = percentile(0.95)
+
+  override def get99thPercentile = percentile(0.99)
+
+  override def values = Map(
+    "count" -> getCount,
+    "last" -> getLast,
+    "min" -> getMin,
+    "max" -> getMax,
+    "mean" -> getMean,
+    "p50" -> get50thPercentile,
+    "p95" -> get95thPercentile,
+    "p99" -> get99thPercentile
+  )
+
+  /**
+   * Returns the slot of the current period, clearing it if it was last used a window ago.
+   */
+  private def currentSlot: Slot = {
+    val period = clock() / slotLength
+    val slot = slots((period % Slots).toInt)
+    if (slot.period != period) {
+      slot.synchronized {
+        if (slot.period != period) {
+          for (i <- 0 until slot.buckets.length) {
+            slot.buckets.set(i, 0)
+          }
+          slot.period = period
+        }
+      }
+    }
+    slot
+  }
+
+  private def updateMin(value: Long) {
+    var current = min.get
+    while (value < current && !min.compareAndSet(current, value)) {
+      current = min.get
+    }
+  }
+
+  private def updateMax(value: Long) {
+    var current = max.get
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get
+    }
+  }
+
+}
+
+object Histogram {
+
+  /**
+   * Default time percentiles are estimated over.
+   */
+  val DefaultWindow = 5 * minute
+
+  // the number of parts the window is split into
+  private val Slots = 5
+
+  /**
+   * Upper bounds of the buckets: 1, 2, 5, 10, 20, 50 and so on up to 5,000,000 (over an hour in milliseconds).
+   */
+  val Bounds: Array[Long] = (for (power <- 0 to 6; step <- Seq(1L, 2L, 5L)) yield step * math.pow(10, power).toLong).toArray
+
+  /**
+   * Value counts of a part of the window, by bucket.
+   */
+  private class Slot {
+
+    @volatile var period = Long.MinValue
+
+    val buckets = new AtomicLongArray(Bounds.length + 1)
+
+  }
+
+  private def bucket(value: Long): Int = {
+    java.util.Arrays.binarySearch(Bounds, value) match {
+      case found if found >= 0 => found
+      case notFound => -notFound - 1
+    }
+  }
+
+}
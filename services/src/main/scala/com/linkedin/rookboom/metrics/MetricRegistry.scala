@@ -0,0 +1,123 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.metrics
+
+import com.linkedin.rookboom.util.Logging
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import javax.management.{InstanceAlreadyExistsException, StandardMBean, ObjectName, MBeanServer}
+import scala.collection.JavaConverters._
+import scala.collection.immutable.SortedMap
+import scala.reflect.ClassTag
+import scala.util.control.NonFatal
+
+/**
+ * A registry of named metrics. Metrics are created on the first use and registered as MBeans if there is a server.
+ * The MBeans are unregistered when the registry is closed, metrics created after that are not registered any more.
+ * @param domain JMX domain of the metrics
+ * @param mbeanServer the server to register the metrics with
+ */
+class MetricRegistry(val domain: String, val mbeanServer: Option[MBeanServer]) extends Logging {
+
+  private val metrics = new ConcurrentHashMap[String, Metric]()
+
+  @volatile private var closed = false
+
+  def counter(name: String): Counter = getOrAdd(name, new Counter)(c => new StandardMBean(c, classOf[CounterMBean]))
+
+  def histogram(name: String): Histogram = getOrAdd(name, new Histogram)(h => new StandardMBean(h, classOf[HistogramMBean]))
+
+  /**
+   * Returns the current values of all the metrics by metric name.
+   */
+  def snapshot: SortedMap[String, Map[String, Any]] = {
+    SortedMap(metrics.asScala.toSeq.map(m => m._1 -> m._2.values): _*)
+  }
+
+  /**
+   * Unregisters the MBeans of all the metrics, so the server doesn't keep them after the application is stopped.
+   */
+  def close() {
+    closed = true
+    mbeanServer.foreach(server => {
+      metrics.keySet.asScala.foreach(name => {
+        try {
+          val objectName = getObjectName(name)
+          if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName)
+          }
+        } catch {
+          case NonFatal(e) => log.warn("Can't unregister metric '{}': {}", name, e.getMessage)
+        }
+      })
+    })
+  }
+
+  private def getOrAdd[M <: Metric : ClassTag](name: String, create: => M)(mbean: M => AnyRef): M = {
+    val metric = metrics.get(name) match {
+      case null =>
+        val created = create
+        metrics.putIfAbsent(name, created) match {
+          case null =>
+            export(name, mbean(created))
+            created
+          case existing => existing
+        }
+      case existing => existing
+    }
+    metric match {
+      case m: M => m
+      case _ => throw new IllegalArgumentException("Metric '" + name + "' is a " + metric.getClass.getSimpleName)
+    }
+  }
+
+  private def export(name: String, mbean: AnyRef) {
+    mbeanServer.filterNot(_ => closed).foreach(server => {
+      val objectName = getObjectName(name)
+      try {
+        try {
+          server.registerMBean(mbean, objectName)
+        } catch {
+          // left by a previous instance of the application in the same JVM
+          case e: InstanceAlreadyExistsException =>
+            server.unregisterMBean(objectName)
+            server.registerMBean(mbean, objectName)
+        }
+      } catch {
+        case NonFatal(e) => log.warn("Can't register metric '{}': {}", name, e.getMessage)
+      }
+    })
+  }
+
+  private def getObjectName(name: String) = new ObjectName(domain + ":type=Metrics,name=" + ObjectName.quote(name))
+
+}
+
+/**
+ * The metrics of the application, they are exported to the platform MBean server.
+ */
+object Metrics {
+
+  val Domain = "com.linkedin.rookboom"
+
+  val registry = new MetricRegistry(Domain, Some(ManagementFactory.getPlatformMBeanServer))
+
+  def counter(name: String): Counter = registry.counter(name)
+
+  def histogram(name: String): Histogram = registry.histogram(name)
+
+}
@@ -22,42 +22,44 @@ package com.linkedin.rookboom.schedule
  */
 abstract class AbstractScheduleManager extends ScheduleManager {
 
+  /**
+   * Folds schedules of all the given time slots into one, as if all the slots started at the beginning of the first one.
+   * Only mailboxes that have schedule for all the slots are returned.
+   */
   override def getSchedule(mailboxes: Set[String], times: Seq[TimeSlot]): Map[String, Seq[Event]] = {
-    val schedules = times.map(time => {
-      val schedule = getSchedule(mailboxes, time)
-      offsetSchedule(schedule, -time.begin)
-    })
-    val emptySchedule = mailboxes.map(mailbox => (mailbox, Seq.empty[Event])).toMap
-    val combinedSchedules = schedules.foldLeft(emptySchedule)(combineSchedules)
-    offsetSchedule(combinedSchedules, times.head.begin)
+    val schedules = getSchedules(mailboxes, times)
+    val available = mailboxes.filter(mailbox => schedules.forall(_.contains(mailbox)))
+    available.map(mailbox => {
+      // all occurrences are merged in one pass over events sorted by their offset start time
+      val events = times.zip(schedules).flatMap {
+        case (time, schedule) => schedule(mailbox).map(offsetEvent(_, times.head.begin - time.begin))
+      }
+      mailbox -> mergeEvents(events)
+    }).toMap
   }
 
-  private def offsetSchedule(schedule: Map[String, Seq[Event]], begin: Long): Map[String, Seq[Event]] = {
-    schedule.map {
-      case (mailbox, events) => (mailbox, events.map(offsetEvent(_, begin)))
-    }
+  /**
+   * Returns schedules for each of the given time slots. Implementations that can fetch all the slots at once should
+   * override this method.
+   */
+  protected def getSchedules(mailboxes: Set[String], times: Seq[TimeSlot]): Seq[Map[String, Seq[Event]]] = {
+    times.map(getSchedule(mailboxes, _))
   }
 
-  private def offsetEvent(event: Event, begin: Long): Event = {
+  private def offsetEvent(event: Event, offset: Long): Event = {
     val time = event.time
-    val newTime = TimeSlot(time.begin + begin, time.end + begin)
+    val newTime = TimeSlot(time.begin + offset, time.end + offset)
     fakeEvent(newTime)
   }
 
   private def fakeEvent(time: TimeSlot) = Event(0, time)
 
-  private def combineSchedules(s1: Map[String, Seq[Event]], s2: Map[String, Seq[Event]]): Map[String, Seq[Event]] = {
-    s1.map {
-      case (mailbox, events) => (mailbox, combineSchedules(events, s2(mailbox)))
-    }
-  }
-
-  private def combineSchedules(e1: Seq[Event], e2: Seq[Event]): Seq[Event] = {
-    val events = (e1 ++ e2).sortBy(_.time.begin).toList
-    if (events.isEmpty) {
+  private def mergeEvents(events: Seq[Event]): Seq[Event] = {
+    val sorted = events.sortBy(_.time.begin).toList
+    if (sorted.isEmpty) {
       Seq.empty[Event]
     } else {
-      events.tail.foldLeft(List(events.head))((acc, curr) => {
+      sorted.tail.foldLeft(List(sorted.head))((acc, curr) => {
         val prev = acc.head
         if (prev.time.includes(curr.time)) {
           acc
@@ -26,6 +26,10 @@ import java.util.TimeZone
  */
 trait BookingService {
 
+  /**
+   * Submits a meeting booking job. The job is executed asynchronously, use getJob() to get its outcome.
+   * @return id of the job
+   */
   def book(organizer: String,
            time: TimeSlot,
            timeZone: TimeZone,
@@ -35,10 +39,29 @@ trait BookingService {
            resources: Set[String],
            required: Set[String],
            optional: Set[String],
-           repetition: Option[Repetition])
+           repetition: Option[Repetition]): String
 
-  def cancel(id: Long)
+  /**
+   * Submits a meeting cancellation job. The job is executed asynchronously, use getJob() to get its outcome.
+   * @return id of the job
+   */
+  def cancel(id: Long): String
 
+  /**
+   * Returns the current state of a booking job. Completed jobs are kept for a limited time only.
+   * @param jobId id of the job
+   * @param user name of the user asking for the job
+   * @return the job or None if there is no such job or it has been submitted by another user
+   */
+  def getJob(jobId: String, user: String): Option[BookingJob]
+
+}
+
+case class BookingJob(id: String, user: String, status: BookingJobStatus.BookingJobStatus, error: Option[String] = None)
+
+object BookingJobStatus extends Enumeration {
+  type BookingJobStatus = Value
+  val Pending, Succeeded, Failed = Value
 }
 
 class BookingException(message: String, cause: Throwable = null) extends UserVisibleException(message, cause)
@@ -17,17 +17,30 @@
 package com.linkedin.rookboom.schedule
 
 import com.linkedin.rookboom.schedule.dao.{EwsAppointmentDao, InternalScheduleDao}
-import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.metrics.Metrics
+import com.linkedin.rookboom.util.{UserVisibleException, Logging}
 import com.linkedin.rookboom.schedule.TrackingStatus._
+import com.linkedin.rookboom.schedule.BookingJobStatus._
 import com.linkedin.rookboom.util.TimeUtils._
-import java.util.TimeZone
+import java.util.{UUID, TimeZone}
 import scala.Predef._
 import com.linkedin.rookboom.util.TxUtils._
 import org.springframework.transaction.PlatformTransactionManager
 import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
+import scala.collection.JavaConverters._
+import scala.compat.Platform
+import java.util.concurrent.{ScheduledThreadPoolExecutor, ThreadFactory, TimeUnit, ConcurrentHashMap}
+import java.util.concurrent.atomic.AtomicInteger
+import org.apache.http.auth.{NTUserPrincipal, Credentials}
 
 /**
  * A BookingService implementation that tries to acquire resources first and then adds attendees.
+ *
+ * Every booking operation is a job executed by a scheduler as a chain of steps. Waiting for Exchange to process a
+ * request is done by scheduling the next check instead of sleeping, so neither a request thread nor a database
+ * connection is held in the meantime. Acceptance of all the bookings in progress is checked by a single periodic task.
+ *
  * @author Dmitriy Yefremov
  */
 class BookingServiceImpl(val txManager: PlatformTransactionManager,
@@ -36,11 +49,34 @@ class BookingServiceImpl(val txManager: PlatformTransactionManager,
                          val scheduleManager: ScheduleManager,
                          val listeners: Seq[BookingEventListener],
                          val bookingTimeout: Long,
-                         val deletingTimeout: Long) extends BookingService with Logging {
+                         val deletingTimeout: Long,
+                         val userCredentials: () => Credentials,
+                         val trackingInterval: Long = second) extends BookingService with Logging {
+
+  import BookingServiceImpl._
 
   // TODO how to do it without an extra variable?
   private implicit val implicitTxManager = txManager
 
+  private val scheduler = new ScheduledThreadPoolExecutor(WorkerThreads, BookingThreadFactory)
+
+  // steps and expirations still waiting are dropped on shutdown
+  scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false)
+
+  private val jobs = new ConcurrentHashMap[String, BookingJob]()
+
+  // appointments waiting for the resources to respond by job id
+  private val trackings = new ConcurrentHashMap[String, Tracking]()
+
+  scheduler.scheduleWithFixedDelay(new Runnable {
+    def run() {
+      try {
+        checkTrackings()
+      } catch {
+        case NonFatal(e) => log.error("Tracking check failed", e)
+      }
+    }
+  }, trackingInterval, trackingInterval, TimeUnit.MILLISECONDS)
 
   override def book(organizer: String,
                     time: TimeSlot,
@@ -51,23 +87,28 @@ class BookingServiceImpl(val txManager: PlatformTransactionManager,
                     resources: Set[String],
                     required: Set[String],
                     optional: Set[String],
-                    repetition: Option[Repetition]) {
-    readWriteTransaction {
+                    repetition: Option[Repetition]): String = {
+    submit(job => {
       log.info(s"Meeting request received: $organizer, $resources, $time")
+      val onBooked = () => {
+        log.info("The meeting was created successfully")
+        notifyListeners(_.onBook(time, resources, required ++ optional))
+        complete(job)
+      }
       if (resources.isEmpty) {
-        doBook(time, timeZone, subject, body, location, repetition, required, optional)
+        doBook(job, time, timeZone, subject, body, location, repetition, required, optional)
+        onBooked()
       } else {
-        doBook(time, timeZone, subject, body, location, repetition, resources, required, optional)
+        doBook(job, time, timeZone, subject, body, location, repetition, resources, required, optional)(onBooked)
       }
-      log.info("The meeting was created successfully")
-      notifyListeners(_.onBook(time, resources, required ++ optional))
-    }
+    })
   }
 
   /**
    * Book a meeting with conference room(s)
    */
-  private def doBook(time: TimeSlot,
+  private def doBook(job: Job,
+                     time: TimeSlot,
                      timeZone: TimeZone,
                      subject: String,
                      body: String,
@@ -75,35 +116,35 @@ class BookingServiceImpl(val txManager: PlatformTransactionManager,
                      repetition: Option[Repetition],
                      resources: Set[String],
                      required: Set[String],
-                     optional: Set[String]) {
+                     optional: Set[String])(onBooked: () => Unit) {
     // check that the slot is empty
     checkSlotEmpty(resources, time)
     // send booking request
     val appt = failOnError(
-      appointmentDao.create(timeZone, time, subject, body, required, optional, resources, location, repetition),
+      job.appointmentDao.create(timeZone, time, subject, body, required, optional, resources, location, repetition),
       "Resource booking has failed"
     )
     // track acceptance
-    val tracking = failOnError(
-      trackAcceptance(appt, resources, bookingTimeout),
-      "Can't get tracking information"
-    )
-    if (tracking.exists(_._2 != Accept)) {
-      fail("The room is not confirmed: " + tracking)
-    }
-    // add attendees if needed
-    if (required.nonEmpty || optional.nonEmpty) {
-      failOnError(
-        appointmentDao.update(appt.uid, timeZone, None, None, None, Some(required), Some(optional), None, None),
-        "Failed to add attendees"
-      )
-    }
+    trackAcceptance(job, appt, resources, Platform.currentTime + bookingTimeout)(tracking => {
+      if (tracking.exists(_._2 != Accept)) {
+        fail("The room is not confirmed: " + tracking)
+      }
+      // add attendees if needed
+      if (required.nonEmpty || optional.nonEmpty) {
+        failOnError(
+          job.appointmentDao.update(appt.uid, timeZone, None, None, None, Some(required), Some(optional), None, None),
+          "Failed to add attendees"
+        )
+      }
+      onBooked()
+    })
   }
 
   /**
    * Book a meeting with no resources (without a conference room)
    */
-  private def doBook(time: TimeSlot,
+  private def doBook(job: Job,
+                     time: TimeSlot,
                      timeZone: TimeZone,
                      subject: String,
                      body: String,
@@ -112,7 +153,7 @@ class BookingServiceImpl(val txManager: PlatformTransactionManager,
                      required: Set[String],
                      optional: Set[String]) {
     failOnError(
-      appointmentDao.create(timeZone, time, subject, body, required, optional, Set(), location, repetition),
+      job.appointmentDao.create(timeZone, time, subject, body, required, optional, Set(), location, repetition),
       "Failed to create an appointment"
     )
   }
@@ -129,64 +170,152 @@ class BookingServiceImpl(val txManager: PlatformTransactionManager,
     }
   }
 
-  private def trackAcceptance(appt: Appointment, resources: Set[String], timeLeft: Long): Map[String, TrackingStatus] = {
-    // map containing all resources with status "unknown"
-    val unknownTracking = resources.map(_ -> Unknown).toMap
-    // try to get real acceptance information
-    val tracking = appointmentDao.track(appt.uid)
-    val filteredTracking = tracking match {
-      case Some(t) => unknownTracking ++ t.filter(x => resources.contains(x._1))
-      case None => unknownTracking
-    }
-    filteredTracking match {
-      case t if !t.exists(_._2 == Unknown) || timeLeft <= 0 => t
-      case _ =>
-        Thread.sleep(second)
-        trackAcceptance(appt, resources, timeLeft - second)
-    }
+  /**
+   * Checks acceptance of the appointment by the resources until all of them respond or the deadline passes.
+   */
+  private def trackAcceptance(job: Job, appt: Appointment, resources: Set[String], deadline: Long)
+                             (onTracked: Map[String, TrackingStatus] => Unit) {
+    trackings.put(job.id, Tracking(job, appt.uid, resources, Platform.currentTime, deadline, onTracked))
+  }
+
+  /**
+   * Checks all the appointments being tracked. Appointments of the same user are checked with a single request, so
+   * the cost doesn't grow with the number of bookings in progress. Tracked appointments continue their jobs.
+   */
+  private def checkTrackings() {
+    val byUser = trackings.values.asScala.toSeq.groupBy(_.job.user)
+    byUser.values.foreach(group => {
+      val uids = group.map(_.uid).toSet
+      // Exchange is called with the credentials of the user, all of the group share them
+      Try(group.head.job.appointmentDao.track(uids)) match {
+        case Success(tracking) => group.foreach(t => {
+          // all resources have status "unknown" until they respond
+          val unknownTracking = t.resources.map(_ -> Unknown).toMap
+          val filteredTracking = unknownTracking ++ tracking.getOrElse(t.uid, Map.empty).filterKeys(t.resources.contains)
+          if (!filteredTracking.exists(_._2 == Unknown) || Platform.currentTime >= t.deadline) {
+            untrack(t)
+            schedule(t.job, 0)(t.onTracked(filteredTracking))
+          }
+        })
+        case Failure(e) => group.foreach(t => {
+          untrack(t)
+          schedule(t.job, 0)(fail("Can't get tracking information", e))
+        })
+      }
+    })
   }
 
-  override def cancel(id: Long) {
-    readWriteTransaction {
+  private def untrack(tracking: Tracking) {
+    trackings.remove(tracking.job.id)
+    TrackingWait.update(Platform.currentTime - tracking.started)
+  }
+
+  override def cancel(id: Long): String = {
+    submit(job => {
       log.info("Meeting cancellation received: {}", id)
 
       val uid = failOnError(
-        internalDao.getAppointmentsById(Set(id))(id).extId.get,
+        readOnlyTransaction(internalDao.getAppointmentsById(Set(id))(id).extId.get),
         "Can't find the appointment"
       )
 
       val app = failOnError(
-        appointmentDao.read(uid).get,
+        job.appointmentDao.read(uid).get,
         "Can't load the appointment"
       )
 
       failOnError(
-        appointmentDao.delete(uid),
+        job.appointmentDao.delete(uid),
         "Failed do delete the appointment"
       )
 
-      val deleted = trackDeleting(uid, deletingTimeout)
-      if (!deleted) {
-        fail("Meeting deletion timed out")
+      trackDeleting(job, uid, Platform.currentTime + deletingTimeout) {
+        log.info("The meeting was cancelled successfully")
+        //TODO it takes some time for a deleted meeting to be updated in calendars (a better way needed)
+        schedule(job, CalendarUpdateDelay) {
+          notifyListeners(_.onCancel(app.time, app.resources, app.requiredAttendees ++ app.optionalAttendees))
+          complete(job)
+        }
       }
-
-      log.info("The meeting was cancelled successfully")
-      Thread.sleep(2000) //TODO it takes some time for a deleted meeting to be updated in calendars (a better way needed)
-      notifyListeners(_.onCancel(app.time, app.resources, app.requiredAttendees ++ app.optionalAttendees))
-    }
+    })
   }
 
-  private def trackDeleting(uid: String, timeLeft: Long): Boolean = {
-    val app = appointmentDao.read(uid)
+  /**
+   * Checks whether the appointment is gone until it is or the deadline passes.
+   */
+  private def trackDeleting(job: Job, uid: String, deadline: Long)(onDeleted: => Unit) {
+    val app = job.appointmentDao.read(uid)
     app match {
-      case None => true
-      case Some(_) if timeLeft <= 0 => false
-      case _ => {
-        Thread.sleep(second)
-        trackDeleting(uid, timeLeft - second)
+      case None => onDeleted
+      case Some(_) if Platform.currentTime >= deadline => fail("Meeting deletion timed out")
+      case _ => schedule(job, trackingInterval) {
+        trackDeleting(job, uid, deadline)(onDeleted)
       }
     }
+  }
+
+  override def getJob(jobId: String, user: String): Option[BookingJob] = {
+    Option(jobs.get(jobId)).filter(_.user == user)
+  }
+
+  /**
+   * Stops the scheduler. The steps that are running are given some time to finish, the pending ones are dropped.
+   */
+  def close() {
+    scheduler.shutdown()
+    if (!scheduler.awaitTermination(ShutdownTimeout, TimeUnit.MILLISECONDS)) {
+      log.warn("Booking jobs didn't finish in time, interrupting")
+      scheduler.shutdownNow()
+    }
+  }
+
+  /**
+   * Registers a new job and schedules its first step.
+   */
+  private def submit(firstStep: Job => Unit): String = {
+    // the steps run on behalf of the submitter, whose credentials are only available in the request thread
+    val credentials = userCredentials()
+    // the name the user has authenticated with, an NT principal name is prefixed with the domain
+    val user = credentials.getUserPrincipal match {
+      case principal: NTUserPrincipal => principal.getUsername
+      case principal => principal.getName
+    }
+    val job = Job(UUID.randomUUID().toString, user, appointmentDao.withCredentials(credentials))
+    jobs.put(job.id, BookingJob(job.id, job.user, Pending))
+    schedule(job, 0)(firstStep(job))
+    job.id
+  }
+
+  /**
+   * Schedules a step of the job. A step failure fails the whole job.
+   */
+  private def schedule(job: Job, delay: Long)(step: => Unit) {
+    scheduler.schedule(new Runnable {
+      def run() {
+        try {
+          step
+        } catch {
+          case e: UserVisibleException => finish(BookingJob(job.id, job.user, Failed, Some(e.getMessage)))
+          case NonFatal(e) => {
+            log.error("Booking job failed", e)
+            finish(BookingJob(job.id, job.user, Failed, Some(GenericError)))
+          }
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS)
+  }
 
+  private def complete(job: Job) {
+    finish(BookingJob(job.id, job.user, Succeeded))
+  }
+
+  private def finish(result: BookingJob) {
+    jobs.put(result.id, result)
+    scheduler.schedule(new Runnable {
+      def run() {
+        jobs.remove(result.id)
+      }
+    }, JobExpiration, TimeUnit.MILLISECONDS)
   }
 
   private def notifyListeners(notification: (BookingEventListener) => Unit) {
@@ -213,3 +342,58 @@ class BookingServiceImpl(val txManager: PlatformTransactionManager,
   }
 
 }
+
+object BookingServiceImpl {
+
+  /**
+   * The number of threads executing booking jobs.
+   */
+  val WorkerThreads = 4
+
+  /**
+   * Time for which the outcome of a completed job is kept.
+   */
+  val JobExpiration = 10 * minute
+
+  /**
+   * Time the running steps are given to finish on shutdown.
+   */
+  val ShutdownTimeout = 10 * second
+
+  /**
+   * Time it takes for a deleted meeting to disappear from the calendars.
+   */
+  val CalendarUpdateDelay = 2 * second
+
+  val GenericError = "Booking operation has failed"
+
+  // the time from sending a booking to the resources responding or the deadline passing
+  private val TrackingWait = Metrics.histogram("booking.tracking.wait")
+
+  private object BookingThreadFactory extends ThreadFactory {
+
+    private val counter = new AtomicInteger()
+
+    def newThread(r: Runnable) = {
+      val thread = new Thread(r, "booking-" + counter.incrementAndGet())
+      thread.setDaemon(true)
+      thread
+    }
+
+  }
+
+}
+
+/**
+ * A booking operation.
+ * @param user the name of the user that has submitted the job
+ * @param appointmentDao the DAO calling Exchange on behalf of the user
+ */
+private case class Job(id: String, user: String, appointmentDao: EwsAppointmentDao)
+
+private case class Tracking(job: Job,
+                            uid: String,
+                            resources: Set[String],
+                            started: Long,
+                            deadline: Long,
+                            onTracked: Map[String, TrackingStatus] => Unit)
@@ -17,59 +17,218 @@
 
 package com.linkedin.rookboom.schedule
 
+import com.linkedin.rookboom.metrics.Metrics
 import com.linkedin.rookboom.util.Logging
 import com.linkedin.rookboom.util.TimeUtils._
 import net.sf.ehcache.{Element, CacheManager}
+import java.util.concurrent.{ThreadFactory, Executors, ConcurrentHashMap}
+import scala.concurrent.{Await, Future, ExecutionContext, Promise}
+import scala.concurrent.duration._
+import scala.compat.Platform
+import scala.util.control.NonFatal
 
 /**
  * This class works as a caching proxy for a real schedule manager implementation.
  * One day schedule for a resource is used as a caching unit.
  *
+ * Only missing days are loaded from the delegate and only one load per day is running at a time, concurrent requests
+ * for the same day wait for it. Days older than the refresh interval are still served, but reloaded in background.
+ * Days that have got a newer version since they were cached, or since their load started, are reloaded before they are
+ * served.
+ *
  * @author Dmitriy Yefremov
  */
 class CachedScheduleManager(val delegate: ScheduleManager,
-                            val cacheManager: CacheManager) extends AbstractScheduleManager
+                            val cacheManager: CacheManager,
+                            val refreshAfter: Long = CachedScheduleManager.DefaultRefreshAfter,
+                            val versions: ScheduleVersions = new ScheduleVersions) extends AbstractScheduleManager
 with Logging
 with BookingEventListener {
 
+  import CachedScheduleManager._
+
   private val cache = cacheManager.getCache("schedule")
   require(cache != null, "Cache doesn't exist")
 
+  // loads in progress
+  private val loading = new ConcurrentHashMap[Key, Load]()
+
+  private implicit val refreshContext = ExecutionContext.fromExecutorService(Executors.newSingleThreadExecutor(RefreshThreadFactory))
+
   override def getSchedule(mailboxes: Set[String], time: TimeSlot): Map[String, Seq[Event]] = {
     val days = toDays(time.begin, time.end)
-    // load everything possible from cache
-    val cacheResults = mailboxes.map(mailbox => mailbox -> days.map(getDayFromCache(mailbox, _)))
-    val cachedSchedule = cacheResults.filter(_._2.forall(_.isDefined)).map(x => x._1 -> x._2.flatten.flatten).toMap
+    collectDays(mailboxes, days, getDays(mailboxes, days))
+  }
+
+  /**
+   * Gets days of all the time slots at once, so missing days of all occurrences are loaded in one pass.
+   */
+  override protected def getSchedules(mailboxes: Set[String], times: Seq[TimeSlot]): Seq[Map[String, Seq[Event]]] = {
+    val daysByTime = times.map(time => toDays(time.begin, time.end))
+    val allDays = getDays(mailboxes, daysByTime.flatten.distinct)
+    daysByTime.map(collectDays(mailboxes, _, allDays))
+  }
+
+  private def getDays(mailboxes: Set[String], days: Seq[Long]): Map[Key, Seq[Event]] = {
+    val keys = for (mailbox <- mailboxes; day <- days) yield Key(mailbox, day)
+    // load everything possible from cache, days changed since they were cached are loaded again
+    val cached = keys.flatMap(key => getDayFromCache(key).filter(_.version >= version(key)).map(key -> _)).toMap
+    // outdated days are still good to be returned, but they have to be refreshed
+    val now = Platform.currentTime
+    val outdated = cached.filter(_._2.loaded + refreshAfter < now).keySet
+    Hits.inc(cached.size)
+    Misses.inc(keys.size - cached.size)
+    if (outdated.nonEmpty) {
+      Refreshes.inc(outdated.size)
+      refresh(outdated)
+    }
     // load the rest from the delegate
-    val mailboxesToReload = mailboxes -- cachedSchedule.keySet
-    val reloadedSchedule = reloadSchedule(mailboxesToReload, days)
-    // save the loaded piece to cache
-    reloadedSchedule.foreach(x => days.foreach(d => putDayToCache(x._1, d, applyTimeWindow(x._2, d, forward(d, day)))))
-    // the result
-    cachedSchedule ++ reloadedSchedule
+    val loaded = load(keys -- cached.keySet)
+    cached.mapValues(_.events) ++ loaded
   }
 
-  def reloadSchedule(mailboxes: Set[String], days: Seq[Long]): Map[String, Seq[Event]] = {
-    if (mailboxes.isEmpty) {
-      Map.empty[String, Seq[Event]]
+  /**
+   * Combines the given days into schedule (only mailboxes that have all days loaded).
+   */
+  private def collectDays(mailboxes: Set[String], days: Seq[Long], allDays: Map[Key, Seq[Event]]): Map[String, Seq[Event]] = {
+    mailboxes.flatMap(mailbox => {
+      val mailboxDays = days.map(day => allDays.get(Key(mailbox, day)))
+      if (mailboxDays.forall(_.isDefined)) {
+        // events crossing a day boundary are cached for each day
+        Some(mailbox -> mailboxDays.flatten.flatten.distinct)
+      } else {
+        None
+      }
+    }).toMap
+  }
+
+  /**
+   * Loads the given days. Days that are being loaded by someone else are not requested again, the result of that
+   * load is awaited. Days that have changed while being loaded are loaded again.
+   */
+  private def load(keys: Set[Key], attempts: Int = MaxLoadAttempts): Map[Key, Seq[Event]] = {
+    if (keys.isEmpty) {
+      return Map.empty
+    }
+    val claimed = keys.map(key => key -> claim(key))
+    val (own, others) = claimed.partition(_._2._2)
+    val ownLoaded = complete(own.map(x => x._1 -> x._2._1).toMap)
+    val othersLoaded = others.flatMap {
+      case (key, (load, _)) => Await.result(load.promise.future, LoadTimeout).map(key -> _)
+    }
+    val loaded = ownLoaded ++ othersLoaded
+    // a load started before the last change of a day returns its previous schedule
+    val outdated = claimed.collect {
+      case (key, (load, _)) if load.version != version(key) => key
+    }
+    if (outdated.nonEmpty && attempts > 1) {
+      log.info("Days changed while being loaded, reloading {}", outdated)
+      loaded -- outdated ++ load(outdated, attempts - 1)
     } else {
-      log.info("Reloading days '{}' for resources '{}'", days, mailboxes)
-      delegate.getSchedule(mailboxes, TimeSlot(days.head, forward(days.last, day)))
+      loaded
+    }
+  }
+
+  /**
+   * Reloads the given days in background. Days that are being loaded already are skipped.
+   */
+  private def refresh(keys: Set[Key]) {
+    val own = keys.map(key => key -> claim(key)).filter(_._2._2).map(x => x._1 -> x._2._1).toMap
+    if (own.nonEmpty) {
+      Future {
+        complete(own)
+      }.onFailure {
+        case e => log.warn("Background schedule refresh failed", e)
+      }
+    }
+  }
+
+  /**
+   * Registers a load of the given day.
+   * @return the load and true if it has to be done by the caller
+   */
+  private def claim(key: Key): (Load, Boolean) = {
+    // taken before loading, so changes made while loading make the loaded day outdated
+    val load = new Load(version(key))
+    loading.putIfAbsent(key, load) match {
+      case null => (load, true)
+      case existing => (existing, false)
+    }
+  }
+
+  /**
+   * Loads the claimed days from the delegate, saves them to cache and notifies the waiting callers.
+   */
+  private def complete(claimed: Map[Key, Load]): Map[Key, Seq[Event]] = {
+    val loaded = try {
+      reloadSchedule(claimed.keySet)
+    } catch {
+      case NonFatal(e) =>
+        claimed.foreach {
+          case (key, load) =>
+            loading.remove(key, load)
+            load.promise.failure(e)
+        }
+        throw e
+    }
+    claimed.foreach {
+      case (key, load) =>
+        val events = loaded.get(key)
+        // the load could have been invalidated while running, its result must not get to cache then
+        if (loading.remove(key, load)) {
+          events.foreach(putDayToCache(key, _, load.version))
+        }
+        load.promise.success(events)
     }
+    loaded
+  }
+
+  /**
+   * Loads the given days from the delegate. Mailboxes missing the same days are loaded together, contiguous days are
+   * loaded with a single request.
+   */
+  private def reloadSchedule(keys: Set[Key]): Map[Key, Seq[Event]] = {
+    val daysByMailbox = keys.groupBy(_.mailbox).mapValues(_.map(_.dayStart).toSeq.sorted)
+    val mailboxesByDays = daysByMailbox.groupBy(_._2).mapValues(_.keySet)
+    mailboxesByDays.toSeq.flatMap {
+      case (days, mailboxes) =>
+        toRanges(days).flatMap(range => {
+          log.info("Reloading days '{}' for resources '{}'", range, mailboxes)
+          val schedule = LoadTime.time {
+            delegate.getSchedule(mailboxes, TimeSlot(range.head, forward(range.last, day)))
+          }
+          for {
+            (mailbox, events) <- schedule.toSeq if mailboxes.contains(mailbox)
+            dayStart <- range
+          } yield Key(mailbox, dayStart) -> applyTimeWindow(events, dayStart, forward(dayStart, day))
+        })
+    }.toMap
   }
 
   private def toDays(from: Long, to: Long): Seq[Long] = {
     roundToDayDown(from).until(to, day)
   }
 
-  private def putDayToCache(mailbox: String, day: Long, schedule: Seq[Event]) {
-    cache.put(new Element(Key(mailbox, day), schedule))
+  /**
+   * Splits sorted days into ranges of contiguous days.
+   */
+  private def toRanges(days: Seq[Long]): Seq[Seq[Long]] = {
+    days.foldLeft(List.empty[List[Long]]) {
+      case (current :: done, d) if forward(current.head, day) == d => (d :: current) :: done
+      case (acc, d) => List(d) :: acc
+    }.map(_.reverse).reverse
+  }
+
+  private def putDayToCache(key: Key, schedule: Seq[Event], version: Long) {
+    cache.put(new Element(key, CachedDay(schedule, Platform.currentTime, version)))
   }
 
-  private def getDayFromCache(mailbox: String, day: Long): Option[Seq[Event]] = {
-    cache.get(Key(mailbox, day)) match {
+  private def version(key: Key): Long = versions.version(key.mailbox, key.dayStart)
+
+  private def getDayFromCache(key: Key): Option[CachedDay] = {
+    cache.get(key) match {
       case null => None
-      case element => Some(element.getObjectValue.asInstanceOf[Seq[Event]])
+      case element => Some(element.getObjectValue.asInstanceOf[CachedDay])
     }
   }
 
@@ -78,7 +237,11 @@ with BookingEventListener {
   private def onEvent(time: TimeSlot, resources: Set[String], attendees: Set[String]) {
     val dayStart = roundToDayDown(time.begin)
     val toInvalidate = attendees ++ resources
-    toInvalidate.foreach(mailbox => cache.remove(Key(mailbox, dayStart)))
+    toInvalidate.foreach(mailbox => {
+      val key = Key(mailbox, dayStart)
+      cache.remove(key)
+      loading.remove(key)
+    })
     log.info("Invalidated cache on day {} for: {}", dayStart, toInvalidate)
   }
 
@@ -92,9 +255,52 @@ with BookingEventListener {
 
 }
 
-/**
- * Represents a cache key for a single day.
- */
+object CachedScheduleManager {
+
+  /**
+   * Default time after which a cached day is reloaded in background.
+   */
+  val DefaultRefreshAfter = minute
+
+  /**
+   * The maximum time to wait for a day being loaded by another request.
+   */
+  val LoadTimeout = 2.minutes
+
+  /**
+   * The maximum number of times days are loaded when they keep changing while being loaded.
+   */
+  val MaxLoadAttempts = 3
+
+  // days served from cache, outdated ones included
+  private val Hits = Metrics.counter("schedule.cache.hits")
+
+  // days loaded from the delegate or awaited from another load
+  private val Misses = Metrics.counter("schedule.cache.misses")
+
+  // outdated days reloaded in background
+  private val Refreshes = Metrics.counter("schedule.cache.refreshes")
+
+  private val LoadTime = Metrics.histogram("schedule.cache.load")
+
+  private object RefreshThreadFactory extends ThreadFactory {
+    def newThread(r: Runnable) = {
+      val thread = new Thread(r, "schedule-cache-refresh")
+      thread.setDaemon(true)
+      thread
+    }
+  }
+
+}
+
 private case class Key(mailbox: String, dayStart: Long)
 
+private case class CachedDay(events: Seq[Event], loaded: Long, version: Long)
 
+/**
+ * A load of a day started at the given version of it, None as its result means that the delegate returned nothing for
+ * the mailbox. Loads are compared by identity.
+ */
+private class Load(val version: Long) {
+  val promise = Promise[Option[Seq[Event]]]()
+}
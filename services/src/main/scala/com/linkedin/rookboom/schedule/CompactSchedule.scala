@@ -0,0 +1,75 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import scala.collection.mutable
+
+/**
+ * Schedules of several mailboxes on a time mask in a compact form: a busy bitmask of the mask frames per mailbox and
+ * a table of the events covering the frames, where each event is present once even if it is in several schedules.
+ *
+ * @param records schedules by mailbox
+ * @param events events referenced by the schedules
+ */
+case class CompactSchedule(records: Map[String, CompactRecord], events: Seq[Event])
+
+/**
+ * Schedule of a mailbox on a time mask.
+ * @param busy bitmask of busy frames, bit i % 32 of word i / 32 is set if frame i is busy
+ * @param events indexes of the events covering the frames in the event table
+ */
+case class CompactRecord(busy: Seq[Int], events: Seq[Int])
+
+object CompactSchedule {
+
+  /**
+   * Converts schedules into the compact form. A frame is busy if an event overlaps it, the same way as for
+   * availability records. Every schedule is converted in a single sweep over its events sorted by start time.
+   * @param schedules events by mailbox
+   * @param mask time mask
+   * @return compact schedule
+   */
+  def apply(schedules: Map[String, Seq[Event]], mask: TimeMask): CompactSchedule = {
+    val frames = mask.frames.toArray
+    val table = mutable.LinkedHashMap.empty[Event, Int]
+    val records = schedules.map {
+      case (mailbox, events) => {
+        val busy = new Array[Int]((frames.length + 31) / 32)
+        val indexes = mutable.ArrayBuffer.empty[Int]
+        // frames before 'first' end before any further event starts, frames before 'marked' are busy already
+        var first, marked = 0
+        for (event <- events.sortBy(_.time.begin)) {
+          while (first < frames.length && frames(first) + mask.interval <= event.time.begin) {
+            first += 1
+          }
+          if (first < frames.length && frames(first) < event.time.end) {
+            indexes += table.getOrElseUpdate(event, table.size)
+            var i = math.max(first, marked)
+            while (i < frames.length && frames(i) < event.time.end) {
+              busy(i / 32) |= 1 << (i % 32)
+              i += 1
+            }
+            marked = i
+          }
+        }
+        mailbox -> CompactRecord(busy.toVector, indexes)
+      }
+    }
+    CompactSchedule(records, table.keys.toVector)
+  }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import com.linkedin.rookboom.schedule.dao.InternalEvent
+
+/**
+ * An in-memory copy of the stored events of a set of mailboxes within a time window.
+ * The index is authoritative only for the mailboxes and the time window it was built for, any other request must be
+ * served from the database.
+ * Rebuilds and updates load the events while holding the index lock, so data read before a concurrent update can never
+ * be published after it.
+ */
+class EventIndex {
+
+  @volatile
+  private var window: Option[TimeSlot] = None
+
+  @volatile
+  private var indexes: Map[String, MailboxIndex] = Map.empty
+
+  /**
+   * Returns events of the given mailboxes overlapping the given time slot.
+   * @param mailboxes set of mailboxes
+   * @param time time slot
+   * @return events or None if the index can't answer the request
+   */
+  def getEvents(mailboxes: Set[String], time: TimeSlot): Option[Seq[InternalEvent]] = {
+    val currentIndexes = indexes
+    val covered = window.exists(_.includes(time)) && mailboxes.forall(currentIndexes.contains)
+    if (covered) {
+      Some(mailboxes.toSeq.flatMap(currentIndexes(_).find(time.begin, time.end)))
+    } else {
+      None
+    }
+  }
+
+  /**
+   * Replaces the whole content of the index.
+   * @param mailboxes mailboxes the index is built for (including the ones that have no events)
+   * @param time time window the index is built for
+   * @param load loads all stored events of the given mailboxes overlapping the time window
+   */
+  def rebuild(mailboxes: Set[String], time: TimeSlot)(load: => Seq[InternalEvent]) {
+    synchronized {
+      val grouped = load.groupBy(_.mailbox)
+      indexes = mailboxes.map(mailbox => mailbox -> MailboxIndex(grouped.getOrElse(mailbox, Seq.empty))).toMap
+      window = Some(time)
+    }
+  }
+
+  /**
+   * Replaces events of the given mailboxes within the given time slot. Mailboxes that are not indexed are ignored.
+   * @param mailboxes set of mailboxes
+   * @param time time slot to be replaced
+   * @param load loads all stored events of the given mailboxes overlapping the time slot
+   */
+  def update(mailboxes: Set[String], time: TimeSlot)(load: => Seq[InternalEvent]) {
+    synchronized {
+      val grouped = load.groupBy(_.mailbox)
+      val updated = mailboxes.filter(indexes.contains).map(mailbox => {
+        val kept = indexes(mailbox).events.filterNot(e => e.time.end > time.begin && e.time.begin < time.end)
+        mailbox -> MailboxIndex(kept ++ grouped.getOrElse(mailbox, Seq.empty))
+      })
+      indexes = indexes ++ updated
+    }
+  }
+
+  /**
+   * Drops all the indexed data.
+   */
+  def clear() {
+    synchronized {
+      indexes = Map.empty
+      window = None
+    }
+  }
+
+}
+
+/**
+ * Immutable interval index of a single mailbox. Events are kept sorted by start time in primitive arrays together with
+ * a running maximum of end times, so a lookup is two binary searches plus a scan over the candidates.
+ */
+private class MailboxIndex(val events: Array[InternalEvent],
+                           begins: Array[Long],
+                           ends: Array[Long],
+                           maxEnds: Array[Long]) {
+
+  /**
+   * Returns events satisfying the condition: end > from AND begin < to.
+   */
+  def find(from: Long, to: Long): Seq[InternalEvent] = {
+    // events starting at or after 'to' can't overlap
+    val hi = firstIndex(begins, to)
+    // events before 'lo' all end at or before 'from'
+    val lo = firstIndex(maxEnds, from + 1)
+    val result = Seq.newBuilder[InternalEvent]
+    var i = lo
+    while (i < hi) {
+      if (ends(i) > from) {
+        result += events(i)
+      }
+      i += 1
+    }
+    result.result()
+  }
+
+  /**
+   * Returns the first index of the sorted array with a value not less than the given key.
+   */
+  private def firstIndex(values: Array[Long], key: Long): Int = {
+    var lo = 0
+    var hi = values.length
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (values(mid) < key) {
+        lo = mid + 1
+      } else {
+        hi = mid
+      }
+    }
+    lo
+  }
+
+}
+
+private object MailboxIndex {
+
+  def apply(events: Seq[InternalEvent]): MailboxIndex = {
+    val sorted = events.sortBy(_.time.begin).toArray
+    val begins = new Array[Long](sorted.length)
+    val ends = new Array[Long](sorted.length)
+    val maxEnds = new Array[Long](sorted.length)
+    var maxEnd = Long.MinValue
+    var i = 0
+    while (i < sorted.length) {
+      begins(i) = sorted(i).time.begin
+      ends(i) = sorted(i).time.end
+      maxEnd = math.max(maxEnd, ends(i))
+      maxEnds(i) = maxEnd
+      i += 1
+    }
+    new MailboxIndex(sorted, begins, ends, maxEnds)
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import com.linkedin.rookboom.schedule.dao.{EwsEvent, InternalEvent}
+
+/**
+ * The difference between events stored in the database and events just fetched from Exchange.
+ * @param created fetched events that don't have a corresponding stored event
+ * @param deleted stored events that don't have a corresponding fetched event
+ */
+case class EventReconciliation(created: Seq[EwsEvent], deleted: Seq[InternalEvent]) {
+
+  /**
+   * Returns the number of created and deleted events per mailbox (only mailboxes that have changes).
+   */
+  def changesByMailbox: Map[String, (Int, Int)] = {
+    val createdCounts = created.groupBy(_.mailbox).mapValues(_.size)
+    val deletedCounts = deleted.groupBy(_.mailbox).mapValues(_.size)
+    (createdCounts.keySet ++ deletedCounts.keySet).map(mailbox => {
+      mailbox -> (createdCounts.getOrElse(mailbox, 0), deletedCounts.getOrElse(mailbox, 0))
+    }).toMap
+  }
+
+  def isEmpty = created.isEmpty && deleted.isEmpty
+
+}
+
+object EventReconciliation {
+
+  /**
+   * Matches the events in linear time. The result is the same as pairwise matching with EwsScheduleManager.isSame:
+   * events in the same slot match when the fetched one has no id or both have the same id.
+   * @param stored events stored in the database
+   * @param current events fetched from Exchange
+   */
+  def reconcile(stored: Seq[InternalEvent], current: Seq[EwsEvent]): EventReconciliation = {
+    // stored keys with and without the id
+    val storedSlots = stored.map(int => Key(int.mailbox, int.time, None)).toSet
+    val storedIds = stored.filter(_.extId.isDefined).map(int => Key(int.mailbox, int.time, int.extId)).toSet
+    // fetched keys (a fetched event without id matches any stored event in its slot)
+    val currentKeys = current.map(ext => Key(ext.mailbox, ext.time, ext.id)).toSet
+    val created = current.filterNot(ext => ext.id match {
+      case None => storedSlots.contains(Key(ext.mailbox, ext.time, None))
+      case id => storedIds.contains(Key(ext.mailbox, ext.time, id))
+    })
+    val deleted = stored.filterNot(int => {
+      currentKeys.contains(Key(int.mailbox, int.time, None)) ||
+        (int.extId.isDefined && currentKeys.contains(Key(int.mailbox, int.time, int.extId)))
+    })
+    EventReconciliation(created, deleted)
+  }
+
+  private case class Key(mailbox: String, time: TimeSlot, extId: Option[String])
+
+}
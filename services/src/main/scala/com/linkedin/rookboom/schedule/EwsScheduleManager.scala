@@ -16,6 +16,7 @@
 
 package com.linkedin.rookboom.schedule
 
+import com.linkedin.rookboom.metrics.Metrics
 import com.linkedin.rookboom.util.{Resolvable, TimeUtils, Reloadable, Logging}
 import java.util.concurrent.atomic.AtomicLong
 import scala.compat.Platform
@@ -28,9 +29,11 @@ import com.linkedin.rookboom.user.User
 import com.linkedin.rookboom.schedule.dao.InternalEvent
 import org.springframework.transaction.PlatformTransactionManager
 import com.linkedin.rookboom.util.TxUtils._
+import scala.util.{Failure, Success}
 
 /**
  * ScheduleManager implementation based on a microsoft exchange web services api. It uses an internal data store for caching.
+ * Schedule versions are changed after changes are published, so a new version always means new data.
  * @author Dmitriy Yefremov
  */
 class EwsScheduleManager(val txManager: PlatformTransactionManager,
@@ -39,7 +42,8 @@ class EwsScheduleManager(val txManager: PlatformTransactionManager,
                          val internalDao: InternalScheduleDao,
                          val ewsDao: EwsScheduleDao,
                          val reloadDays: Int,
-                         val resolveDays: Int) extends AbstractScheduleManager
+                         val resolveDays: Int,
+                         val versions: ScheduleVersions = new ScheduleVersions) extends AbstractScheduleManager
 with Logging
 with Reloadable
 with Resolvable
@@ -55,15 +59,18 @@ with BookingEventListener {
   // it is assumed that everything in the past is available
   private def isAvailable(time: TimeSlot): Boolean = time.end <= availableSlotEnd.get()
 
+  // in-memory copy of the reloading window, so most of the reads never touch the database
+  private val index = new EventIndex
+
+  private val ordering = new ReconciliationOrdering
+
   override def getSchedule(mailboxes: Set[String], time: TimeSlot): Map[String, Seq[Event]] = {
-    readWriteTransaction {
-      // different processing for users and resources
-      mailboxes.partition(userManager.getUserByAddress(_).isDefined) match {
-        case (users, rooms) =>
-          val userEvents = getUserSchedule(users, time)
-          val roomEvents = getRoomSchedule(rooms, time)
-          userEvents ++ roomEvents
-      }
+    // different processing for users and resources
+    mailboxes.partition(userManager.getUserByAddress(_).isDefined) match {
+      case (users, rooms) =>
+        val userEvents = getUserSchedule(users, time)
+        val roomEvents = getRoomSchedule(rooms, time)
+        userEvents ++ roomEvents
     }
   }
 
@@ -74,12 +81,18 @@ with BookingEventListener {
   }
 
   private def getRoomSchedule(mailboxes: Set[String], time: TimeSlot): Map[String, Seq[Event]] = {
-    if (!isAvailable(time)) {
-      log.info("{} isn't available locally, fetching from Exchange", time)
-      reloadEvents(mailboxes, time)
+    val events = index.getEvents(mailboxes, time).getOrElse {
+      val changes = if (!isAvailable(time)) {
+        log.info("{} isn't available locally, fetching from Exchange", time)
+        reloadEvents(mailboxes, time)
+      } else {
+        Seq.empty
+      }
+      // after reloading events everything is available in the database
+      val events = readOnlyTransaction(internalDao.getEvents(mailboxes, time))
+      versions.bump(changes)
+      events
     }
-    // after reloading events everything is available in the database
-    val events = internalDao.getEvents(mailboxes, time)
     toSchedule(mailboxes, events)
   }
 
@@ -132,43 +145,190 @@ with BookingEventListener {
   }
 
   override def reload() {
-    readWriteTransaction {
+    ReloadTime.time {
       val time = reloadingSlot(reloadDays)
       val mailboxes = allRooms
-      reloadEvents(mailboxes, time)
+      val changes = reloadEvents(mailboxes, time)
+      // publish only committed data
+      index.rebuild(mailboxes, time)(readOnlyTransaction(internalDao.getEvents(mailboxes, time)))
       availableSlotEnd.set(time.end)
+      versions.bump(changes)
+      // days that are not reloaded anymore don't need exact versions
+      versions.prune(time.begin)
     }
   }
 
-  private def reloadEvents(mailboxes: Set[String], time: TimeSlot) {
+  /**
+   * Reconciles stored events with the ones in Exchange. Events are fetched outside of any transaction, then every batch
+   * of mailboxes is reconciled and committed in its own short transaction, so no locks are held while Exchange is
+   * being waited for. It must not be called within a transaction for the same reason.
+   * Commits of a mailbox are serialized and leave alone what has been committed by the reconciliations that fetched
+   * later, so concurrent reloads, synchronizations and bookings can't bring back outdated events.
+   * @return time slots of the created and deleted events by mailbox
+   */
+  private def reloadEvents(mailboxes: Set[String], time: TimeSlot): Seq[(String, TimeSlot)] = {
     log.info("Reloading events")
-    // get existing internal data
-    val stored = internalDao.getEvents(mailboxes, time)
     // fetch actual availability
     log.info("Fetching events for {} mailboxes", mailboxes.size)
-    val current = ewsDao.getEvents(mailboxes, time).flatMap(_._2).toSeq
-    // find newly created appointments
-    val created = findCreated(stored, current)
-    log.info("Adding {} events", created.size)
-    internalDao.addEvents(created.map(toInternalEvent))
-    // find deleted appointments
-    val deleted = findDeleted(stored, current)
-    log.info("Deleting {} events", deleted.size)
-    internalDao.deleteEvents(deleted.map(_.id).toSet)
+    val fetch = ordering.start()
+    val batches = try {
+      val fetched = ewsDao.getEvents(mailboxes, time)
+      mailboxes.toSeq.grouped(MailboxBatchSize).map(batch => ordering.commit(fetch, batch.toSet, time) { later =>
+        // time slots committed by later fetches are up to date already
+        def outdated(mailbox: String, slot: TimeSlot) = later(mailbox).exists(intersects(slot, _))
+        retryOnConflict(MaxTransactionAttempts) {
+          readWriteTransaction {
+            val stored = internalDao.getEvents(batch.toSet, time).filterNot(e => outdated(e.mailbox, e.time))
+            val current = batch.flatMap(fetched.getOrElse(_, Seq.empty)).filterNot(e => outdated(e.mailbox, e.time))
+            val reconciliation = EventReconciliation.reconcile(stored, current)
+            internalDao.addEvents(reconciliation.created.map(toInternalEvent))
+            internalDao.deleteEvents(reconciliation.deleted.map(_.id).toSet)
+            reconciliation
+          }
+        }
+      }).toList
+    } finally {
+      ordering.finish(fetch)
+    }
+    val reconciliation = EventReconciliation(batches.flatMap(_.created), batches.flatMap(_.deleted))
+    reconciliation.changesByMailbox.foreach {
+      case (mailbox, (created, deleted)) => log.debug("Mailbox '{}': {} created, {} deleted", Array[AnyRef](mailbox, Int.box(created), Int.box(deleted)))
+    }
+    EventsCreated.update(reconciliation.created.size)
+    EventsDeleted.update(reconciliation.deleted.size)
+    log.info("Added {} events", reconciliation.created.size)
+    log.info("Deleted {} events", reconciliation.deleted.size)
     log.info("Reloading completed")
+    reconciliation.created.map(e => e.mailbox -> e.time) ++ reconciliation.deleted.map(e => e.mailbox -> e.time)
+  }
+
+  /**
+   * Applies the changes made to the room calendars since the previous call to the stored events. Changes of recurring
+   * series can't be applied item by item, so the rooms that have them are reconciled the same way reload() does it.
+   * The synchronization states are stored together with the changes, so it continues where it stopped after a restart.
+   * This is a lightweight alternative to reload(), which still has to be run from time to time to reconcile anything
+   * the synchronization has missed.
+   */
+  def sync() {
+    SyncTime.time {
+      val time = reloadingSlot(reloadDays)
+      val mailboxes = allRooms
+      log.info("Synchronizing {} mailboxes", mailboxes.size)
+      val states = readOnlyTransaction(internalDao.getSyncStates(mailboxes))
+      val fetch = ordering.start()
+      val changes = try {
+        val results = ewsDao.syncCalendars(mailboxes.map(mailbox => mailbox -> states.get(mailbox)).toMap)
+        val failed = results.collect {
+          case (mailbox, Failure(e)) => {
+            log.warn("Error synchronizing '{}': {}", mailbox, e.getMessage)
+            mailbox
+          }
+        }
+        val synced = results.collect {
+          case (mailbox, Success(result)) => mailbox -> result
+        }
+        // start from scratch next time, the full reload takes care of the mailbox in the meantime
+        val newStates = failed.filter(states.contains).map(_ -> None) ++
+          synced.filter(x => !states.get(x._1).exists(_ == x._2.syncState)).mapValues(r => Some(r.syncState))
+        applyChanges(fetch, synced.filter(_._2.changes > 0), newStates.toMap, time)
+      } finally {
+        ordering.finish(fetch)
+      }
+      val changed = changes.map(_._1).toSet
+      if (changed.nonEmpty) {
+        log.info("Events changed for {} mailboxes", changed.size)
+        index.update(changed, time)(readOnlyTransaction(internalDao.getEvents(changed, time)))
+        versions.bump(changes)
+      }
+      log.info("Synchronization completed")
+    }
+  }
+
+  /**
+   * Applies calendar changes to the stored events and stores the new synchronization states.
+   * @param fetch the ordering fetch id the changes were fetched with
+   * @param synced calendar changes by mailbox
+   * @param states the synchronization states to be stored
+   * @return time slots of the created and deleted events by mailbox
+   */
+  private def applyChanges(fetch: Long,
+                           synced: Map[String, EwsSyncResult],
+                           states: Map[String, Option[String]],
+                           time: TimeSlot): Seq[(String, TimeSlot)] = {
+    // events are identified by ids in another format
+    val itemIds = synced.toSeq.flatMap {
+      case (mailbox, result) => (result.changed.map(_.id) ++ result.deleted).map(EwsItemId(_, mailbox))
+    }.toSet
+    val eventIds = ewsDao.convertItemIds(itemIds)
+    // recurring series changes and unknown ids can only be handled by reconciling the whole mailbox
+    val unknown = (itemIds -- eventIds.keySet).map(_.mailbox)
+    val (reconciled, applied) = synced.partition {
+      case (mailbox, result) => result.changed.exists(_.recurring) || unknown.contains(mailbox)
+    }
+    val reconciledChanges = if (reconciled.nonEmpty) {
+      log.info("Reconciling {} mailboxes", reconciled.size)
+      reloadEvents(reconciled.keySet, time)
+    } else {
+      Seq.empty
+    }
+    val batches = applied.keys.toSeq.grouped(MailboxBatchSize).map(batch => ordering.commit(fetch, batch.toSet, time) { later =>
+      // time slots committed by later fetches are up to date already
+      def outdated(mailbox: String, slot: TimeSlot) = later(mailbox).exists(intersects(slot, _))
+      def eventId(mailbox: String, id: String) = eventIds(EwsItemId(id, mailbox)).id
+      retryOnConflict(MaxTransactionAttempts) {
+        readWriteTransaction {
+          val changedIds = for {
+            mailbox <- batch.toSet[String]
+            id <- applied(mailbox).changed.map(_.id) ++ applied(mailbox).deleted
+          } yield (mailbox, eventId(mailbox, id))
+          val stored = internalDao.getEvents(batch.toSet, time).filter(e => e.extId.exists(id => changedIds.contains((e.mailbox, id))))
+          val current = for {
+            mailbox <- batch
+            item <- applied(mailbox).changed
+            if item.busy && intersects(item.time, time)
+          } yield EwsEvent(Some(eventId(mailbox, item.id)), mailbox, item.time)
+          val reconciliation = EventReconciliation.reconcile(
+            stored.filterNot(e => outdated(e.mailbox, e.time)),
+            current.filterNot(e => outdated(e.mailbox, e.time))
+          )
+          internalDao.addEvents(reconciliation.created.map(toInternalEvent))
+          internalDao.deleteEvents(reconciliation.deleted.map(_.id).toSet)
+          internalDao.updateSyncStates(states.filterKeys(batch.contains))
+          reconciliation
+        }
+      }
+    }).toList
+    // the rest of the states have nothing to be stored with
+    val otherStates = states.filterKeys(mailbox => !applied.contains(mailbox))
+    if (otherStates.nonEmpty) {
+      readWriteTransaction(internalDao.updateSyncStates(otherStates))
+    }
+    val reconciliation = EventReconciliation(batches.flatMap(_.created), batches.flatMap(_.deleted))
+    EventsCreated.update(reconciliation.created.size)
+    EventsDeleted.update(reconciliation.deleted.size)
+    log.info("Applied changes of {} mailboxes: {} events added, {} deleted",
+      Array[AnyRef](Int.box(applied.size), Int.box(reconciliation.created.size), Int.box(reconciliation.deleted.size)))
+    reconciledChanges ++ reconciliation.created.map(e => e.mailbox -> e.time) ++ reconciliation.deleted.map(e => e.mailbox -> e.time)
   }
 
   override def resolve() {
-    readWriteTransaction {
+    ResolveTime.time {
       val time = reloadingSlot(resolveDays)
       val mailboxes = allRooms
-      resolveAppointments(mailboxes, time)
+      val changes = resolveAppointments(mailboxes, time)
+      index.update(mailboxes, time)(readOnlyTransaction(internalDao.getEvents(mailboxes, time)))
+      versions.bump(changes)
     }
   }
 
-  private def resolveAppointments(mailboxes: Set[String], time: TimeSlot) {
+  /**
+   * Resolves appointments of the stored events. Like reloading, Exchange is called outside of any transaction and only
+   * the writes are done within a short one.
+   * @return time slots of the events that got appointments by mailbox
+   */
+  private def resolveAppointments(mailboxes: Set[String], time: TimeSlot): Seq[(String, TimeSlot)] = {
     log.info("Resolving appointments")
-    val storedEvents = internalDao.getEvents(mailboxes, time)
+    val storedEvents = readOnlyTransaction(internalDao.getEvents(mailboxes, time))
     val unresolvedEvents = storedEvents.filter(e => e.extId.isDefined && e.appointment.isEmpty)
     val idsToConvert = unresolvedEvents.map(toEwsItemId).toSet
     log.info("Converting {} event ids", idsToConvert.size)
@@ -176,36 +336,42 @@ with BookingEventListener {
     val idsToResolve = convertedIds.values.toSet
     log.info("Resolving {} item ids", idsToResolve.size)
     val ewsApps = ewsDao.getAppointments(idsToResolve)
-    log.info("Adding {} appointments", ewsApps.size)
-    internalDao.addAppointments(ewsApps.values.map(toInternalAppointment).toSeq)
-    val intApps = internalDao.getAppointmentsByExtId(ewsApps.flatMap(_._2.id).toSet)
-    // map everything back to unresolved events
-    val idsToUpdate = unresolvedEvents.flatMap(event =>
-      for {
-        itemId <- convertedIds.get(toEwsItemId(event))
-        ewsApp <- ewsApps.get(itemId)
-        extId <- ewsApp.id
-        intApp <- intApps.get(extId)
-      } yield (event.id, intApp.id)
-    ).toMap
-    log.info("Updating {} events", idsToUpdate.size)
-    internalDao.updateAppointmentIds(idsToUpdate)
+    // both writes are idempotent, events deleted in the meantime are just not updated
+    val idsToUpdate = readWriteTransaction {
+      log.info("Adding {} appointments", ewsApps.size)
+      internalDao.addAppointments(ewsApps.values.map(toInternalAppointment).toSeq)
+      val intApps = internalDao.getAppointmentsByExtId(ewsApps.flatMap(_._2.id).toSet)
+      // map everything back to unresolved events
+      val idsToUpdate = unresolvedEvents.flatMap(event =>
+        for {
+          itemId <- convertedIds.get(toEwsItemId(event))
+          ewsApp <- ewsApps.get(itemId)
+          extId <- ewsApp.id
+          intApp <- intApps.get(extId)
+        } yield (event.id, intApp.id)
+      ).toMap
+      log.info("Updating {} events", idsToUpdate.size)
+      internalDao.updateAppointmentIds(idsToUpdate)
+      idsToUpdate
+    }
+    AppointmentsResolved.update(idsToUpdate.size)
     log.info("Resolving completed")
+    unresolvedEvents.filter(e => idsToUpdate.contains(e.id)).map(e => e.mailbox -> e.time)
   }
 
   override def onBook(time: TimeSlot, resources: Set[String], attendees: Set[String]) {
-    readWriteTransaction {
-      log.info("Meeting created. Reloading schedule for rooms: {}", resources)
-      reloadEvents(resources, time)
-      resolveAppointments(resources, time)
-    }
+    log.info("Meeting created. Reloading schedule for rooms: {}", resources)
+    val changes = reloadEvents(resources, time) ++ resolveAppointments(resources, time)
+    index.update(resources, time)(readOnlyTransaction(internalDao.getEvents(resources, time)))
+    // attendee schedules come from Exchange directly, but they have changed as well
+    versions.bump(changes ++ (resources ++ attendees).map(_ -> time))
   }
 
   override def onCancel(time: TimeSlot, resources: Set[String], attendees: Set[String]) {
-    readWriteTransaction {
-      log.info("Meeting deleted. Reloading schedule for rooms: {}", resources)
-      reloadEvents(resources, time)
-    }
+    log.info("Meeting deleted. Reloading schedule for rooms: {}", resources)
+    val changes = reloadEvents(resources, time)
+    index.update(resources, time)(readOnlyTransaction(internalDao.getEvents(resources, time)))
+    versions.bump(changes ++ (resources ++ attendees).map(_ -> time))
   }
 
 
@@ -213,30 +379,46 @@ with BookingEventListener {
 
 object EwsScheduleManager {
 
+  /**
+   * The number of mailboxes reconciled and committed within one transaction.
+   */
+  val MailboxBatchSize = 20
+
+  /**
+   * The number of times a batch is attempted when it loses a deadlock with another transaction.
+   */
+  val MaxTransactionAttempts = 3
+
+  /**
+   * Checks whether time slots have some time in common, the same way stored events are selected by time.
+   */
+  def intersects(a: TimeSlot, b: TimeSlot): Boolean = a.end > b.begin && a.begin < b.end
+
+  private val ReloadTime = Metrics.histogram("schedule.reload")
+
+  private val SyncTime = Metrics.histogram("schedule.sync")
+
+  private val ResolveTime = Metrics.histogram("schedule.resolve")
+
+  // the diff sizes of every reconciliation, including the ones of a single booking
+  private val EventsCreated = Metrics.histogram("schedule.events.created")
+
+  private val EventsDeleted = Metrics.histogram("schedule.events.deleted")
+
+  private val AppointmentsResolved = Metrics.histogram("schedule.appointments.resolved")
+
   /**
    * Returns current events that don't have a corresponding stored event.
    */
   def findCreated(stored: Seq[InternalEvent], current: Seq[EwsEvent]): Seq[EwsEvent] = {
-    current.filterNot {
-      ext =>
-        stored.exists {
-          int =>
-            isSame(int, ext)
-        }
-    }
+    EventReconciliation.reconcile(stored, current).created
   }
 
   /**
    * Returns stored events that don't have a corresponding current event.
    */
   def findDeleted(stored: Seq[InternalEvent], current: Seq[EwsEvent]): Seq[InternalEvent] = {
-    stored.filterNot {
-      int =>
-        current.exists {
-          ext =>
-            isSame(int, ext)
-        }
-    }
+    EventReconciliation.reconcile(stored, current).deleted
   }
 
   /**
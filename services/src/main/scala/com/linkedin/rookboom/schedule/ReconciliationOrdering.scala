@@ -0,0 +1,92 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+import scala.collection.mutable
+
+/**
+ * Orders reconciliations of stored events with the ones fetched from Exchange. Commits of a mailbox are serialized
+ * in-process, and every commit learns which parts of the mailbox schedule have already been committed by
+ * reconciliations that fetched their data later, so data fetched earlier never overrides them.
+ */
+class ReconciliationOrdering {
+
+  private var sequence = 0L
+
+  // fetches that have started and not finished yet
+  private val running = mutable.SortedSet.empty[Long]
+
+  // committed fetches by mailbox, only the ones later than the oldest running fetch are kept
+  private val committed = mutable.Map.empty[String, List[(Long, TimeSlot)]]
+
+  private val locks = new ConcurrentHashMap[String, ReentrantLock]()
+
+  /**
+   * Registers a new fetch, it must be called before Exchange is called.
+   * @return the fetch id
+   */
+  def start(): Long = synchronized {
+    sequence += 1
+    running += sequence
+    sequence
+  }
+
+  /**
+   * Unregisters a fetch started with start().
+   */
+  def finish(fetch: Long) {
+    synchronized {
+      running -= fetch
+      // nothing running can be older than the remaining commits
+      val oldest = running.headOption.getOrElse(Long.MaxValue)
+      committed.transform((mailbox, fetches) => fetches.filter(_._1 > oldest)).retain((mailbox, fetches) => fetches.nonEmpty)
+    }
+  }
+
+  /**
+   * Executes the commit of the given fetch holding the locks of the given mailboxes.
+   * @param fetch the fetch id
+   * @param mailboxes mailboxes to be committed
+   * @param time time slot the data was fetched for
+   * @param f the commit, it gets time slots committed by later fetches by mailbox
+   */
+  def commit[T](fetch: Long, mailboxes: Set[String], time: TimeSlot)(f: Map[String, Seq[TimeSlot]] => T): T = {
+    // always locked in the same order, so concurrent commits can't deadlock
+    val mailboxLocks = mailboxes.toSeq.sorted.map(lock)
+    mailboxLocks.foreach(_.lock())
+    try {
+      val later = synchronized {
+        mailboxes.map(mailbox => mailbox -> committed.getOrElse(mailbox, Nil).filter(_._1 > fetch).map(_._2)).toMap
+      }
+      val result = f(later)
+      synchronized {
+        mailboxes.foreach(mailbox => committed(mailbox) = (fetch, time) :: committed.getOrElse(mailbox, Nil))
+      }
+      result
+    } finally {
+      mailboxLocks.reverse.foreach(_.unlock())
+    }
+  }
+
+  private def lock(mailbox: String): ReentrantLock = {
+    val newLock = new ReentrantLock()
+    Option(locks.putIfAbsent(mailbox, newLock)).getOrElse(newLock)
+  }
+
+}
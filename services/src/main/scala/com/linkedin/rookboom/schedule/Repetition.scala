@@ -16,10 +16,9 @@
 
 package com.linkedin.rookboom.schedule
 
-import scala._
-import collection.mutable
-import java.util.{Date, TimeZone, Calendar}
-import java.text.SimpleDateFormat
+import java.util.TimeZone
+import org.joda.time.{LocalTime, LocalDate, LocalDateTime, DateTimeZone}
+import org.joda.time.format.{DateTimeFormatter, DateTimeFormat}
 
 /**
  * This class describe recurrence of an event.
@@ -36,16 +35,37 @@ case class Repetition(slot: TimeSlot, pattern: RepetitionPattern, end: Repetitio
    * @param timeZone time zone of this repetition
    * @return occurrences dates
    */
-  def toOccurrences(now: Long, timeZone: TimeZone): Seq[TimeSlot] = {
-    val buffer = new mutable.ListBuffer[Long]
-    var previous = pattern.first(slot.begin, now, timeZone)
-    buffer += previous
-    while (!end.isReached(buffer)) {
-      val next = pattern.next(previous, timeZone)
-      buffer += next
-      previous = next
-    }
-    buffer.result().map(toOccurrence(_, slot.length))
+  def toOccurrences(now: Long, timeZone: TimeZone): Seq[TimeSlot] = occurrences(now, timeZone).toList
+
+  /**
+   * Lazily generates the occurrences, nothing is computed until the iterator is advanced.
+   * @param now current time in millis
+   * @param timeZone time zone of this repetition
+   * @return occurrences iterator
+   */
+  def occurrences(now: Long, timeZone: TimeZone): Iterator[TimeSlot] = {
+    end.limit(pattern.occurrences(slot.begin, now, timeZone)).map(toOccurrence(_, slot.length))
+  }
+
+  /**
+   * Lazily generates the occurrences overlapping the given time window.
+   * @param now current time in millis
+   * @param timeZone time zone of this repetition
+   * @param window time window to generate occurrences for
+   * @return occurrences iterator
+   */
+  def occurrences(now: Long, timeZone: TimeZone, window: TimeSlot): Iterator[TimeSlot] = {
+    occurrences(now, timeZone).dropWhile(_.end <= window.begin).takeWhile(_.begin < window.end)
+  }
+
+  /**
+   * Returns the first occurrence of this repetition.
+   * @param now current time in millis
+   * @param timeZone time zone of this repetition
+   * @return the first occurrence
+   */
+  def firstOccurrence(now: Long, timeZone: TimeZone): TimeSlot = {
+    toOccurrence(pattern.first(slot.begin, now, timeZone), slot.length)
   }
 
   private def toOccurrence(start: Long, length: Long) = TimeSlot(start, start + length)
@@ -57,31 +77,36 @@ case class Repetition(slot: TimeSlot, pattern: RepetitionPattern, end: Repetitio
    * @return a string representation
    */
   def toPrettyString(now: Long, timeZone: TimeZone): String = {
-
-    def formatTime(time: Long) = {
-      val timeFormatter = new SimpleDateFormat("h:mm a")
-      timeFormatter.setTimeZone(timeZone)
-      timeFormatter.format(new Date(time))
-    }
-
-    def formatStart = {
-      val timeFormatter = new SimpleDateFormat("MM/dd/yyyy")
-      timeFormatter.setTimeZone(timeZone)
-      val first = pattern.first(slot.begin, now, timeZone)
-      timeFormatter.format(new Date(first))
-    }
-
     "%s from %s to %s, effective %s, stop %s".format(
       pattern.toPrettyString,
-      formatTime(slot.begin),
-      formatTime(slot.end),
-      formatStart,
+      RepetitionFormat.formatTime(slot.begin, timeZone),
+      RepetitionFormat.formatTime(slot.end, timeZone),
+      RepetitionFormat.formatDate(pattern.first(slot.begin, now, timeZone), timeZone),
       end.toPrettyString(timeZone)
     )
   }
 
 }
 
+/**
+ * Formatters used to print repetitions. They are immutable and thread safe, so they are created only once.
+ */
+object RepetitionFormat {
+
+  private val TimeFormatter = DateTimeFormat.forPattern("h:mm a")
+
+  private val DateFormatter = DateTimeFormat.forPattern("MM/dd/yyyy")
+
+  def formatTime(time: Long, timeZone: TimeZone): String = format(TimeFormatter, time, timeZone)
+
+  def formatDate(time: Long, timeZone: TimeZone): String = format(DateFormatter, time, timeZone)
+
+  private def format(formatter: DateTimeFormatter, time: Long, timeZone: TimeZone): String = {
+    formatter.withZone(DateTimeZone.forTimeZone(timeZone)).print(time)
+  }
+
+}
+
 /**
  * Days of a week.
  */
@@ -92,6 +117,16 @@ object DayOfWeek extends Enumeration {
   val WeekDays = Set(Monday, Tuesday, Wednesday, Thursday, Friday)
 
   val WeekendDays = Set(Sunday, Saturday)
+
+  /**
+   * Converts an ISO day of week number (Monday is 1, Sunday is 7) into a day.
+   */
+  def fromIso(day: Int): DayOfWeek = DayOfWeek(day % 7)
+
+  /**
+   * Converts a day into an ISO day of week number (Monday is 1, Sunday is 7).
+   */
+  def toIso(day: DayOfWeek): Int = if (day == Sunday) 7 else day.id
 }
 
 /**
@@ -104,6 +139,8 @@ object WeekOfMonth extends Enumeration {
 
 /**
  * Describes how is an event repeated over time.
+ *
+ * Occurrences are computed on local dates of the time zone, the time of day of the start is kept for all of them.
  */
 sealed trait RepetitionPattern {
 
@@ -112,14 +149,35 @@ sealed trait RepetitionPattern {
    * @param start start date
    * @return the closest possible date
    */
-  def first(start: Long, now: Long, timeZone: TimeZone): Long
+  def first(start: Long, now: Long, timeZone: TimeZone): Long = {
+    val zone = DateTimeZone.forTimeZone(timeZone)
+    val (date, time) = baseDate(start, now, zone)
+    toMillis(firstDate(date), time, zone)
+  }
 
   /**
    * Returns next occurrence date according to the pattern.
    * @param previous previous occurrence date
    * @return next occurrence date
    */
-  def next(previous: Long, timeZone: TimeZone): Long
+  def next(previous: Long, timeZone: TimeZone): Long = {
+    val zone = DateTimeZone.forTimeZone(timeZone)
+    val local = new LocalDateTime(previous, zone)
+    toMillis(nextDate(local.toLocalDate), local.toLocalTime, zone)
+  }
+
+  /**
+   * Lazily generates occurrence dates starting with the closest possible one. The series is endless.
+   * @param start start date
+   * @param now current time
+   * @param timeZone time zone
+   * @return occurrence dates iterator
+   */
+  def occurrences(start: Long, now: Long, timeZone: TimeZone): Iterator[Long] = {
+    val zone = DateTimeZone.forTimeZone(timeZone)
+    val (date, time) = baseDate(start, now, zone)
+    Iterator.iterate(firstDate(date))(nextDate).map(toMillis(_, time, zone))
+  }
 
   /**
    * Converts this pattern into a human readable string.
@@ -128,20 +186,39 @@ sealed trait RepetitionPattern {
   def toPrettyString: String
 
   /**
-   * Returns a calendar that is properly configured and with the start time adjusted to the current time.
+   * Returns the closest date matching the pattern on or after the given date.
+   */
+  protected def firstDate(from: LocalDate): LocalDate
+
+  /**
+   * Returns the date of the occurrence following the one on the given date.
+   */
+  protected def nextDate(previous: LocalDate): LocalDate
+
+  /**
+   * Returns the start date adjusted to the current time and the time of day of the start.
    * @param start start time
    * @param now current time
-   * @param timeZone time zone
-   * @return the calendar object
+   * @param zone time zone
+   * @return the first day not earlier than now and the time of day
    */
-  protected def baseCalendar(start: Long, now: Long, timeZone: TimeZone) = {
-    val calendar = Calendar.getInstance(timeZone)
-    calendar.setFirstDayOfWeek(Calendar.SUNDAY)
-    calendar.setTimeInMillis(start)
-    while (calendar.getTimeInMillis < now) {
-      calendar.add(Calendar.DAY_OF_YEAR, 1)
+  private def baseDate(start: Long, now: Long, zone: DateTimeZone): (LocalDate, LocalTime) = {
+    val local = new LocalDateTime(start, zone)
+    val time = local.toLocalTime
+    if (start >= now) {
+      (local.toLocalDate, time)
+    } else {
+      val today = new LocalDate(now, zone)
+      if (toMillis(today, time, zone) < now) (today.plusDays(1), time) else (today, time)
     }
-    calendar
+  }
+
+  /**
+   * Converts a local date and time into millis. Times falling into a daylight saving gap are shifted forward.
+   */
+  private def toMillis(date: LocalDate, time: LocalTime, zone: DateTimeZone): Long = {
+    val local = date.toLocalDateTime(time).toDateTime(DateTimeZone.UTC).getMillis
+    zone.convertLocalToUTC(local, false)
   }
 
 }
@@ -150,13 +227,9 @@ case class Daily(interval: Int) extends RepetitionPattern {
 
   require(interval > 0, "interval must be positive")
 
-  override def first(start: Long, now: Long, timeZone: TimeZone) = baseCalendar(start, now, timeZone).getTimeInMillis
+  override protected def firstDate(from: LocalDate) = from
 
-  override def next(previous: Long, timeZone: TimeZone) = {
-    val calendar = baseCalendar(previous, previous, timeZone)
-    calendar.add(Calendar.DAY_OF_YEAR, interval)
-    calendar.getTimeInMillis
-  }
+  override protected def nextDate(previous: LocalDate) = previous.plusDays(interval)
 
   override def toPrettyString: String = {
 
@@ -177,20 +250,19 @@ case class Weekly(interval: Int, days: Set[DayOfWeek.Value]) extends RepetitionP
 
   val sortedDays = days.toSeq.sorted
 
-  override def first(start: Long, now: Long, timeZone: TimeZone) = find(baseCalendar(start, now, timeZone), today = true, offset = 1)
+  override protected def firstDate(from: LocalDate) = find(from, today = true, offset = 1)
 
-  override def next(previous: Long, timeZone: TimeZone) = find(baseCalendar(previous, previous, timeZone), today = false, offset = interval)
+  override protected def nextDate(previous: LocalDate) = find(previous, today = false, offset = interval)
 
-  private def find(calendar: Calendar, today: Boolean, offset: Int) = {
-    val day = DayOfWeek(calendar.get(Calendar.DAY_OF_WEEK) - 1)
-    val nextDay = sortedDays.find(x => (x > day) || (today && x == day))
-    if (nextDay.isDefined) {
-      calendar.set(Calendar.DAY_OF_WEEK, nextDay.get.id + 1)
-    } else {
-      calendar.add(Calendar.WEEK_OF_YEAR, offset)
-      calendar.set(Calendar.DAY_OF_WEEK, sortedDays.head.id + 1)
+  /**
+   * Finds the next day of the pattern in the same week (weeks start on Sunday) or in the week offset weeks later.
+   */
+  private def find(date: LocalDate, today: Boolean, offset: Int) = {
+    val day = DayOfWeek.fromIso(date.getDayOfWeek)
+    sortedDays.find(x => (x > day) || (today && x == day)) match {
+      case Some(nextDay) => date.plusDays(nextDay.id - day.id)
+      case None => date.plusWeeks(offset).plusDays(sortedDays.head.id - day.id)
     }
-    calendar.getTimeInMillis
   }
 
   override def toPrettyString: String = {
@@ -216,29 +288,32 @@ case class Monthly(interval: Int, day: DayOfWeek.Value, week: WeekOfMonth.Value)
 
   require(interval > 0, "interval must be positive")
 
-  override def first(start: Long, now: Long, timeZone: TimeZone) = find(baseCalendar(start, now, timeZone), today = true, offset = 1)
+  override protected def firstDate(from: LocalDate) = find(from, today = true, offset = 1)
 
-  override def next(previous: Long, timeZone: TimeZone) = find(baseCalendar(previous, previous, timeZone), today = false, offset = interval)
+  override protected def nextDate(previous: LocalDate) = find(previous, today = false, offset = interval)
 
-  private def find(base: Calendar, today: Boolean, offset: Int) = {
-    val calendar = base.clone().asInstanceOf[Calendar]
-    setDayAndWeek(calendar)
-    val compare = calendar.compareTo(base)
-    if (compare < 0 || (compare == 0 && !today)) {
-      calendar.add(Calendar.MONTH, offset)
-      setDayAndWeek(calendar)
+  private def find(base: LocalDate, today: Boolean, offset: Int) = {
+    val date = dayInMonth(base)
+    if (date.isBefore(base) || (date == base && !today)) {
+      dayInMonth(date.plusMonths(offset))
+    } else {
+      date
     }
-    calendar.getTimeInMillis
   }
 
-  private def setDayAndWeek(calendar: Calendar) {
-    val dayOfWeek = day.id + 1
-    val weekInMonth = week match {
-      case WeekOfMonth.Last => -1
-      case x => x.id + 1
+  /**
+   * Returns the day of the pattern in the month of the given date.
+   */
+  private def dayInMonth(date: LocalDate): LocalDate = {
+    val dayOfWeek = DayOfWeek.toIso(day)
+    week match {
+      case WeekOfMonth.Last =>
+        val lastDay = date.dayOfMonth.withMaximumValue
+        lastDay.minusDays((lastDay.getDayOfWeek - dayOfWeek + 7) % 7)
+      case _ =>
+        val firstDay = date.withDayOfMonth(1)
+        firstDay.plusDays((dayOfWeek - firstDay.getDayOfWeek + 7) % 7).plusWeeks(week.id)
     }
-    calendar.set(Calendar.DAY_OF_WEEK, dayOfWeek)
-    calendar.set(Calendar.DAY_OF_WEEK_IN_MONTH, weekInMonth)
   }
 
   override def toPrettyString: String = {
@@ -270,6 +345,13 @@ sealed trait RepetitionEnd {
    */
   def isReached(occurrences: Seq[Long]): Boolean
 
+  /**
+   * Cuts the given series of occurrences when the end condition is met.
+   * @param occurrences occurrences to limit
+   * @return occurrences up to the end of the repetition
+   */
+  def limit(occurrences: Iterator[Long]): Iterator[Long]
+
   /**
    * Converts this pattern into a human readable string.
    * @param timeZone time zone to use
@@ -285,6 +367,8 @@ case class After(number: Int) extends RepetitionEnd {
 
   override def isReached(occurrences: Seq[Long]) = occurrences.size >= number
 
+  override def limit(occurrences: Iterator[Long]) = occurrences.take(number)
+
   override def toPrettyString(timeZone: TimeZone): String = {
 
     def formatNumber = number match {
@@ -302,14 +386,10 @@ case class By(date: Long) extends RepetitionEnd {
 
   override def isReached(occurrences: Seq[Long]) = occurrences.lastOption.exists(_ >= date)
 
-  override def toPrettyString(timeZone: TimeZone): String = {
-
-    def formatDate = {
-      val timeFormatter = new SimpleDateFormat("MM/dd/yyyy")
-      timeFormatter.setTimeZone(timeZone)
-      timeFormatter.format(new Date(date))
-    }
-
-    "by %s".format(formatDate)
+  // the first occurrence reaching the date is the last one
+  override def limit(occurrences: Iterator[Long]) = occurrences.span(_ < date) match {
+    case (before, rest) => before ++ rest.take(1)
   }
+
+  override def toPrettyString(timeZone: TimeZone): String = "by %s".format(RepetitionFormat.formatDate(date, timeZone))
 }
@@ -0,0 +1,54 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import com.linkedin.rookboom.layout.Room
+
+/**
+ * This service is used to find free conference rooms.
+ */
+trait RoomFinder {
+
+  /**
+   * Finds rooms satisfying the given query.
+   * @param query search parameters
+   * @return matching rooms, the best fitting first
+   */
+  def findRooms(query: RoomQuery): Seq[RoomMatch]
+
+}
+
+/**
+ * Room search parameters.
+ * @param time time slot the meeting has to fit into
+ * @param duration meeting duration
+ * @param minCapacity the minimum room capacity (rooms of unknown capacity are offered last)
+ * @param layout id of the layout to search in or None to search in all layouts
+ */
+case class RoomQuery(time: TimeSlot, duration: Long, minCapacity: Int = 0, layout: Option[String] = None) {
+
+  require(duration > 0, "duration must be positive")
+
+}
+
+/**
+ * A room found.
+ * @param room the room
+ * @param time the earliest free slot of the requested duration
+ * @param free the whole free period (within the search time slot) containing the slot
+ */
+case class RoomMatch(room: Room, time: TimeSlot, free: TimeSlot)
@@ -0,0 +1,169 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import com.linkedin.rookboom.layout.{Room, LayoutManager}
+import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.util.TimeUtils._
+import java.util.concurrent.ConcurrentHashMap
+import scala.compat.Platform
+import scala.util.Try
+import scala.collection.JavaConverters._
+
+/**
+ * A RoomFinder implementation working on busy bitmasks. A day is split into slots of the time mask interval and every
+ * room has one bit per slot set if the slot is busy, so a day of a room fits into a single long. The masks are built
+ * per day for all rooms of the requested layout (or all layouts) at once and kept until they get older than the
+ * refresh interval or a booking happens that day.
+ *
+ * Rooms are ranked by fit: the closest capacity first, then the shortest free period (to keep long free periods for
+ * long meetings), then the earliest time. Rooms of unknown capacity may fit as well, they are offered after the rest.
+ */
+class RoomFinderImpl(val scheduleManager: ScheduleManager,
+                     val layoutManager: LayoutManager,
+                     val refreshAfter: Long = minute,
+                     val slotLength: Long = RoomFinderImpl.DefaultSlotLength) extends RoomFinder
+with Logging
+with BookingEventListener {
+
+  import RoomFinderImpl._
+
+  require(day % slotLength == 0 && day / slotLength <= 64, "a day must be split into no more than 64 slots")
+
+  private val slotsPerDay = (day / slotLength).toInt
+
+  // masks by layout (None for all of them) and day
+  private val masksByDay = new ConcurrentHashMap[(Option[String], Long), DayMasks]()
+
+  override def findRooms(query: RoomQuery): Seq[RoomMatch] = {
+    val rooms = query.layout match {
+      case Some(id) => layoutManager.getLayout(id).map(_.rooms).getOrElse(Seq.empty)
+      case None => layoutManager.getAll.flatMap(_.rooms)
+    }
+    val candidates = rooms.filter(capacity(_).forall(_ >= query.minCapacity))
+    // slot indexes counted from the first day
+    val firstDay = roundToDayDown(query.time.begin)
+    val from = ((query.time.begin - firstDay + slotLength - 1) / slotLength).toInt
+    val to = ((query.time.end - firstDay) / slotLength).toInt
+    val length = ((query.duration + slotLength - 1) / slotLength).toInt
+    if (candidates.isEmpty || to - from < length) {
+      return Seq.empty
+    }
+    val days = firstDay.until(query.time.end, day).map(getMasks(query.layout, rooms, _))
+    val matches = candidates.flatMap(room => {
+      val masks = days.map(_.masks.getOrElse(room.email, AllBusy))
+      findFree(masks, from, to, length).map {
+        case (start, end) =>
+          val time = TimeSlot(firstDay + start * slotLength, firstDay + (start + length) * slotLength)
+          val free = TimeSlot(firstDay + start * slotLength, firstDay + end * slotLength)
+          (RoomMatch(room, time, free), capacity(room).map(_ - query.minCapacity))
+      }
+    })
+    matches.sortBy {
+      case (m, extraCapacity) => (extraCapacity.isEmpty, extraCapacity.getOrElse(0), m.free.length, m.time.begin)
+    }.map(_._1)
+  }
+
+  /**
+   * Finds the first free period of at least the given length within the given slot indexes.
+   * @return indexes of the first and after the last slot of the period
+   */
+  private def findFree(masks: Seq[Long], from: Int, to: Int, length: Int): Option[(Int, Int)] = {
+    def isBusy(slot: Int) = (masks(slot / slotsPerDay) & (1L << (slot % slotsPerDay))) != 0
+    var start = from
+    var slot = from
+    while (slot < to) {
+      if (isBusy(slot)) {
+        start = slot + 1
+      } else if (slot + 1 - start >= length) {
+        // extend the period till the next busy slot
+        var end = slot + 1
+        while (end < to && !isBusy(end)) {
+          end += 1
+        }
+        return Some((start, end))
+      }
+      slot += 1
+    }
+    None
+  }
+
+  private def getMasks(layout: Option[String], rooms: Seq[Room], dayStart: Long): DayMasks = {
+    val cached = masksByDay.get((layout, dayStart))
+    if (cached != null && cached.built + refreshAfter > Platform.currentTime) {
+      cached
+    } else {
+      val built = buildMasks(rooms, dayStart)
+      masksByDay.put((layout, dayStart), built)
+      // outdated masks would be rebuilt anyway
+      masksByDay.values.asScala.filter(_.built + refreshAfter <= built.built).foreach(masksByDay.values.remove)
+      built
+    }
+  }
+
+  private def buildMasks(rooms: Seq[Room], dayStart: Long): DayMasks = {
+    val built = Platform.currentTime
+    val mailboxes = rooms.map(_.email).toSet
+    val schedule = scheduleManager.getSchedule(mailboxes, TimeSlot(dayStart, forward(dayStart, day)))
+    val masks = schedule.map {
+      case (mailbox, events) => mailbox -> events.foldLeft(0L)((mask, event) => mask | toMask(dayStart, event.time))
+    }
+    log.debug("Built busy masks of {} rooms for day {}", masks.size, dayStart)
+    DayMasks(masks, built)
+  }
+
+  /**
+   * Returns a mask with bits set for all slots of the day overlapping the given time.
+   */
+  private def toMask(dayStart: Long, time: TimeSlot): Long = {
+    val first = math.max(0, (time.begin - dayStart) / slotLength).toInt
+    val last = math.min(slotsPerDay, (time.end - dayStart + slotLength - 1) / slotLength).toInt
+    (first until last).foldLeft(0L)((mask, slot) => mask | (1L << slot))
+  }
+
+  private def capacity(room: Room): Option[Int] = {
+    room.attributes.get("capacity").flatMap(c => Try(c.toInt).toOption)
+  }
+
+  private def onEvent(time: TimeSlot) {
+    val days = roundToDayDown(time.begin).until(time.end, day).toSet
+    masksByDay.keySet.asScala.filter(key => days.contains(key._2)).foreach(masksByDay.remove)
+  }
+
+  override def onBook(time: TimeSlot, resources: Set[String], attendees: Set[String]) {
+    onEvent(time)
+  }
+
+  override def onCancel(time: TimeSlot, resources: Set[String], attendees: Set[String]) {
+    onEvent(time)
+  }
+
+}
+
+object RoomFinderImpl {
+
+  /**
+   * Default slot length (the same as the time mask interval).
+   */
+  val DefaultSlotLength = 30 * minute
+
+  // rooms without schedule can't be offered
+  private val AllBusy = -1L
+
+}
+
+private case class DayMasks(masks: Map[String, Long], built: Long)
@@ -0,0 +1,87 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import com.linkedin.rookboom.metrics.Metrics
+import com.linkedin.rookboom.schedule.dao.InternalScheduleDao
+import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.util.TimeUtils._
+import com.linkedin.rookboom.util.TxUtils._
+import org.springframework.transaction.PlatformTransactionManager
+import scala.compat.Platform
+
+/**
+ * Keeps the size of the schedule storage flat by deleting events and appointments past the retention period.
+ *
+ * Time partitions of events are created ahead of the events to be loaded, whole partitions past the retention period
+ * are dropped at once and the rest of the expired events is deleted in small batches, each in its own transaction.
+ * Appointments are deleted once no event refers to them.
+ *
+ * @param txManager transaction manager
+ * @param internalDao the storage to purge
+ * @param retentionDays the number of days past events are kept for
+ * @param aheadDays the number of days partitions are created ahead for
+ * @param batchSize the maximum number of rows deleted within one transaction
+ */
+class SchedulePurger(val txManager: PlatformTransactionManager,
+                     val internalDao: InternalScheduleDao,
+                     val retentionDays: Int,
+                     val aheadDays: Int,
+                     val batchSize: Int = SchedulePurger.DefaultBatchSize) extends Logging {
+
+  import SchedulePurger._
+
+  require(retentionDays > 0, "Retention must be at least a day")
+
+  private implicit val implicitTxManager = txManager
+
+  def purge() {
+    PurgeTime.time {
+      val now = Platform.currentTime
+      val before = backward(roundToDayDown(now), retentionDays * day)
+      log.info("Purging events before {}", before)
+      val added = readWriteTransaction(internalDao.addPartitions(forward(now, aheadDays * day)))
+      val dropped = readWriteTransaction(internalDao.dropPartitions(before))
+      val events = deleteInBatches(internalDao.purgeEvents(before, batchSize))
+      val appointments = deleteInBatches(internalDao.purgeAppointments(before, batchSize))
+      log.info("Purging completed: {} partitions added, {} partitions dropped, {} events and {} appointments deleted",
+        Array[AnyRef](Int.box(added), Int.box(dropped), Int.box(events), Int.box(appointments)))
+    }
+  }
+
+  private def deleteInBatches(delete: => Int): Int = {
+    var total = 0
+    var deleted = 0
+    do {
+      deleted = readWriteTransaction(delete)
+      total += deleted
+    } while (deleted >= batchSize)
+    total
+  }
+
+}
+
+object SchedulePurger {
+
+  /**
+   * Default maximum number of rows deleted within one transaction.
+   */
+  val DefaultBatchSize = 1000
+
+  private val PurgeTime = Metrics.histogram("schedule.purge")
+
+}
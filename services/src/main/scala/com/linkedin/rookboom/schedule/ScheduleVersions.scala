@@ -0,0 +1,99 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import com.linkedin.rookboom.util.TimeUtils._
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.JavaConverters._
+import scala.compat.Platform
+
+/**
+ * Versions of schedules by mailbox and day. The version of a day changes every time its schedule changes, so anything
+ * derived from schedules (like HTTP responses) stays valid as long as the versions of its days are the same.
+ *
+ * All the versions come from a single counter, so the highest version of a set of days changes if any of them changes.
+ */
+class ScheduleVersions {
+
+  private val counter = new AtomicLong()
+
+  // only changed days are stored, the rest have the initial version
+  private val versions = new ConcurrentHashMap[(String, Long), java.lang.Long]()
+
+  // days before 'prunedBefore' are not stored anymore, their version is 'prunedVersion'
+  @volatile private var prunedBefore, prunedVersion = 0L
+
+  /**
+   * Start time of this instance, versions of different instances are not comparable.
+   */
+  val epoch = Platform.currentTime
+
+  /**
+   * Changes versions of all the days touched by the given changes.
+   * @param changes time slots changed by mailbox
+   */
+  def bump(changes: Iterable[(String, TimeSlot)]) {
+    if (changes.nonEmpty) {
+      val version = counter.incrementAndGet()
+      for ((mailbox, time) <- changes; dayStart <- days(time)) {
+        versions.put((mailbox, dayStart), Long.box(version))
+      }
+    }
+  }
+
+  /**
+   * Returns the version of the mailbox schedule on the given day.
+   */
+  def version(mailbox: String, dayStart: Long): Long = {
+    versions.get((mailbox, dayStart)) match {
+      case null if dayStart < prunedBefore => prunedVersion
+      case null => 0L
+      case version => version.longValue
+    }
+  }
+
+  /**
+   * Returns the highest version of the mailbox schedules over the given time slots.
+   */
+  def version(mailboxes: Set[String], times: Seq[TimeSlot]): Long = {
+    val allDays = times.flatMap(days).distinct
+    (for (mailbox <- mailboxes.iterator; dayStart <- allDays.iterator) yield version(mailbox, dayStart)).foldLeft(0L)(math.max)
+  }
+
+  /**
+   * Forgets versions of the days before the given time. Those days get a common version, which is at least as high as
+   * any of their forgotten ones.
+   */
+  def prune(before: Long) {
+    val (pruneBefore, pruneVersion) = synchronized {
+      prunedVersion = counter.incrementAndGet()
+      prunedBefore = math.max(prunedBefore, roundToDayDown(before))
+      (prunedBefore, prunedVersion)
+    }
+    // days changed after pruning started must keep their versions
+    for (entry <- versions.entrySet.asScala if entry.getKey._2 < pruneBefore && entry.getValue <= pruneVersion) {
+      versions.remove(entry.getKey, entry.getValue)
+    }
+  }
+
+  private def days(time: TimeSlot): Seq[Long] = {
+    // the end of a slot is exclusive, but an empty slot still belongs to its day
+    roundToDayDown(time.begin).to(math.max(time.begin, time.end - 1), day)
+  }
+
+}
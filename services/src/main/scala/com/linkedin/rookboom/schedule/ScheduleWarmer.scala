@@ -0,0 +1,166 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import com.linkedin.rookboom.layout.{Room, Layout, LayoutListener, LayoutManager}
+import com.linkedin.rookboom.util.Logging
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.{Calendar, TimeZone}
+import scala.collection.JavaConverters._
+import scala.compat.Platform
+import scala.util.control.NonFatal
+
+/**
+ * Keeps the most requested schedules in cache, so the first viewer after a restart, a cache expiry or a day rollover
+ * doesn't wait for them to load.
+ *
+ * Requests are counted by layout and time slot, the counts are halved by every warm up, so the popularity fades
+ * unless a schedule keeps being requested. A warm up requests the most popular schedules, missing days get loaded and
+ * outdated ones get refreshed in background before they expire. The next business day of the schedules of today is
+ * warmed as well, so it is in cache by the rollover. Nothing is counted right after a start, the first warm up covers
+ * today and the next business day of all layouts. Rooms added to a layout are warmed as soon as they appear.
+ */
+class ScheduleWarmer(val scheduleManager: ScheduleManager,
+                     val layoutManager: LayoutManager,
+                     val maxSchedules: Int = ScheduleWarmer.DefaultMaxSchedules) extends LayoutListener with Logging {
+
+  import ScheduleWarmer._
+
+  private val requests = new ConcurrentHashMap[(String, TimeSlot), AtomicLong]()
+
+  @volatile
+  private var started = false
+
+  /**
+   * Counts a request of a layout schedule.
+   * @param layout layout id
+   * @param time requested time
+   */
+  def record(layout: String, time: TimeSlot) {
+    val key = (layout, time)
+    val counter = requests.get(key) match {
+      case null =>
+        val created = new AtomicLong()
+        Option(requests.putIfAbsent(key, created)).getOrElse(created)
+      case existing => existing
+    }
+    counter.incrementAndGet()
+  }
+
+  /**
+   * Loads the most popular schedules and the next business day of them.
+   */
+  def warmUp() {
+    val now = Platform.currentTime
+    val schedules = if (started) {
+      popular(now)
+    } else {
+      started = true
+      layoutManager.getAll.map(layout => layout.id -> today(layout.timezone, now))
+    }
+    val layouts = schedules.map(_._1).distinct.flatMap(layoutManager.getLayout).map(l => l.id -> l).toMap
+    val upcoming = schedules.collect {
+      case (id, time) if time.begin <= now && now < time.end && layouts.contains(id) =>
+        id -> nextBusinessDay(time, layouts(id).timezone)
+    }
+    val all = (schedules ++ upcoming).distinct.filter(s => layouts.contains(s._1))
+    all.foreach {
+      case (id, time) => warm(layouts(id).rooms, time)
+    }
+    log.debug("Warmed up {} schedules", all.size)
+  }
+
+  override def onRoomsAdded(layout: Layout, rooms: Seq[Room]) {
+    val time = today(layout.timezone, Platform.currentTime)
+    warm(rooms, time)
+    warm(rooms, nextBusinessDay(time, layout.timezone))
+  }
+
+  /**
+   * Takes the most requested schedules that haven't passed yet and makes the counts fade.
+   */
+  private def popular(now: Long): Seq[(String, TimeSlot)] = {
+    val counts = requests.asScala.toSeq.map {
+      case (key, counter) => (key, counter, fade(counter))
+    }
+    counts.foreach {
+      // only the counter that has been checked is removed, a new one could have been put in its place
+      case (key, counter, count) if count == 0 || key._2.end <= now => requests.remove(key, counter)
+      case _ =>
+    }
+    counts.filter(c => c._3 > 0 && c._1._2.end > now).sortBy(-_._3).take(maxSchedules).map(_._1)
+  }
+
+  /**
+   * Halves the count without losing the requests recorded meanwhile.
+   * @return the count before halving
+   */
+  private def fade(counter: AtomicLong): Long = {
+    var count = counter.get
+    while (!counter.compareAndSet(count, count / 2)) {
+      count = counter.get
+    }
+    count
+  }
+
+  private def warm(rooms: Seq[Room], time: TimeSlot) {
+    try {
+      scheduleManager.getSchedule(rooms.map(_.email).toSet, time)
+    } catch {
+      case NonFatal(e) => log.warn("Error warming up schedule of {}: {}", time, e.getMessage)
+    }
+  }
+
+}
+
+object ScheduleWarmer {
+
+  /**
+   * Default number of the most popular schedules kept warm.
+   */
+  val DefaultMaxSchedules = 20
+
+  /**
+   * Returns the day containing the given time in the given time zone.
+   */
+  def today(timezone: TimeZone, now: Long): TimeSlot = {
+    val calendar = Calendar.getInstance(timezone)
+    calendar.setTimeInMillis(now)
+    calendar.set(Calendar.HOUR_OF_DAY, 0)
+    calendar.set(Calendar.MINUTE, 0)
+    calendar.set(Calendar.SECOND, 0)
+    calendar.set(Calendar.MILLISECOND, 0)
+    val begin = calendar.getTimeInMillis
+    calendar.add(Calendar.DAY_OF_MONTH, 1)
+    TimeSlot(begin, calendar.getTimeInMillis)
+  }
+
+  /**
+   * Moves a time slot to the next day that isn't a weekend in the given time zone.
+   */
+  def nextBusinessDay(time: TimeSlot, timezone: TimeZone): TimeSlot = {
+    val calendar = Calendar.getInstance(timezone)
+    calendar.setTimeInMillis(time.begin)
+    do {
+      calendar.add(Calendar.DAY_OF_MONTH, 1)
+    } while (calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY || calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY)
+    val begin = calendar.getTimeInMillis
+    TimeSlot(begin, begin + time.length)
+  }
+
+}
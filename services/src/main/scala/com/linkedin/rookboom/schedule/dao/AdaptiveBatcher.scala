@@ -0,0 +1,138 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.util.TimeUtils._
+import scala.collection.mutable
+import scala.compat.Platform
+import scala.util.Random
+
+/**
+ * Splits items into batches of EWS requests and sizes the batches adaptively (AIMD): the size grows by a fixed step
+ * while requests complete within the target latency and is halved when they are slower or get throttled.
+ *
+ * Items rejected because of throttling are retried with a jittered exponential back off, a longer back off asked by
+ * the server is honored. Items still throttled after all the attempts are given up on.
+ *
+ * The batcher is thread safe, the requests of the same kind are supposed to share one.
+ *
+ * @param maxSize the maximum batch size, it is also the initial one
+ * @param targetLatency the request latency up to which batches grow
+ * @param maxAttempts the maximum number of attempts to process an item
+ * @param baseBackOff the back off after the first throttled attempt, it doubles with every next one
+ */
+class AdaptiveBatcher(val maxSize: Int,
+                      val targetLatency: Long = AdaptiveBatcher.DefaultTargetLatency,
+                      val maxAttempts: Int = AdaptiveBatcher.DefaultMaxAttempts,
+                      val baseBackOff: Long = AdaptiveBatcher.DefaultBaseBackOff) extends Logging {
+
+  require(maxSize > 0, "Batch size must be positive")
+
+  private val step = math.max(1, maxSize / 10)
+
+  @volatile private var currentSize = maxSize
+
+  /**
+   * The current batch size.
+   */
+  def size: Int = currentSize
+
+  /**
+   * Processes the items in batches.
+   * @param items items to process
+   * @param request function processing a batch
+   * @return results of all the processed items
+   */
+  def apply[K, V](items: Seq[K])(request: Seq[K] => BatchResult[K, V]): Map[K, V] = {
+    val results = Map.newBuilder[K, V]
+    val attempts = mutable.Map.empty[K, Int].withDefaultValue(0)
+    var pending = items
+    while (pending.nonEmpty) {
+      val (batch, rest) = pending.splitAt(size)
+      val start = Platform.currentTime
+      val result = try {
+        request(batch)
+      } catch {
+        case EwsThrottling(backOff) => BatchResult[K, V](Map.empty, batch, backOff)
+      }
+      results ++= result.results
+      if (result.throttled.isEmpty) {
+        completed(Platform.currentTime - start)
+        pending = rest
+      } else {
+        throttled()
+        result.throttled.foreach(item => attempts(item) += 1)
+        val (retry, failed) = result.throttled.partition(attempts(_) < maxAttempts)
+        if (failed.nonEmpty) {
+          log.warn("Giving up on {} items throttled {} times", failed.size, maxAttempts)
+        }
+        if (retry.nonEmpty) {
+          val delay = backOff(retry.map(attempts).max, result.backOff)
+          log.info("{} items throttled, retrying in {} ms", retry.size, delay)
+          Thread.sleep(delay)
+        }
+        pending = retry ++ rest
+      }
+    }
+    results.result()
+  }
+
+  private def completed(latency: Long) {
+    synchronized {
+      currentSize = if (latency <= targetLatency) {
+        math.min(maxSize, currentSize + step)
+      } else {
+        math.max(1, currentSize / 2)
+      }
+    }
+  }
+
+  private def throttled() {
+    synchronized {
+      currentSize = math.max(1, currentSize / 2)
+    }
+  }
+
+  /**
+   * Calculates the time to wait before the given attempt. The jitter spreads retries of concurrent requests.
+   */
+  private def backOff(attempt: Int, hint: Option[Long]): Long = {
+    val exponential = baseBackOff << math.min(attempt - 1, 10)
+    val delay = math.max(exponential, hint.getOrElse(0L))
+    delay + (delay * Random.nextDouble() / 4).toLong
+  }
+
+}
+
+object AdaptiveBatcher {
+
+  val DefaultTargetLatency = 10 * second
+
+  val DefaultMaxAttempts = 5
+
+  val DefaultBaseBackOff = second
+
+}
+
+/**
+ * Result of a batch request.
+ * @param results results of the processed items
+ * @param throttled items rejected because of throttling
+ * @param backOff the time to wait before retrying the throttled items if the server asked for it
+ */
+case class BatchResult[K, V](results: Map[K, V], throttled: Seq[K] = Seq.empty, backOff: Option[Long] = None)
@@ -0,0 +1,110 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.w3c.dom.Element
+import org.springframework.util.xml.DomUtils
+import org.apache.cxf.xjc.runtime.DataTypeAdapter
+import com.linkedin.rookboom.schedule.TimeSlot
+import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.util.NullSafe.?
+import scala.collection.JavaConverters._
+
+/**
+ * Reads busy events from a GetUserAvailability response payload without unmarshalling it into the response object.
+ * Free and tentative events are skipped, so only the busy ones are copied out of the payload.
+ *
+ * The reader only looks at the elements it needs and ignores everything else.
+ */
+object AvailabilityResponseReader extends Logging {
+
+  private val BusyTypes = Set("Busy", "OOF")
+
+  /**
+   * Reads the response.
+   * @param payload response payload element
+   * @param mailboxes mailboxes in the order they were requested (the responses come in the same order)
+   * @return events of the mailboxes that were successfully loaded and the mailboxes that were throttled
+   */
+  def read(payload: Element, mailboxes: Seq[String]): BatchResult[String, Seq[EwsEvent]] = {
+    val results = Map.newBuilder[String, Seq[EwsEvent]]
+    val throttled = Seq.newBuilder[String]
+    var backOff: Option[Long] = None
+    val responses = children(payload, "FreeBusyResponseArray").flatMap(children(_, "FreeBusyResponse"))
+    mailboxes.zip(responses).foreach {
+      case (mailbox, response) => readFreeBusyResponse(response, mailbox) match {
+        case Loaded(events) => results += mailbox -> events
+        case Throttled(mailboxBackOff) => {
+          throttled += mailbox
+          backOff = (backOff ++ mailboxBackOff).reduceOption(math.max(_: Long, _: Long))
+        }
+        case Failed =>
+      }
+    }
+    BatchResult(results.result(), throttled.result(), backOff)
+  }
+
+  private def readFreeBusyResponse(response: Element, mailbox: String): MailboxResponse = {
+    val message = ?(DomUtils.getChildElementByTagName(response, "ResponseMessage"))
+    val success = message.exists(_.getAttribute("ResponseClass") == "Success")
+    if (success) {
+      val events = for {
+        view <- children(response, "FreeBusyView")
+        array <- children(view, "CalendarEventArray")
+        event <- children(array, "CalendarEvent")
+        busy <- readCalendarEvent(event, mailbox)
+      } yield busy
+      Loaded(events)
+    } else if (message.flatMap(value(_, "ResponseCode")) == Some(EwsThrottling.ServerBusy)) {
+      Throttled(message.toSeq.flatMap(children(_, "MessageXml")).flatMap(EwsThrottling.readBackOff).headOption)
+    } else {
+      log.warn("Error getting availability for '{}': {}", mailbox, message.flatMap(value(_, "MessageText")).orNull)
+      Failed
+    }
+  }
+
+  private def readCalendarEvent(event: Element, mailbox: String): Option[EwsEvent] = {
+    if (value(event, "BusyType").exists(BusyTypes.contains)) {
+      // details of the events that are not returned are not interesting
+      val id = children(event, "CalendarEventDetails").flatMap(value(_, "ID")).headOption
+      val time = TimeSlot(parseTime(value(event, "StartTime").get), parseTime(value(event, "EndTime").get))
+      Some(EwsEvent(id, mailbox, time))
+    } else {
+      None
+    }
+  }
+
+  // the same conversion as the generated JAXB classes use
+  private def parseTime(time: String): Long = DataTypeAdapter.parseDateTime(time).getTime
+
+  private def children(element: Element, name: String): Seq[Element] = {
+    DomUtils.getChildElementsByTagName(element, name).asScala
+  }
+
+  private def value(element: Element, name: String): Option[String] = {
+    Option(DomUtils.getChildElementValueByTagName(element, name))
+  }
+
+  private sealed trait MailboxResponse
+
+  private case class Loaded(events: Seq[EwsEvent]) extends MailboxResponse
+
+  private case class Throttled(backOff: Option[Long]) extends MailboxResponse
+
+  private case object Failed extends MailboxResponse
+
+}
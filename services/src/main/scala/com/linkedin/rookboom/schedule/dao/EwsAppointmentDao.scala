@@ -18,6 +18,7 @@ package com.linkedin.rookboom.schedule.dao
 
 import com.linkedin.rookboom.schedule.{TrackingStatus, Appointment, Repetition, TimeSlot}
 import java.util.TimeZone
+import org.apache.http.auth.Credentials
 
 /**
  * @author Sergey Skrobotov, sskrobotov@linkedin.com
@@ -48,5 +49,18 @@ trait EwsAppointmentDao {
 
   def delete(uid: String)
 
-  def track(uid: String): Option[Map[String, TrackingStatus.Value]]
+  /**
+   * Gets responses of the attendees of the given appointments with a single request.
+   * @param uids appointment uids
+   * @return attendee responses by appointment uid, appointments that are not found are omitted
+   */
+  def track(uids: Set[String]): Map[String, Map[String, TrackingStatus.Value]]
+
+  /**
+   * Returns a DAO that calls Exchange on behalf of the user with the given credentials.
+   * @param credentials user credentials
+   * @return the user's DAO
+   */
+  def withCredentials(credentials: Credentials): EwsAppointmentDao
+
 }
\ No newline at end of file
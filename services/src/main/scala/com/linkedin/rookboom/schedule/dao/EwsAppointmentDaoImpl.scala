@@ -24,10 +24,12 @@ import scala.collection.JavaConversions._
 import java.{util => ju}
 import java.util.{TimeZone, Date}
 import com.linkedin.rookboom.schedule._
-import com.microsoft.exchange.utils.TimeZoneHelper
+import com.microsoft.exchange.utils.TimeZoneCache
 import com.linkedin.rookboom.schedule.dao.EwsUtils._
 import com.linkedin.rookboom.schedule.TimeSlot
 import scala.Some
+import scala.util.control.NonFatal
+import org.apache.http.auth.Credentials
 import com.linkedin.rookboom.schedule.After
 import com.linkedin.rookboom.schedule.Monthly
 import com.linkedin.rookboom.schedule.Appointment
@@ -39,13 +41,36 @@ import com.linkedin.rookboom.schedule.Repetition
 
 /**
  * @author Sergey Skrobotov, sskrobotov@linkedin.com
+ * @param user the user Exchange is called on behalf of
+ * @param itemIds item ids by user and uid, so an appointment doesn't have to be searched for in the calendar every time
+ *                (the same appointment has different ids in the calendars of different users)
+ * @param timeZones time zone definitions almost never change, so they are not requested for every appointment
  */
-class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Logging {
+class EwsAppointmentDaoImpl private(user: String, itemIds: ju.Map[(String, String), ItemIdType], timeZones: TimeZoneCache)
+  extends EwsDaoSupport with EwsAppointmentDao with Logging {
+
+  import EwsAppointmentDaoImpl._
+
+  def this() = this("", EwsAppointmentDaoImpl.createItemIdCache(), new TimeZoneCache())
 
   val AllPropertiesShape = new ItemResponseShapeType()
     .withBaseShape(DefaultShapeNamesType.ALL_PROPERTIES)
     .withAdditionalProperties(new NonEmptyArrayOfPathsToElementType().withPath(EwsUtils.CleanGlobalObjectIdElement))
 
+  // only the attendee responses are needed to track an appointment
+  val TrackingShape = new ItemResponseShapeType()
+    .withBaseShape(DefaultShapeNamesType.ID_ONLY)
+    .withAdditionalProperties(new NonEmptyArrayOfPathsToElementType().withPath(
+      fieldUri(UnindexedFieldURIType.CALENDAR_REQUIRED_ATTENDEES),
+      fieldUri(UnindexedFieldURIType.CALENDAR_OPTIONAL_ATTENDEES),
+      fieldUri(UnindexedFieldURIType.CALENDAR_RESOURCES)
+    ))
+
+  val IdOnlyShape = new ItemResponseShapeType().withBaseShape(DefaultShapeNamesType.ID_ONLY)
+
+  // maximum number of items requested at once
+  private val MaxGetItemIds = 100
+
   override def create(timeZone: TimeZone,
                       time: TimeSlot,
                       subject: String,
@@ -89,18 +114,27 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
       message <- getMessage(response.getResponseMessages.getCreateItemResponseMessage, "Appointment creation failed")
       item <- getItem[CalendarItemType](message.getItems.getItemOrMessageOrCalendarItem)
       fullItem <- getFullItem(item.getItemId)
-    } yield appointmentFromCalendarItem(fullItem)
+    } yield {
+      val appointment = appointmentFromCalendarItem(fullItem)
+      cacheItemId(appointment.uid, fullItem.getItemId)
+      appointment
+    }
 
     app.getOrElse(
       throw new RuntimeException("Appointment creation failed")
     )
   }
 
+  override def withCredentials(credentials: Credentials): EwsAppointmentDao = {
+    // the caches are shared by all the users
+    val dao = new EwsAppointmentDaoImpl(credentials.getUserPrincipal.getName, itemIds, timeZones)
+    dao.setWebServiceTemplate(createTemplate(credentials))
+    dao.setOperationLimits(operationLimits)
+    dao
+  }
+
   override def read(uid: String): Option[Appointment] = {
-    for {
-      item <- findByUid(uid)
-      fullItem <- getFullItem(item.getItemId)
-    } yield appointmentFromCalendarItem(fullItem)
+    withItemId(uid)(getFullItem(_).map(appointmentFromCalendarItem))
   }
 
   //TODO the method doesn't support removing attendees/resources (i.e. Some(Set()))
@@ -114,6 +148,24 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
                       resources: Option[Set[String]],
                       location: Option[String]): Appointment = {
 
+    val updated = withItemId(uid)(itemId => {
+      Some(updateItem(itemId, timeZone, time, subject, body, required, optional, resources, location))
+    })
+    updated.getOrElse(
+      throw new IllegalArgumentException("Appointment " + uid + " doesn't exist")
+    )
+  }
+
+  private def updateItem(itemId: ItemIdType,
+                         timeZone: TimeZone,
+                         time: Option[TimeSlot],
+                         subject: Option[String],
+                         body: Option[String],
+                         required: Option[Set[String]],
+                         optional: Option[Set[String]],
+                         resources: Option[Set[String]],
+                         location: Option[String]): Appointment = {
+
     def itemUpdate[A](field: UnindexedFieldURIType,
                       dataOption: Option[A],
                       modifier: (CalendarItemType, A) => CalendarItemType): Option[SetItemFieldType] = {
@@ -130,8 +182,6 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
       }
     }
 
-    val itemId = findByUid(uid).get.getItemId
-
     val updates = List(
       itemUpdate(UnindexedFieldURIType.ITEM_SUBJECT, subject, (ci: CalendarItemType, d: String) => {
         ci.withSubject(d)
@@ -182,21 +232,31 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
   }
 
   override def delete(uid: String) {
-    val item = findByUid(uid).getOrElse(
+    withItemId(uid)(itemId => Some(deleteItem(uid, itemId))).getOrElse(
       throw new IllegalArgumentException("Appointment " + uid + " doesn't exist")
     )
+  }
 
+  private def deleteItem(uid: String, itemId: ItemIdType) {
     val request = new DeleteItemType()
       .withDeleteType(DisposalType.MOVE_TO_DELETED_ITEMS)
       .withSendMeetingCancellations(CalendarItemCreateOrDeleteOperationType.SEND_ONLY_TO_ALL)
-      .withItemIds(new NonEmptyArrayOfBaseItemIdsType().withItemIdOrOccurrenceItemIdOrRecurringMasterItemId(item.getItemId))
+      .withItemIds(new NonEmptyArrayOfBaseItemIdsType().withItemIdOrOccurrenceItemIdOrRecurringMasterItemId(itemId))
 
     val response = invoke[DeleteItemResponseType](request)
 
     getMessage(response.getResponseMessages.getDeleteItemResponseMessage, "Delete failed")
+
+    // the item gets a new id in the deleted items folder
+    itemIds.remove(user -> uid)
+  }
+
+  override def track(uids: Set[String]): Map[String, Map[String, TrackingStatus.Value]] = {
+    val ids = uids.toSeq.flatMap(uid => findItemId(uid).map(uid -> _))
+    ids.grouped(MaxGetItemIds).flatMap(getTracking).toMap
   }
 
-  override def track(uid: String): Option[Map[String, TrackingStatus.Value]] = {
+  private def getTracking(ids: Seq[(String, ItemIdType)]): Map[String, Map[String, TrackingStatus.Value]] = {
 
     def responseToStatus(response: ResponseTypeType): TrackingStatus.Value = response match {
       case ResponseTypeType.UNKNOWN => TrackingStatus.Unknown
@@ -207,16 +267,32 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
       case ResponseTypeType.DECLINE => TrackingStatus.Decline
     }
 
-    for {
-      item <- findByUid(uid)
-      fullItem <- getFullItem(item.getItemId)
-    } yield {
-      val attendees = Seq(
-        ?(fullItem.getRequiredAttendees.getAttendee.toList).getOrElse(List()),
-        ?(fullItem.getOptionalAttendees.getAttendee.toList).getOrElse(List()),
-        ?(fullItem.getResources.getAttendee.toList).getOrElse(List())
-      ).flatten
-      attendees.map(attendee => (attendee.getMailbox.getEmailAddress, responseToStatus(attendee.getResponseType))).toMap
+    val request = new GetItemType()
+      .withItemShape(TrackingShape)
+      .withItemIds(new NonEmptyArrayOfBaseItemIdsType().withItemIdOrOccurrenceItemIdOrRecurringMasterItemId(ids.map(_._2): _*))
+
+    val response = invoke[GetItemResponseType](request)
+
+    val responses = ids.map(_._1).zip(response.getResponseMessages.getGetItemResponseMessage)
+
+    responses.partition(_._2.getResponseClass == ResponseClassType.SUCCESS) match {
+      case (successful, failed) => {
+        // the cached ids could be outdated, they are searched for again next time
+        failed.foreach(f => {
+          log.warn("Error tracking appointment '{}': {}", f._1, f._2.getMessageText)
+          itemIds.remove(user -> f._1)
+        })
+        successful.flatMap {
+          case (uid, message) => getItem[CalendarItemType](message.getItems.getItemOrMessageOrCalendarItem).map(item => {
+            val attendees = Seq(
+              ?(item.getRequiredAttendees.getAttendee.toList).getOrElse(List()),
+              ?(item.getOptionalAttendees.getAttendee.toList).getOrElse(List()),
+              ?(item.getResources.getAttendee.toList).getOrElse(List())
+            ).flatten
+            uid -> attendees.map(attendee => (attendee.getMailbox.getEmailAddress, responseToStatus(attendee.getResponseType))).toMap
+          })
+        }.toMap
+      }
     }
   }
 
@@ -260,10 +336,52 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
     ci.withRecurrence(recurrence)
   }
 
+  /**
+   * Runs the given function with the id of the item. If Exchange says a cached id is outdated, or the function finds
+   * nothing with it, the item is searched for again and the function is run once more. Other failures are not retried,
+   * as the request could have been done anyway (e.g. an update sent to the attendees before a timeout).
+   */
+  private def withItemId[A](uid: String)(f: ItemIdType => Option[A]): Option[A] = {
+    ?(itemIds.get(user -> uid)) match {
+      case Some(itemId) =>
+        val result = try {
+          f(itemId)
+        } catch {
+          case e: EwsResponseException if StaleIdCodes.contains(e.code) =>
+            log.info("Cached id of appointment '{}' is outdated: {}", uid, e.getMessage)
+            None
+          case NonFatal(e) =>
+            log.warn("Request for appointment '{}' failed: {}", uid, e.getMessage)
+            throw e
+        }
+        result.orElse {
+          itemIds.remove(user -> uid)
+          findItemId(uid).flatMap(f)
+        }
+      case None => findItemId(uid).flatMap(f)
+    }
+  }
+
+  /**
+   * Returns the cached id of the item or searches for it in the logged in user's calendar.
+   */
+  private def findItemId(uid: String): Option[ItemIdType] = {
+    ?(itemIds.get(user -> uid)).orElse {
+      val itemId = findByUid(uid).map(_.getItemId)
+      itemId.foreach(cacheItemId(uid, _))
+      itemId
+    }
+  }
+
+  private def cacheItemId(uid: String, itemId: ItemIdType) {
+    // the change key is left out as it gets outdated when the item changes
+    itemIds.put(user -> uid, new ItemIdType(itemId.getId, null))
+  }
+
   /**
    * Searches for an item in the logged in user's calendar.
    * @param uid item uid
-   * @return a calendar item with the given uid, please note that this call doesn't load full details of the item
+   * @return a calendar item with the given uid, please note that this call loads only the id of the item
    */
   private def findByUid(uid: String): Option[CalendarItemType] = {
     val page = new IndexedPageViewType()
@@ -280,7 +398,7 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
     val calendarFolderId = new DistinguishedFolderIdType().withId(DistinguishedFolderIdNameType.CALENDAR)
     val request = new FindItemType()
       .withTraversal(ItemQueryTraversalType.SHALLOW)
-      .withItemShape(AllPropertiesShape)
+      .withItemShape(IdOnlyShape)
       .withIndexedPageItemView(page)
       .withRestriction(new RestrictionType().withSearchExpression(jaxbWrappedQuery))
       .withParentFolderIds(new NonEmptyArrayOfBaseFolderIdsType().withFolderIdOrDistinguishedFolderId(calendarFolderId))
@@ -324,7 +442,13 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
   }
 
   private def timeZoneDef(timeZone: TimeZone): TimeZoneDefinitionType = {
-    val windowsId = TimeZoneHelper.getWindowsId(timeZone)
+    timeZones.getDefinition(timeZone, new TimeZoneCache.DefinitionLoader {
+      def load(windowsId: String) = loadTimeZoneDef(windowsId)
+    })
+  }
+
+  private def loadTimeZoneDef(windowsId: String): TimeZoneDefinitionType = {
+    log.info("Loading time zone definition for '{}'", windowsId)
     val ids = new NonEmptyArrayOfTimeZoneIdType().withId(windowsId)
 
     val request = new GetServerTimeZonesType()
@@ -338,10 +462,12 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
       tzd <- getItem[TimeZoneDefinitionType](message.getTimeZoneDefinitions.getTimeZoneDefinition)
     } yield tzd
     result.getOrElse(
-      throw new RuntimeException("No time zone definition for id: " + timeZone.getID)
+      throw new RuntimeException("No time zone definition for id: " + windowsId)
     )
   }
 
+  private def fieldUri(field: UnindexedFieldURIType) = TypeFactory.createFieldURI(new PathToUnindexedFieldType(field))
+
   private def attendees(emails: Set[String]): NonEmptyArrayOfAttendeesType = {
     val attendees = emails.map(e => attendeeByEmail(e))
     new NonEmptyArrayOfAttendeesType().withAttendee(setAsJavaSet(attendees))
@@ -380,7 +506,7 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
   private def checkResponseClass[A <: ResponseMessageType](message: A, errorMessage: String): A = {
     message.getResponseClass match {
       case ResponseClassType.SUCCESS => message
-      case _ => throw new RuntimeException(errorMessage + ": " + message.getMessageText)
+      case _ => throw new EwsResponseException(errorMessage + ": " + message.getMessageText, message.getResponseCode)
     }
   }
 
@@ -391,4 +517,31 @@ class EwsAppointmentDaoImpl extends EwsDaoSupport with EwsAppointmentDao with Lo
       case list => throw new IllegalStateException("Expected one, but multiple items received")
     }
   }
-}
\ No newline at end of file
+}
+
+object EwsAppointmentDaoImpl {
+
+  // maximum number of cached item ids
+  private val MaxCachedItemIds = 1000
+
+  // response codes telling that an item id doesn't identify the item any more
+  private val StaleIdCodes = Set(
+    ResponseCodeType.ERROR_ITEM_NOT_FOUND,
+    ResponseCodeType.ERROR_INVALID_ID,
+    ResponseCodeType.ERROR_INVALID_CHANGE_KEY,
+    ResponseCodeType.ERROR_STALE_OBJECT
+  )
+
+  private def createItemIdCache() = {
+    ju.Collections.synchronizedMap(new ju.LinkedHashMap[(String, String), ItemIdType](16, 0.75f, true) {
+      override def removeEldestEntry(eldest: ju.Map.Entry[(String, String), ItemIdType]) = size > MaxCachedItemIds
+    })
+  }
+
+}
+
+/**
+ * An error response message of an EWS operation.
+ * @param code the response code of the message
+ */
+private class EwsResponseException(message: String, val code: ResponseCodeType) extends RuntimeException(message)
@@ -18,14 +18,19 @@ package com.linkedin.rookboom.schedule.dao
 
 import org.springframework.ws.client.core.support.WebServiceGatewaySupport
 import javax.xml.bind.JAXBElement
-import org.springframework.ws.client.core.WebServiceMessageCallback
+import org.springframework.ws.client.core.{WebServiceTemplate, WebServiceMessageExtractor, WebServiceMessageCallback}
+import org.springframework.ws.support.MarshallingUtils
 import org.springframework.ws.WebServiceMessage
 import org.springframework.ws.soap.SoapMessage
 import com.microsoft.exchange.types.{RequestServerVersion, ExchangeVersionType}
 import com.microsoft.exchange.messages.{ObjectFactory => MessageObjectFactory}
 import com.microsoft.exchange.types.{ObjectFactory => TypeObjectFactory}
-import java.lang.reflect.Method
-import org.springframework.util.ReflectionUtils
+import scala.beans.BeanProperty
+import javax.xml.transform.{TransformerFactory, Source}
+import javax.xml.transform.dom.{DOMResult, DOMSource}
+import org.w3c.dom.{Document, Element}
+import com.linkedin.rookboom.metrics.Metrics
+import org.apache.http.auth.Credentials
 
 /**
  * Convenience class to implement EWS data access objects.
@@ -33,12 +38,18 @@ import org.springframework.util.ReflectionUtils
  */
 class EwsDaoSupport extends WebServiceGatewaySupport {
 
-  val ExchangeVersion = ExchangeVersionType.EXCHANGE_2010_SP_2
+  import EwsDaoSupport._
 
-  val MessageFactory = new MessageObjectFactory
+  val ExchangeVersion = ExchangeVersionType.EXCHANGE_2010_SP_2
 
   val TypeFactory = new TypeObjectFactory
 
+  /**
+   * Limits of concurrent requests, they are usually shared by all the DAOs.
+   */
+  @BeanProperty
+  var operationLimits = EwsOperationLimits.Unlimited
+
   /**
    * Invokes a method on the service.
    * @param body request body object
@@ -47,30 +58,69 @@ class EwsDaoSupport extends WebServiceGatewaySupport {
    * @return response object
    */
   def invoke[A <: AnyRef](body: AnyRef, headers: AnyRef*): A = {
-    val requestWrapper = wrap(body, MessageFactory)
-    val responseWrapper = getWebServiceTemplate.marshalSendAndReceive(requestWrapper, new HeadersCallBack(headers: _*))
+    val requestWrapper = Elements.wrap(body)
+    // the request element name is the operation name
+    val operation = requestWrapper.getName.getLocalPart
+    val responseWrapper = operationLimits(operation) {
+      latency(operation).time {
+        getWebServiceTemplate.marshalSendAndReceive(requestWrapper, new HeadersCallBack(headers: _*))
+      }
+    }
     unwrap(responseWrapper)
   }
 
-  private def wrap[A <: AnyRef](content: A, factory: AnyRef): JAXBElement[A] = {
-    val method = findMethod(factory.getClass, content.getClass, classOf[JAXBElement[A]])
-    val wrapper = method match {
-      case Some(m) => ReflectionUtils.invokeMethod(method.get, factory, content)
-      case None => throw new IllegalArgumentException("No wrapper method for type " + content.getClass + " in factory " + factory.getClass)
+  /**
+   * Invokes a method on the service and reads the response payload element instead of unmarshalling it.
+   * @param body request body object
+   * @param headers optional headers to be added to the request
+   * @param read function reading the response
+   * @tparam A result type
+   * @return the result of reading the response
+   */
+  def invokeReading[A](body: AnyRef, headers: AnyRef*)(read: Element => A): A = {
+    val requestWrapper = Elements.wrap(body)
+    val requestCallback = new WebServiceMessageCallback {
+      def doWithMessage(message: WebServiceMessage) {
+        MarshallingUtils.marshal(getMarshaller, requestWrapper, message)
+        new HeadersCallBack(headers: _*).doWithMessage(message)
+      }
+    }
+    val responseExtractor = new WebServiceMessageExtractor[A] {
+      def extractData(message: WebServiceMessage) = {
+        read(toElement(message.getPayloadSource))
+      }
+    }
+    val operation = requestWrapper.getName.getLocalPart
+    operationLimits(operation) {
+      latency(operation).time {
+        getWebServiceTemplate.sendAndReceive(requestCallback, responseExtractor)
+      }
     }
-    wrapper.asInstanceOf[JAXBElement[A]]
   }
 
-  private def findMethod(clazz: Class[_], paramType: Class[_], returnType: Class[_]): Option[Method] = {
-    val methods = if (clazz.isInterface) clazz.getMethods else clazz.getDeclaredMethods
-    methods.find(method => {
-      val returnTypeMatch = method.getReturnType == returnType
-      val parameterTypes = method.getParameterTypes
-      val parameterTypeMatch = parameterTypes.length == 1 && parameterTypes(0) == paramType
-      returnTypeMatch && parameterTypeMatch
-    })
+  /**
+   * Creates a copy of the web service template that authenticates with the given credentials. The copy shares the
+   * connection pool, so it is cheap enough to be created for every user operation.
+   */
+  protected def createTemplate(credentials: Credentials): WebServiceTemplate = {
+    val template = getWebServiceTemplate
+    val sender = template.getMessageSenders.toList match {
+      case (sender: EwsMessageSender) :: Nil => sender.withCredentials(credentials)
+      case _ => throw new IllegalStateException("Expected one EwsMessageSender")
+    }
+    val copy = new WebServiceTemplate(template.getMessageFactory)
+    copy.setMarshaller(template.getMarshaller)
+    copy.setUnmarshaller(template.getUnmarshaller)
+    copy.setDefaultUri(template.getDefaultUri)
+    copy.setInterceptors(template.getInterceptors)
+    copy.setFaultMessageResolver(template.getFaultMessageResolver)
+    copy.setMessageSender(sender)
+    copy
   }
 
+  // the time spent waiting for a free slot isn't a part of the latency
+  private def latency(operation: String) = Metrics.histogram("ews." + operation)
+
   private def unwrap[A <: AnyRef](wrapper: AnyRef): A = {
     wrapper match {
       case element: JAXBElement[_] => {
@@ -86,8 +136,7 @@ class EwsDaoSupport extends WebServiceGatewaySupport {
       addHeader(message, new RequestServerVersion(ExchangeVersion, null))
       // add other headers
       headers.foreach(header => {
-        val wrapper = wrap(header, TypeFactory)
-        addHeader(message, wrapper)
+        addHeader(message, Elements.wrap(header))
       })
     }
 
@@ -101,3 +150,31 @@ class EwsDaoSupport extends WebServiceGatewaySupport {
   }
 
 }
+
+object EwsDaoSupport {
+
+  /**
+   * Elements of all the messages and headers, it is built once for all the DAOs.
+   */
+  val Elements = new JaxbElementRegistry(classOf[MessageObjectFactory], classOf[TypeObjectFactory])
+
+  /**
+   * Returns the root element of the source. SAAJ messages are DOM trees already, other sources are copied into one.
+   */
+  def toElement(source: Source): Element = {
+    val node = source match {
+      case dom: DOMSource => dom.getNode
+      case _ => {
+        val result = new DOMResult()
+        TransformerFactory.newInstance().newTransformer().transform(source, result)
+        result.getNode
+      }
+    }
+    node match {
+      case document: Document => document.getDocumentElement
+      case element: Element => element
+      case _ => throw new IllegalArgumentException("Not an element: " + node)
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.rookboom.schedule.dao
+
+import org.springframework.ws.transport.http.HttpComponentsMessageSender
+import org.apache.http.conn.ClientConnectionManager
+import org.apache.http.impl.client.DefaultHttpClient
+import org.apache.http.auth.{NTCredentials, AuthScope, Credentials}
+import org.apache.http.protocol.{BasicHttpContext, HttpContext}
+import org.apache.http.client.protocol.ClientContext
+import org.apache.http.{HttpEntityEnclosingRequest, HttpRequest, HttpRequestInterceptor}
+import org.apache.http.protocol.HTTP
+import org.apache.http.params.HttpParams
+import org.springframework.security.core.context.SecurityContextHolder
+import java.net.URI
+import java.security.Principal
+
+/**
+ * The HTTP transport of EWS requests.
+ *
+ * Connections are taken from a pool shared by all the senders and are kept alive between requests. NTLM authenticates
+ * a connection rather than a request, so every connection is marked with the user it is used by and is only reused
+ * for requests of the same user. That way the NTLM handshake is done once per connection instead of once per request.
+ *
+ * @param connectionManager the connection pool, it is owned (and shut down) by the caller
+ */
+class EwsMessageSender(connectionManager: ClientConnectionManager, httpClient: DefaultHttpClient)
+  extends HttpComponentsMessageSender(httpClient) {
+
+  def this(connectionManager: ClientConnectionManager) = {
+    this(connectionManager, EwsMessageSender.createHttpClient(connectionManager))
+  }
+
+  private var userToken: Option[Principal] = None
+
+  private var authScope = AuthScope.ANY
+
+  override def setAuthScope(authScope: AuthScope) {
+    super.setAuthScope(authScope)
+    this.authScope = authScope
+  }
+
+  override def setCredentials(credentials: Credentials) {
+    super.setCredentials(credentials)
+    // the same token is assigned by HttpClient to connections authenticated with these credentials
+    userToken = Option(credentials).map(_.getUserPrincipal)
+  }
+
+  override protected def createContext(uri: URI): HttpContext = {
+    val context = new BasicHttpContext()
+    userToken.foreach(context.setAttribute(ClientContext.USER_TOKEN, _))
+    context
+  }
+
+  /**
+   * Creates a sender with the same connection pool and settings that authenticates with the given credentials.
+   */
+  def withCredentials(credentials: Credentials): EwsMessageSender = {
+    val sender = new EwsMessageSender(connectionManager, EwsMessageSender.createHttpClient(connectionManager, httpClient.getParams))
+    sender.setAuthScope(authScope)
+    sender.setCredentials(credentials)
+    sender.afterPropertiesSet()
+    sender
+  }
+
+  override def destroy() {
+    // the pool is shared, so it must outlive the sender
+  }
+
+}
+
+object EwsMessageSender {
+
+  /**
+   * Returns credentials of the user authenticated in the current thread.
+   * @param domain the domain of the user
+   */
+  def currentUserCredentials(domain: String): Credentials = {
+    val authentication = Option(SecurityContextHolder.getContext.getAuthentication).getOrElse(
+      throw new IllegalStateException("No authenticated user")
+    )
+    new NTCredentials(authentication.getName, String.valueOf(authentication.getCredentials), "", domain)
+  }
+
+  private def createHttpClient(connectionManager: ClientConnectionManager): DefaultHttpClient = {
+    addInterceptors(new DefaultHttpClient(connectionManager))
+  }
+
+  // the settings are shared with the client they are taken from
+  private def createHttpClient(connectionManager: ClientConnectionManager, params: HttpParams): DefaultHttpClient = {
+    addInterceptors(new DefaultHttpClient(connectionManager, params))
+  }
+
+  private def addInterceptors(httpClient: DefaultHttpClient) = {
+    httpClient.addRequestInterceptor(RemoveSoapHeadersInterceptor, 0)
+    httpClient
+  }
+
+  /**
+   * Removes the headers set by Spring-WS that HttpClient sets on its own (the default sender does the same).
+   */
+  private object RemoveSoapHeadersInterceptor extends HttpRequestInterceptor {
+    def process(request: HttpRequest, context: HttpContext) {
+      if (request.isInstanceOf[HttpEntityEnclosingRequest]) {
+        request.removeHeaders(HTTP.TRANSFER_ENCODING)
+        request.removeHeaders(HTTP.CONTENT_LEN)
+      }
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.rookboom.schedule.dao
+
+import java.{util => ju}
+import java.util.concurrent.{TimeUnit, Semaphore, ConcurrentHashMap}
+import scala.collection.JavaConverters._
+
+/**
+ * Limits the number of concurrent EWS requests of every operation, so that a burst of requests of one kind (e.g.
+ * availability requests of a schedule reload) doesn't take all the connections from the other ones.
+ *
+ * @param limits the maximum number of concurrent requests by operation name (e.g. "GetItem")
+ * @param defaultLimit the maximum number of concurrent requests of an operation that is not listed
+ * @param timeout the maximum time to wait for a request to be allowed in millis
+ */
+class EwsOperationLimits(limits: ju.Map[String, Integer], defaultLimit: Int, timeout: Long) {
+
+  private val semaphores = new ConcurrentHashMap[String, Semaphore]()
+
+  limits.asScala.foreach {
+    case (operation, limit) => semaphores.put(operation, new Semaphore(limit, true))
+  }
+
+  /**
+   * Runs the given request once the limit of the operation allows.
+   * @param operation operation name
+   * @param request the request to run
+   * @throws IllegalStateException if the request is not allowed within the timeout
+   */
+  def apply[A](operation: String)(request: => A): A = {
+    val semaphore = getSemaphore(operation)
+    if (!semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+      throw new IllegalStateException("Too many concurrent '" + operation + "' requests")
+    }
+    try {
+      request
+    } finally {
+      semaphore.release()
+    }
+  }
+
+  private def getSemaphore(operation: String): Semaphore = {
+    Option(semaphores.get(operation)).getOrElse {
+      val semaphore = new Semaphore(defaultLimit, true)
+      Option(semaphores.putIfAbsent(operation, semaphore)).getOrElse(semaphore)
+    }
+  }
+
+}
+
+object EwsOperationLimits {
+
+  /**
+   * Doesn't limit any operation.
+   */
+  val Unlimited = new EwsOperationLimits(ju.Collections.emptyMap(), Int.MaxValue, 0)
+
+}
@@ -17,6 +17,7 @@
 package com.linkedin.rookboom.schedule.dao
 
 import com.linkedin.rookboom.schedule.TimeSlot
+import scala.util.Try
 
 /**
  * DAO for accessing Microsoft Exchange data.
@@ -33,8 +34,23 @@ trait EwsScheduleDao {
    */
   def convertEventIds(ids: Set[EwsItemId]): Map[EwsItemId, EwsItemId]
 
+  /**
+   * Converts the given ids from EWS_ID format into HEX_ENTRY_ID format (the one the events are identified by).
+   * @param ids ids to be converted
+   * @return map of the given ids to the converted ids
+   */
+  def convertItemIds(ids: Set[EwsItemId]): Map[EwsItemId, EwsItemId]
+
   def getAppointments(ids: Set[EwsItemId]): Map[EwsItemId, EwsAppointment]
 
+  /**
+   * Fetches changes of the calendar folders of the given mailboxes made since the given synchronization states.
+   * The initial synchronization (no state) returns no changes, only the state to start from.
+   * @param syncStates the states returned by the previous call by mailbox or None to get the initial state
+   * @return changes and the new synchronization state or an error by mailbox
+   */
+  def syncCalendars(syncStates: Map[String, Option[String]]): Map[String, Try[EwsSyncResult]]
+
 }
 
 case class EwsItemId(id: String, mailbox: String)
@@ -42,3 +58,23 @@ case class EwsItemId(id: String, mailbox: String)
 case class EwsEvent(id: Option[String], mailbox: String, time: TimeSlot)
 
 case class EwsAppointment(id: Option[String], organizer: Option[String])
+
+/**
+ * A created or updated calendar item.
+ * @param id the item id in EWS_ID format
+ * @param busy whether the item makes its mailbox busy
+ * @param recurring whether the item is a recurring series (its occurrences aren't synchronized separately)
+ */
+case class EwsCalendarItem(id: String, time: TimeSlot, busy: Boolean, recurring: Boolean)
+
+/**
+ * Calendar changes in the order they have been made, so an item created and then deleted is only deleted.
+ * @param changed the last versions of created and updated items
+ * @param deleted ids of deleted items in EWS_ID format
+ * @param syncState the state to continue from
+ */
+case class EwsSyncResult(changed: Seq[EwsCalendarItem], deleted: Seq[String], syncState: String) {
+
+  def changes = changed.size + deleted.size
+
+}
@@ -21,14 +21,19 @@ import com.microsoft.exchange.types._
 import com.linkedin.rookboom.util.TimeUtils._
 
 import scala.collection.JavaConversions._
-import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.util.{RateLimiter, Logging}
 
 import com.linkedin.rookboom.util.NullSafe.?
-import com.microsoft.exchange.utils.TimeZoneHelper
+import com.microsoft.exchange.utils.TimeZoneCache
 import EwsUtils._
 import com.linkedin.rookboom.schedule.TimeSlot
 import scala.Some
 import scala.util.Try
+import scala.collection.mutable
+import scala.beans.BeanProperty
+import java.util.concurrent.{ThreadFactory, ExecutionException, Callable, ExecutorCompletionService, Executors}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.TimeZone
 
 class EwsScheduleDaoImpl extends EwsDaoSupport with EwsScheduleDao with Logging {
 
@@ -44,79 +49,134 @@ class EwsScheduleDaoImpl extends EwsDaoSupport with EwsScheduleDao with Logging
   // maximum number of ids to be converted per request
   private val MaxGetItemIds = 100
 
-  private val DefaultTimeZone = TimeZoneHelper.defaultTimeZone()
+  // maximum number of changes per synchronization request (defined by the spec)
+  private val MaxSyncChanges = 512
+
+  // calendar item properties needed to update stored events
+  private val SyncProperties = Seq(
+    UnindexedFieldURIType.CALENDAR_START,
+    UnindexedFieldURIType.CALENDAR_END,
+    UnindexedFieldURIType.CALENDAR_LEGACY_FREE_BUSY_STATUS,
+    UnindexedFieldURIType.CALENDAR_CALENDAR_ITEM_TYPE
+  )
+
+  // the time zone representation changes on daylight saving transitions
+  private val timeZones = new TimeZoneCache()
+
+  /**
+   * The maximum number of availability requests running at the same time.
+   */
+  @BeanProperty
+  var availabilityParallelism = 4
+
+  /**
+   * The maximum number of availability requests started per second.
+   */
+  @BeanProperty
+  var availabilityRequestsPerSecond = 10.0
+
+  private lazy val availabilityExecutor = Executors.newFixedThreadPool(availabilityParallelism, new DaemonThreadFactory("ews-availability-"))
+
+  private lazy val availabilityRate = new RateLimiter(availabilityRequestsPerSecond)
+
+  /**
+   * The maximum number of calendars synchronized at the same time.
+   */
+  @BeanProperty
+  var syncParallelism = 4
+
+  private lazy val syncExecutor = Executors.newFixedThreadPool(syncParallelism, new DaemonThreadFactory("ews-sync-"))
+
+  /**
+   * The request latency up to which batches grow, slower requests make them shrink.
+   */
+  @BeanProperty
+  var batchTargetLatency = AdaptiveBatcher.DefaultTargetLatency
+
+  /**
+   * The back off after the first throttled request, it doubles with every next one.
+   */
+  @BeanProperty
+  var throttlingBackOff = AdaptiveBatcher.DefaultBaseBackOff
+
+  // batch sizes adapt to the load Exchange is able to take, the maximum ones are the initial ones
+  private lazy val availabilityBatcher = createBatcher(MaxAvailabilityMailboxes)
+
+  private lazy val convertIdBatcher = createBatcher(MaxConvertIdItems)
+
+  private lazy val getItemBatcher = createBatcher(MaxGetItemIds)
+
+  private def createBatcher(maxSize: Int) = {
+    new AdaptiveBatcher(maxSize, batchTargetLatency, AdaptiveBatcher.DefaultMaxAttempts, throttlingBackOff)
+  }
 
   override def getEvents(mailboxes: Set[String], time: TimeSlot): Map[String, Seq[EwsEvent]] = {
     if (mailboxes.isEmpty) {
       Map.empty
     } else {
-      val mailboxGroups = mailboxes.toSeq.grouped(MaxAvailabilityMailboxes)
+      val mailboxGroups = mailboxes.toSeq.grouped(availabilityBatcher.size).toSeq
       val times = time.split(MaxAvailabilityDays * day)
-      times.flatMap(t =>
-        mailboxGroups.flatMap(m =>
-          getAvailability(m, t)
-        )
-      ).toMap
+      val chunks = for (t <- times; m <- mailboxGroups) yield (m, t)
+      val completion = new ExecutorCompletionService[Map[String, Seq[EwsEvent]]](availabilityExecutor)
+      val futures = chunks.map {
+        case (m, t) => completion.submit(new Callable[Map[String, Seq[EwsEvent]]] {
+          def call() = {
+            // throttled mailboxes are retried in smaller batches
+            availabilityBatcher(m)(batch => {
+              availabilityRate.acquire()
+              getAvailability(batch, t)
+            })
+          }
+        })
+      }
+      // merge chunks as they arrive, events crossing a window boundary are returned for both windows
+      val result = mutable.Map.empty[String, mutable.LinkedHashSet[EwsEvent]]
+      try {
+        for (i <- 1 to chunks.size; (mailbox, events) <- completion.take().get()) {
+          result.getOrElseUpdate(mailbox, mutable.LinkedHashSet.empty) ++= events
+        }
+      } catch {
+        case e: ExecutionException => throw e.getCause
+      } finally {
+        // nothing to cancel if all the chunks have completed
+        futures.foreach(_.cancel(true))
+      }
+      result.mapValues(_.toSeq).toMap
     }
   }
 
-  private def getAvailability(mailboxes: Seq[String], time: TimeSlot): Map[String, Seq[EwsEvent]] = {
+  private def getAvailability(mailboxes: Seq[String], time: TimeSlot): BatchResult[String, Seq[EwsEvent]] = {
     val fbViewOptions = new FreeBusyViewOptionsType(time, null, List("Detailed"))
 
     val mailboxData = mailboxes.map(new MailboxData(_, MeetingAttendeeType.REQUIRED, true))
     val mailboxDataArray = new ArrayOfMailboxData(mailboxData.toList)
 
-    val request = new GetUserAvailabilityRequestType(DefaultTimeZone, mailboxDataArray, fbViewOptions, null)
-
-    val response = invoke[GetUserAvailabilityResponseType](request)
+    val request = new GetUserAvailabilityRequestType(timeZones.getSerializableTimeZone(TimeZone.getDefault), mailboxDataArray, fbViewOptions, null)
 
-    val responses = mailboxes.zip(response.getFreeBusyResponseArray.getFreeBusyResponse)
-
-    // partition into successes and failures
-    responses.partition(_._2.getResponseMessage.getResponseClass == ResponseClassType.SUCCESS) match {
-      case (successful, failed) => {
-        // print failures
-        failed.foreach(f =>
-          log.warn("Error getting availability for '{}': {}", f._1, f._2.getResponseMessage.getMessageText)
-        )
-        // return only successful
-        successful.map(s => (s._1, handleFreeBusyResponse(s._1, s._2))).toMap
-      }
-    }
+    // the response is read while it is parsed, only busy events are kept
+    invokeReading(request)(AvailabilityResponseReader.read(_, mailboxes))
   }
 
-
-  private def handleFreeBusyResponse(mailbox: String, response: FreeBusyResponseType): Seq[EwsEvent] = {
-    ?(response.getFreeBusyView.getCalendarEventArray.getCalendarEvent) match {
-      case Some(calendarEvents) => {
-        // filter out 'free' and 'tentative' events
-        val busyEvents = calendarEvents.filter {
-          event =>
-            LegacyFreeBusyType.BUSY == event.getBusyType || LegacyFreeBusyType.OOF == event.getBusyType
-        }
-        busyEvents.map {
-          event =>
-            val id = ?(event.getCalendarEventDetails.getID)
-            EwsEvent(id, mailbox, TimeSlot(event.getStartTime, event.getEndTime))
-        }
-      }
-      case None => Seq.empty
+  override def convertEventIds(ids: Set[EwsItemId]): Map[EwsItemId, EwsItemId] = {
+    if (ids.isEmpty) {
+      Map.empty
+    } else {
+      convertIdBatcher(ids.toSeq)(batch => BatchResult(convertId(batch, IdFormatType.HEX_ENTRY_ID, IdFormatType.EWS_ID)))
     }
   }
 
-
-  override def convertEventIds(ids: Set[EwsItemId]): Map[EwsItemId, EwsItemId] = {
+  override def convertItemIds(ids: Set[EwsItemId]): Map[EwsItemId, EwsItemId] = {
     if (ids.isEmpty) {
       Map.empty
     } else {
-      ids.toSeq.grouped(MaxConvertIdItems).flatMap(convertId).toMap
+      convertIdBatcher(ids.toSeq)(batch => BatchResult(convertId(batch, IdFormatType.EWS_ID, IdFormatType.HEX_ENTRY_ID)))
     }
   }
 
-  private def convertId(ids: Seq[EwsItemId]): Map[EwsItemId, EwsItemId] = {
-    val alternateIds = ids.map(id => new AlternateIdType(IdFormatType.HEX_ENTRY_ID, id.id, id.mailbox, null))
+  private def convertId(ids: Seq[EwsItemId], from: IdFormatType, to: IdFormatType): Map[EwsItemId, EwsItemId] = {
+    val alternateIds = ids.map(id => new AlternateIdType(from, id.id, id.mailbox, null))
     val sourceIds = new NonEmptyArrayOfAlternateIdsType(alternateIds)
-    val request = new ConvertIdType(sourceIds, IdFormatType.EWS_ID)
+    val request = new ConvertIdType(sourceIds, to)
 
     val response = invoke[ConvertIdResponseType](request)
 
@@ -146,16 +206,15 @@ class EwsScheduleDaoImpl extends EwsDaoSupport with EwsScheduleDao with Logging
     } else {
       // order ids by mailbox in order to make it easier for Exchange to fetch
       val ordered = ids.toSeq.sortBy(_.mailbox)
-      val grouped = ordered.grouped(MaxGetItemIds)
-      grouped.flatMap(group =>
-      // don't fail the entire method call if one group has failed
-        Try(getItem(group)).recover {
-          case e => {
+      getItemBatcher(ordered)(batch =>
+      // don't fail the entire method call if one group has failed, throttled groups are retried
+        Try(BatchResult(getItem(batch))).recover {
+          case e if !EwsThrottling.isThrottling(e) => {
             log.error("Error loading appointments: {}", e.getMessage)
-            Map.empty[EwsItemId, EwsAppointment]
+            BatchResult(Map.empty[EwsItemId, EwsAppointment])
           }
         }.get
-      ).toMap
+      )
     }
   }
 
@@ -200,6 +259,83 @@ class EwsScheduleDaoImpl extends EwsDaoSupport with EwsScheduleDao with Logging
     })
   }
 
+  override def syncCalendars(syncStates: Map[String, Option[String]]): Map[String, Try[EwsSyncResult]] = {
+    // every mailbox is synchronized separately, so they are run in parallel
+    val futures = syncStates.map {
+      case (mailbox, syncState) => mailbox -> syncExecutor.submit(new Callable[EwsSyncResult] {
+        def call() = syncCalendar(mailbox, syncState)
+      })
+    }
+    futures.map {
+      case (mailbox, future) => mailbox -> Try(future.get()).recover {
+        case e: ExecutionException => throw e.getCause
+      }
+    }
+  }
+
+  private def syncCalendar(mailbox: String, syncState: Option[String]): EwsSyncResult = {
+    // the initial synchronization only needs to get to the current state, so the ids are all it needs
+    val itemShape = new ItemResponseShapeType().withBaseShape(DefaultShapeNamesType.ID_ONLY)
+    if (syncState.isDefined) {
+      itemShape.withAdditionalProperties(new NonEmptyArrayOfPathsToElementType().withPath(
+        SyncProperties.map(field => TypeFactory.createFieldURI(new PathToUnindexedFieldType(field))): _*
+      ))
+    }
+    val calendarFolderId = new DistinguishedFolderIdType()
+      .withId(DistinguishedFolderIdNameType.CALENDAR)
+      .withMailbox(mailbox)
+
+    // the last change of an item wins
+    val changes = mutable.LinkedHashMap.empty[String, Option[EwsCalendarItem]]
+
+    def sync(state: Option[String]): String = {
+      val request = new SyncFolderItemsType()
+        .withItemShape(itemShape)
+        .withSyncFolderId(new TargetFolderIdType().withDistinguishedFolderId(calendarFolderId))
+        .withSyncState(state.orNull)
+        .withMaxChangesReturned(MaxSyncChanges)
+
+      val response = invoke[SyncFolderItemsResponseType](request)
+
+      response.getResponseMessages.getSyncFolderItemsResponseMessage.toList match {
+        case message :: Nil if message.getResponseClass == ResponseClassType.SUCCESS => {
+          if (syncState.isDefined) {
+            ?(message.getChanges.getCreateOrUpdateOrDelete.toList).getOrElse(Nil).foreach(change => change.getValue match {
+              case update: SyncFolderItemsCreateOrUpdateType => ?(update.getCalendarItem).foreach(item => {
+                changes.remove(item.getItemId.getId)
+                changes.put(item.getItemId.getId, Some(toCalendarItem(item)))
+              })
+              case delete: SyncFolderItemsDeleteType => {
+                changes.remove(delete.getItemId.getId)
+                changes.put(delete.getItemId.getId, None)
+              }
+              case _ => // read flag changes
+            })
+          }
+          // the changes are returned page by page
+          if (message.isIncludesLastItemInRange == false) {
+            sync(Some(message.getSyncState))
+          } else {
+            message.getSyncState
+          }
+        }
+        case message :: Nil => throw new IllegalStateException("Error synchronizing '" + mailbox + "': " + message.getMessageText)
+        case _ => throw new IllegalStateException("Expected one synchronization message for '" + mailbox + "'")
+      }
+    }
+
+    val newState = sync(syncState)
+    EwsSyncResult(changes.values.flatten.toSeq, changes.collect {
+      case (id, None) => id
+    }.toSeq, newState)
+  }
+
+  private def toCalendarItem(item: CalendarItemType): EwsCalendarItem = {
+    val busy = item.getLegacyFreeBusyStatus == LegacyFreeBusyType.BUSY || item.getLegacyFreeBusyStatus == LegacyFreeBusyType.OOF
+    val recurring = item.getCalendarItemType == CalendarItemTypeType.RECURRING_MASTER
+    EwsCalendarItem(item.getItemId.getId, TimeSlot(item.getStart.getTime, item.getEnd.getTime), busy, recurring)
+  }
+
   private implicit def timeSlotToDuration(time: TimeSlot): Duration = new Duration(time.begin, time.end)
 
   private implicit def timeSlotToCalendarView(time: TimeSlot): CalendarViewType = new CalendarViewType(null, time.begin, time.end)
@@ -208,4 +344,16 @@ class EwsScheduleDaoImpl extends EwsDaoSupport with EwsScheduleDao with Logging
 
   private implicit def stringToEmailAddressType(mailbox: String): EmailAddressType = new EmailAddressType().withEmailAddress(mailbox)
 
-}
\ No newline at end of file
+}
+
+private class DaemonThreadFactory(prefix: String) extends ThreadFactory {
+
+  private val counter = new AtomicInteger()
+
+  def newThread(r: Runnable) = {
+    val thread = new Thread(r, prefix + counter.incrementAndGet())
+    thread.setDaemon(true)
+    thread
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.w3c.dom.Element
+import org.springframework.util.xml.DomUtils
+import org.springframework.ws.soap.client.SoapFaultClientException
+import com.linkedin.rookboom.util.NullSafe.?
+import scala.collection.JavaConverters._
+import scala.util.Try
+
+/**
+ * Recognizes Exchange throttling. A throttled request fails with the ErrorServerBusy code, either as a SOAP fault or
+ * as a response message of a single item, and usually tells how long to wait before trying again.
+ */
+object EwsThrottling {
+
+  val ServerBusy = "ErrorServerBusy"
+
+  private val BackOffName = "BackOffMilliseconds"
+
+  /**
+   * Matches exceptions caused by throttling.
+   * @return the time to back off if the server asked for it
+   */
+  def unapply(e: Throwable): Option[Option[Long]] = e match {
+    case fault: SoapFaultClientException if ?(fault.getFaultCode.getLocalPart) == Some(ServerBusy) => Some(faultBackOff(fault))
+    case _ => None
+  }
+
+  def isThrottling(e: Throwable): Boolean = unapply(e).isDefined
+
+  /**
+   * Reads the back off time from the element (usually MessageXml).
+   */
+  def readBackOff(element: Element): Option[Long] = {
+    DomUtils.getChildElementsByTagName(element, "Value").asScala
+      .find(_.getAttribute("Name") == BackOffName)
+      .flatMap(value => Try(DomUtils.getTextValue(value).trim.toLong).toOption)
+  }
+
+  private def faultBackOff(fault: SoapFaultClientException): Option[Long] = {
+    val entries = ?(fault.getSoapFault.getFaultDetail.getDetailEntries.asScala.toList).getOrElse(Nil)
+    entries.view.flatMap(entry => readBackOff(EwsDaoSupport.toElement(entry.getSource))).headOption
+  }
+
+}
@@ -28,8 +28,16 @@ trait InternalScheduleDao {
 
   def getEvents(mailboxes: Set[String], time: TimeSlot): Seq[InternalEvent]
 
+  /**
+   * Adds the given events to the database. Callers are responsible for not adding the same events twice.
+   * @param events events to add
+   */
   def addEvents(events: Seq[InternalEvent])
 
+  /**
+   * Deletes the events with the given ids, missing ones are ignored.
+   * @param ids ids of the events to delete
+   */
   def deleteEvents(ids: Set[Long])
 
   /**
@@ -49,6 +57,48 @@ trait InternalScheduleDao {
 
   def getAppointmentsByExtId(extIds: Set[String]): Map[String, InternalAppointment]
 
+  /**
+   * Returns calendar synchronization states of the given mailboxes.
+   * @return states by mailbox, mailboxes that have never been synchronized are missing
+   */
+  def getSyncStates(mailboxes: Set[String]): Map[String, String]
+
+  /**
+   * Stores calendar synchronization states.
+   * @param states new states by mailbox, None removes the state
+   */
+  def updateSyncStates(states: Map[String, Option[String]])
+
+  /**
+   * Deletes events that have started before the given time.
+   * @param before the time to delete the events before
+   * @param limit the maximum number of events to delete
+   * @return the number of deleted events
+   */
+  def purgeEvents(before: Long, limit: Int): Int
+
+  /**
+   * Deletes appointments added before the given time that no event refers to anymore.
+   * @param before the time to delete the appointments before
+   * @param limit the maximum number of appointments to delete
+   * @return the number of deleted appointments
+   */
+  def purgeAppointments(before: Long, limit: Int): Int
+
+  /**
+   * Adds time partitions of events, so there is one for every month up to the given time.
+   * Changing the partitions commits the current transaction in MySQL.
+   * @return the number of added partitions
+   */
+  def addPartitions(until: Long): Int
+
+  /**
+   * Drops the time partitions that only have events started before the given time.
+   * Changing the partitions commits the current transaction in MySQL.
+   * @return the number of dropped partitions
+   */
+  def dropPartitions(before: Long): Int
+
 }
 
 case class InternalEvent(id: Long, mailbox: String, time: TimeSlot, extId: Option[String] = None, appointment: Option[InternalAppointment] = None)
@@ -19,19 +19,34 @@ package com.linkedin.rookboom.schedule.dao
 import javax.sql.DataSource
 import org.springframework.jdbc.core.namedparam.{SqlParameterSource, MapSqlParameterSource, NamedParameterJdbcTemplate}
 import org.springframework.jdbc.core.RowMapper
-import java.sql.ResultSet
+import org.springframework.transaction.support.{TransactionSynchronizationAdapter, TransactionSynchronizationManager}
+import java.sql.{Timestamp, ResultSet}
+import java.text.SimpleDateFormat
+import java.util.Calendar
+import java.util.concurrent.ConcurrentHashMap
 import scala.collection.JavaConversions._
+import scala.compat.Platform
 import com.linkedin.rookboom.schedule.TimeSlot
 import com.linkedin.rookboom.util.NullSafe.anyToOption
+import com.linkedin.rookboom.util.TimeUtils
 
 /**
  * An implementation of the ScheduleDao class that uses JDBC to get data from an SQL database.
+ *
+ * Mailboxes are stored as ids of a dictionary table, so the event index keys stay small. Events are partitioned by
+ * month of the start time (MySQL range partitioning), so old events are dropped a partition at a time.
+ *
  * @author Dmitriy Yefremov
  */
 class InternalScheduleDaoImpl(val dataSource: DataSource) extends InternalScheduleDao {
 
+  import InternalScheduleDaoImpl._
+
   private val jdbcTemplate = new NamedParameterJdbcTemplate(dataSource)
 
+  // mailbox ids by address, an id never changes once it is committed
+  private val mailboxIds = new ConcurrentHashMap[String, java.lang.Long]()
+
   private val eventRowMapper = new RowMapper[InternalEvent] {
     def mapRow(rs: ResultSet, rowNum: Int) = {
       // event properties
@@ -66,8 +81,8 @@ class InternalScheduleDaoImpl(val dataSource: DataSource) extends InternalSchedu
     if (ids.isEmpty) {
       return Map.empty
     }
-    val sql = "SELECT e.id event_id, mailbox, start, end, e.ext_id event_ext_id, a.id app_id, a.ext_id app_ext_id, organizer " +
-      "FROM event e LEFT JOIN appointment a ON e.appointment_id = a.id " +
+    val sql = "SELECT e.id event_id, m.address mailbox, start, end, e.ext_id event_ext_id, a.id app_id, a.ext_id app_ext_id, organizer " +
+      "FROM event e JOIN mailbox m ON e.mailbox_id = m.id LEFT JOIN appointment a ON e.appointment_id = a.id " +
       "WHERE e.id IN (:ids)"
     val params = Map("ids" -> setAsJavaSet(ids))
     val events = jdbcTemplate.query(sql, params, eventRowMapper)
@@ -75,14 +90,16 @@ class InternalScheduleDaoImpl(val dataSource: DataSource) extends InternalSchedu
   }
 
   override def getEvents(mailboxes: Set[String], time: TimeSlot): Seq[InternalEvent] = {
-    if (mailboxes.isEmpty) {
+    // mailboxes that have never been registered have no events
+    val ids = getMailboxIds(mailboxes, register = false)
+    if (ids.isEmpty) {
       return Seq.empty
     }
-    val sql = "SELECT e.id event_id, mailbox, start, end, e.ext_id event_ext_id, a.id app_id, a.ext_id app_ext_id, organizer " +
-      "FROM event e LEFT JOIN appointment a ON e.appointment_id = a.id " +
-      "WHERE e.mailbox IN (:mailboxes) AND e.end > :from AND e.start < :to"
+    val sql = "SELECT e.id event_id, m.address mailbox, start, end, e.ext_id event_ext_id, a.id app_id, a.ext_id app_ext_id, organizer " +
+      "FROM event e JOIN mailbox m ON e.mailbox_id = m.id LEFT JOIN appointment a ON e.appointment_id = a.id " +
+      "WHERE e.mailbox_id IN (:mailbox_ids) AND e.end > :from AND e.start < :to"
     val params = Map(
-      "mailboxes" -> setAsJavaSet(mailboxes),
+      "mailbox_ids" -> setAsJavaSet(ids.values.toSet),
       "from" -> time.begin,
       "to" -> time.end
     )
@@ -93,11 +110,12 @@ class InternalScheduleDaoImpl(val dataSource: DataSource) extends InternalSchedu
     if (events.isEmpty) {
       return
     }
-    val sql = "INSERT INTO event (mailbox, start, end, ext_id, appointment_id) " +
-      "VALUES (:mailbox, :start, :end, :ext_id, :appointment_id)"
+    val ids = getMailboxIds(events.map(_.mailbox).toSet, register = true)
+    val sql = "INSERT INTO event (mailbox_id, start, end, ext_id, appointment_id) " +
+      "VALUES (:mailbox_id, :start, :end, :ext_id, :appointment_id)"
     val batchParams = events.map(event => {
       val params = Map(
-        "mailbox" -> event.mailbox,
+        "mailbox_id" -> ids(event.mailbox),
         "start" -> event.time.begin,
         "end" -> event.time.end,
         "ext_id" -> event.extId.getOrElse(null),
@@ -105,7 +123,7 @@ class InternalScheduleDaoImpl(val dataSource: DataSource) extends InternalSchedu
       )
       new MapSqlParameterSource(params)
     })
-    jdbcTemplate.batchUpdate(sql, batchParams.toArray[SqlParameterSource])
+    batchParams.grouped(MaxBatchSize).foreach(batch => jdbcTemplate.batchUpdate(sql, batch.toArray[SqlParameterSource]))
   }
 
   override def deleteEvents(ids: Set[Long]) {
@@ -113,8 +131,11 @@ class InternalScheduleDaoImpl(val dataSource: DataSource) extends InternalSchedu
       return
     }
     val sql = "DELETE FROM event WHERE id IN (:ids)"
-    val params = Map("ids" -> setAsJavaSet(ids))
-    jdbcTemplate.update(sql, params)
+    // long IN lists make statements slow to parse and lock many rows at once
+    ids.grouped(MaxBatchSize).foreach(chunk => {
+      val params = Map("ids" -> setAsJavaSet(chunk))
+      jdbcTemplate.update(sql, params)
+    })
   }
 
   override def updateAppointmentIds(ids: Map[Long, Long]) {
@@ -169,6 +190,214 @@ class InternalScheduleDaoImpl(val dataSource: DataSource) extends InternalSchedu
     appointments.map(a => (a.extId.get, a)).toMap
   }
 
+
+  override def getSyncStates(mailboxes: Set[String]): Map[String, String] = {
+    if (mailboxes.isEmpty) {
+      return Map.empty
+    }
+    val sql = "SELECT m.address, s.state FROM sync_state s JOIN mailbox m ON s.mailbox_id = m.id " +
+      "WHERE m.address IN (:mailboxes)"
+    val params = Map("mailboxes" -> setAsJavaSet(mailboxes))
+    val rowMapper = new RowMapper[(String, String)] {
+      def mapRow(rs: ResultSet, rowNum: Int) = (rs.getString("address"), rs.getString("state"))
+    }
+    jdbcTemplate.query(sql, params, rowMapper).toMap
+  }
+
+  override def updateSyncStates(states: Map[String, Option[String]]) {
+    val (updated, removed) = states.partition(_._2.isDefined)
+    if (updated.nonEmpty) {
+      val ids = getMailboxIds(updated.keySet, register = true)
+      val sql = "INSERT INTO sync_state (mailbox_id, state) VALUES (:mailbox_id, :state) " +
+        "ON DUPLICATE KEY UPDATE state = VALUES(state)"
+      val batchParams = updated.map {
+        case (mailbox, state) => new MapSqlParameterSource(Map("mailbox_id" -> ids(mailbox), "state" -> state.get))
+      }
+      jdbcTemplate.batchUpdate(sql, batchParams.toArray[SqlParameterSource])
+    }
+    val removedIds = getMailboxIds(removed.keySet, register = false)
+    if (removedIds.nonEmpty) {
+      val sql = "DELETE FROM sync_state WHERE mailbox_id IN (:ids)"
+      jdbcTemplate.update(sql, Map("ids" -> setAsJavaSet(removedIds.values.toSet)))
+    }
+  }
+
+  override def purgeEvents(before: Long, limit: Int): Int = {
+    val sql = "DELETE FROM event WHERE start < :before LIMIT :limit"
+    val params = Map("before" -> before, "limit" -> limit)
+    jdbcTemplate.update(sql, params)
+  }
+
+  override def purgeAppointments(before: Long, limit: Int): Int = {
+    val sql = "DELETE FROM appointment WHERE created < :before " +
+      "AND NOT EXISTS (SELECT 1 FROM event e WHERE e.appointment_id = appointment.id) LIMIT :limit"
+    val params = Map("before" -> new Timestamp(before), "limit" -> limit)
+    jdbcTemplate.update(sql, params)
+  }
+
+  override def addPartitions(until: Long): Int = {
+    val bounds = newPartitionBounds(getPartitions, until, Platform.currentTime)
+    if (bounds.nonEmpty) {
+      jdbcTemplate.update(addPartitionsSql(bounds), Map.empty[String, Any])
+    }
+    bounds.size
+  }
+
+  override def dropPartitions(before: Long): Int = {
+    val expired = expiredPartitions(getPartitions, before)
+    if (expired.nonEmpty) {
+      jdbcTemplate.update(dropPartitionsSql(expired), Map.empty[String, Any])
+    }
+    expired.size
+  }
+
+  /**
+   * Returns the partitions of the event table with their upper bounds (None for MAXVALUE).
+   */
+  private def getPartitions: Seq[(String, Option[Long])] = {
+    val sql = "SELECT partition_name, partition_description FROM information_schema.partitions " +
+      "WHERE table_schema = DATABASE() AND table_name = 'event' AND partition_name IS NOT NULL " +
+      "ORDER BY partition_ordinal_position"
+    val rowMapper = new RowMapper[(String, Option[Long])] {
+      def mapRow(rs: ResultSet, rowNum: Int) = {
+        (rs.getString("partition_name"), partitionBound(rs.getString("partition_description")))
+      }
+    }
+    jdbcTemplate.query(sql, Map.empty[String, Any], rowMapper).toSeq
+  }
+
+  /**
+   * Returns the ids of the given mailboxes.
+   *
+   * Mailboxes are registered in the caller's transaction, so they don't take another connection. Ids read within a
+   * transaction are only cached once it commits, as they are lost if it rolls back.
+   *
+   * @param register whether to assign ids to the mailboxes that don't have them yet
+   */
+  private def getMailboxIds(addresses: Set[String], register: Boolean): Map[String, Long] = {
+    val cached = addresses.flatMap(address => Option(mailboxIds.get(address)).map(address -> _.longValue)).toMap
+    val missing = addresses -- cached.keySet
+    if (missing.isEmpty) {
+      return cached
+    }
+    if (register) {
+      val sql = "INSERT IGNORE INTO mailbox (address) VALUES (:address)"
+      val batchParams = missing.toSeq.map(address => new MapSqlParameterSource(Map("address" -> address)))
+      jdbcTemplate.batchUpdate(sql, batchParams.toArray[SqlParameterSource])
+    }
+    val loaded = loadMailboxIds(missing)
+    if (TransactionSynchronizationManager.isSynchronizationActive) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter {
+        override def afterCommit() {
+          cacheMailboxIds(loaded)
+        }
+      })
+    } else {
+      cacheMailboxIds(loaded)
+    }
+    cached ++ loaded
+  }
+
+  private def cacheMailboxIds(ids: Map[String, Long]) {
+    ids.foreach {
+      case (address, id) => mailboxIds.put(address, id)
+    }
+  }
+
+  private def loadMailboxIds(addresses: Set[String]): Map[String, Long] = {
+    val sql = "SELECT id, address FROM mailbox WHERE address IN (:addresses)"
+    val params = Map("addresses" -> setAsJavaSet(addresses))
+    val rowMapper = new RowMapper[(String, Long)] {
+      def mapRow(rs: ResultSet, rowNum: Int) = (rs.getString("address"), rs.getLong("id"))
+    }
+    jdbcTemplate.query(sql, params, rowMapper).toMap
+  }
+
 }
 
+object InternalScheduleDaoImpl {
+
+  /**
+   * The maximum number of rows added or deleted with one statement.
+   */
+  val MaxBatchSize = 1000
+
+  /**
+   * The partition taking the events past the last monthly partition.
+   */
+  val MaxPartition = "pmax"
 
+  /**
+   * Returns the start of the month following the one of the given time (UTC).
+   */
+  def nextMonth(time: Long): Long = {
+    val calendar = TimeUtils.utcCalendar
+    calendar.setTimeInMillis(time)
+    calendar.set(Calendar.DAY_OF_MONTH, 1)
+    calendar.set(Calendar.HOUR_OF_DAY, 0)
+    calendar.set(Calendar.MINUTE, 0)
+    calendar.set(Calendar.SECOND, 0)
+    calendar.set(Calendar.MILLISECOND, 0)
+    calendar.add(Calendar.MONTH, 1)
+    calendar.getTimeInMillis
+  }
+
+  /**
+   * Names a partition after the month it ends with, e.g. p201409 for the events of September 2014.
+   */
+  def partitionName(bound: Long): String = {
+    val format = new SimpleDateFormat("'p'yyyyMM")
+    format.setTimeZone(TimeUtils.utc)
+    format.format(bound - 1)
+  }
+
+  /**
+   * Reads the upper bound of a partition from its description in information_schema.
+   * @return the bound or None for MAXVALUE
+   */
+  def partitionBound(description: String): Option[Long] = {
+    if (description == "MAXVALUE") None else Some(description.toLong)
+  }
+
+  /**
+   * Returns the upper bounds of the monthly partitions to be added, so that there are partitions up to the end of the
+   * month of the given time.
+   * @param partitions existing partitions with their upper bounds
+   * @param until the time to have partitions for
+   * @param now the time to start from if there are no monthly partitions yet
+   * @return the bounds in ascending order, none if the table isn't partitioned the way it is expected to be
+   */
+  def newPartitionBounds(partitions: Seq[(String, Option[Long])], until: Long, now: Long): Seq[Long] = {
+    if (!partitions.exists(_._1 == MaxPartition)) {
+      return Seq.empty
+    }
+    val last = partitions.flatMap(_._2).reduceOption(_ max _)
+    val end = nextMonth(until)
+    Iterator.iterate(nextMonth(last.getOrElse(now)))(nextMonth).takeWhile(_ <= end).toList
+  }
+
+  /**
+   * Builds the statement splitting the new monthly partitions off the last one.
+   */
+  def addPartitionsSql(bounds: Seq[Long]): String = {
+    // the rows of the split partition are moved, it is cheap as long as new partitions are created ahead of events
+    val definitions = bounds.map(bound => "PARTITION " + partitionName(bound) + " VALUES LESS THAN (" + bound + ")")
+    "ALTER TABLE event REORGANIZE PARTITION " + MaxPartition + " INTO (" +
+      (definitions :+ "PARTITION " + MaxPartition + " VALUES LESS THAN MAXVALUE").mkString(", ") + ")"
+  }
+
+  /**
+   * Returns the names of the partitions that only take events before the given time.
+   */
+  def expiredPartitions(partitions: Seq[(String, Option[Long])], before: Long): Seq[String] = {
+    partitions.collect {
+      case (name, Some(bound)) if bound <= before => name
+    }
+  }
+
+  /**
+   * Builds the statement dropping the given partitions with their events.
+   */
+  def dropPartitionsSql(names: Seq[String]): String = "ALTER TABLE event DROP PARTITION " + names.mkString(", ")
+
+}
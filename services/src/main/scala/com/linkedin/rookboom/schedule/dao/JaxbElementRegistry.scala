@@ -0,0 +1,57 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import javax.xml.bind.JAXBElement
+import javax.xml.bind.annotation.XmlElementDecl
+import javax.xml.namespace.QName
+
+/**
+ * Maps classes to the JAXB elements they are wrapped into. Element declarations of the given object factories are
+ * scanned once, so wrapping an object is a map lookup instead of a reflective search and call.
+ *
+ * Classes declared as several global elements are left out, they can't be wrapped unambiguously.
+ *
+ * @param factories JAXB object factory classes
+ */
+class JaxbElementRegistry(factories: Class[_]*) {
+
+  private val elements: Map[Class[_], QName] = {
+    val declarations = for {
+      factory <- factories
+      method <- factory.getMethods.toSeq
+      declaration <- Option(method.getAnnotation(classOf[XmlElementDecl]))
+      if declaration.scope == classOf[XmlElementDecl.GLOBAL] && method.getParameterTypes.length == 1
+    } yield (method.getParameterTypes()(0), new QName(declaration.namespace, declaration.name))
+    declarations.groupBy(_._1).filter(_._2.size == 1).mapValues(_.head._2).toMap
+  }
+
+  /**
+   * Wraps the given object into the element declared for its class.
+   * @param value object to wrap
+   * @return the element
+   * @throws IllegalArgumentException if there is no element declared for the class
+   */
+  def wrap[A <: AnyRef](value: A): JAXBElement[A] = {
+    val clazz = value.getClass.asInstanceOf[Class[A]]
+    elements.get(clazz) match {
+      case Some(name) => new JAXBElement[A](name, clazz, value)
+      case None => throw new IllegalArgumentException("No element declared for type " + clazz)
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.springframework.oxm.jaxb.Jaxb2Marshaller
+import org.springframework.oxm.mime.MimeContainer
+import javax.xml.bind.{Unmarshaller, Marshaller}
+import javax.xml.transform.{Source, Result}
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * A JAXB marshaller that reuses JAXB marshallers and unmarshallers instead of creating them for every message.
+ *
+ * JAXB marshallers are not thread safe, so every call takes one from the pool and returns it when done. The pool grows
+ * up to the number of concurrent calls.
+ */
+class PooledJaxb2Marshaller extends Jaxb2Marshaller {
+
+  private val marshallers = new ConcurrentLinkedQueue[Marshaller]()
+
+  private val unmarshallers = new ConcurrentLinkedQueue[Unmarshaller]()
+
+  // the instances taken from the pool by the current calls
+  private val currentMarshaller = new ThreadLocal[Marshaller]()
+
+  private val currentUnmarshaller = new ThreadLocal[Unmarshaller]()
+
+  override def marshal(graph: AnyRef, result: Result, mimeContainer: MimeContainer) {
+    val marshaller = Option(marshallers.poll()).getOrElse(super.createMarshaller())
+    currentMarshaller.set(marshaller)
+    try {
+      super.marshal(graph, result, mimeContainer)
+    } finally {
+      currentMarshaller.remove()
+      marshallers.offer(marshaller)
+    }
+  }
+
+  override def unmarshal(source: Source, mimeContainer: MimeContainer): AnyRef = {
+    val unmarshaller = Option(unmarshallers.poll()).getOrElse(super.createUnmarshaller())
+    currentUnmarshaller.set(unmarshaller)
+    try {
+      super.unmarshal(source, mimeContainer)
+    } finally {
+      currentUnmarshaller.remove()
+      unmarshallers.offer(unmarshaller)
+    }
+  }
+
+  override protected def createMarshaller(): Marshaller = {
+    Option(currentMarshaller.get).getOrElse(super.createMarshaller())
+  }
+
+  override protected def createUnmarshaller(): Unmarshaller = {
+    Option(currentUnmarshaller.get).getOrElse(super.createUnmarshaller())
+  }
+
+}
@@ -17,12 +17,15 @@
 package com.linkedin.rookboom.user
 
 import com.linkedin.rookboom.util.{Reloadable, Logging}
+import com.linkedin.rookboom.schedule.{TimeSlot, BookingEventListener}
+import java.util.concurrent.ConcurrentHashMap
+import scala.compat.Platform
 
 /**
  * Abstract class containing shared code for typical UserManager implementations.
  * @author Dmitriy Yefremov
  */
-abstract class AbstractUserManager extends UserManager with Logging with Reloadable {
+abstract class AbstractUserManager extends UserManager with Logging with Reloadable with BookingEventListener {
 
   @volatile
   private var userByAddress: Map[String, User] = Map.empty
@@ -36,6 +39,12 @@ abstract class AbstractUserManager extends UserManager with Logging with Reloada
   @volatile
   private var groupByAddress: Map[String, Group] = Map.empty
 
+  @volatile
+  private var searchIndex = UserSearchIndex.Empty
+
+  // the last time every address was invited to a meeting, recently invited people are found first
+  private val lastUsed = new ConcurrentHashMap[String, java.lang.Long]()
+
   override def getUsers = userByAddress.values.toSeq
 
   override def getUserByAddress(address: String) = userByAddress.get(address)
@@ -48,6 +57,10 @@ abstract class AbstractUserManager extends UserManager with Logging with Reloada
 
   override def getGroupByAddress(address: String) = groupByAddress.get(address)
 
+  override def search(query: String, field: SearchField.Value, limit: Int) = {
+    searchIndex.search(query, field, limit, address => Option(lastUsed.get(address)).map(_.longValue).getOrElse(0L))
+  }
+
   override def reload() {
     log.info("Fetching users...")
     val users = loadUsers
@@ -59,6 +72,40 @@ abstract class AbstractUserManager extends UserManager with Logging with Reloada
     val groups = loadGroups
     log.info("There are {} groups fetched", groups.size)
     groupByAddress = groups.map(g => g.address -> g).toMap
+    searchIndex = new UserSearchIndex(users, groups)
+    log.info("There are {} users and groups indexed for search", searchIndex.size)
+  }
+
+  override def onBook(time: TimeSlot, resources: Set[String], attendees: Set[String]) {
+    val now = Platform.currentTime
+    attendees.foreach(lastUsed.put(_, now))
+  }
+
+  override def onCancel(time: TimeSlot, resources: Set[String], attendees: Set[String]) {
+  }
+
+  /**
+   * Patches the loaded users and groups instead of reloading all of them.
+   * @param users added or changed users
+   * @param removedUsers addresses of removed users
+   * @param groups added or changed groups
+   * @param removedGroups addresses of removed groups
+   */
+  protected def applyChanges(users: Seq[User], removedUsers: Set[String], groups: Seq[Group], removedGroups: Set[String]) {
+    val replacedUsers = (removedUsers ++ users.map(_.address)).flatMap(userByAddress.get)
+    userByAddress = patch(userByAddress, replacedUsers, users)(_.address)
+    userByAccount = patch(userByAccount, replacedUsers, users)(_.account)
+    userByName = patch(userByName, replacedUsers, users)(_.displayName)
+    val replacedGroups = (removedGroups ++ groups.map(_.address)).flatMap(groupByAddress.get)
+    groupByAddress = patch(groupByAddress, replacedGroups, groups)(_.address)
+    searchIndex = new UserSearchIndex(userByAddress.values.toSeq, groupByAddress.values.toSeq)
+    log.info("Applied changes of {} users and {} groups", users.size + removedUsers.size, groups.size + removedGroups.size)
+  }
+
+  private def patch[V](map: Map[String, V], removed: Iterable[V], added: Iterable[V])(key: V => String): Map[String, V] = {
+    // a key is only removed if it still belongs to the removed value
+    val kept = removed.foldLeft(map)((m, v) => if (m.get(key(v)) == Some(v)) m - key(v) else m)
+    kept ++ added.map(v => key(v) -> v)
   }
 
   protected def loadUsers: Seq[User]
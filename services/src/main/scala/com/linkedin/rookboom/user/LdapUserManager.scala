@@ -16,37 +16,158 @@
 
 package com.linkedin.rookboom.user
 
-import javax.naming.directory.{SearchControls, Attributes}
-import org.springframework.ldap.core.LdapTemplate
-import scala.collection.JavaConverters._
-import com.linkedin.rookboom.util.LdapAttributesMapper
+import javax.naming.directory.Attributes
+import scala.collection.mutable
+import com.linkedin.rookboom.util.{LdapPagedSearch, LdapAttributesMapper}
+import com.linkedin.rookboom.util.TimeUtils._
+import org.joda.time.format.DateTimeFormat
 
 /**
  * A user manager implementation that gets information from a LDAP server.
  *
+ * Entries are read page by page. Besides the full reload it can refresh only the entries changed since the last load,
+ * telling changes by an ever growing attribute (whenChanged or uSNChanged in Active Directory). Deleted entries are not
+ * returned by such searches, they are only dropped by the next full reload, as well as changes made while a load is
+ * running.
+ *
+ * Both attributes are set by every domain controller on its own. Update sequence numbers of different controllers have
+ * nothing in common, so uSNChanged only works when all the searches go to the same one. Change times are comparable
+ * across controllers, but a change gets to each of them with a replication delay, so refreshes start a bit before the
+ * latest change seen.
+ *
  * @author Dmitriy Yefremov
  */
-class LdapUserManager(val ldapTemplate: LdapTemplate,
+class LdapUserManager(val pagedSearch: LdapPagedSearch,
                       val usersBase: String,
                       val usersFilter: String,
                       val groupsBase: String,
-                      val groupsFilter: String) extends AbstractUserManager {
+                      val groupsFilter: String,
+                      val changeAttribute: String = LdapUserManager.DefaultChangeAttribute) extends AbstractUserManager {
+
+  import LdapUserManager._
 
   val userMapper = new LdapUserMapper()
 
   val groupMapper = new LdapGroupMapper()
 
-  override protected def loadUsers: Seq[User] = {
-    val users = ldapTemplate.search(usersBase, usersFilter, SearchControls.SUBTREE_SCOPE, userMapper.attributes.toArray, userMapper)
-    users.asScala.toSeq.collect {
-      case Some(user: User) => user
+  // addresses of the loaded entries by distinguished name, to tell which entry a changed one replaces
+  private var userAddresses = Map.empty[String, String]
+
+  private var groupAddresses = Map.empty[String, String]
+
+  // the latest change seen by the loads
+  private var lastChange: Option[String] = None
+
+  override def reload() {
+    synchronized {
+      lastChange = None
+      super.reload()
     }
   }
 
+  /**
+   * Loads the entries changed since the last load and applies them to the loaded ones.
+   */
+  def refresh() {
+    synchronized {
+      lastChange match {
+        case None => reload()
+        case Some(change) =>
+          val filter = "(&(" + changeAttribute + ">=" + changedSince(change) + ")"
+          val users = search(usersBase, filter + usersFilter + ")", userMapper)
+          val groups = search(groupsBase, filter + groupsFilter + ")", groupMapper)
+          val (changedUsers, removedUsers) = changes(users, userAddresses)(_.address)
+          val (changedGroups, removedGroups) = changes(groups, groupAddresses)(_.address)
+          userAddresses = patch(userAddresses, users)(_.address)
+          groupAddresses = patch(groupAddresses, groups)(_.address)
+          // the lower bound is inclusive, so the latest entries are found again every time
+          val newUsers = changedUsers.filterNot(u => getUserByAddress(u.address) == Some(u))
+          val newGroups = changedGroups.filterNot(g => getGroupByAddress(g.address) == Some(g))
+          if (newUsers.nonEmpty || removedUsers.nonEmpty || newGroups.nonEmpty || removedGroups.nonEmpty) {
+            applyChanges(newUsers, removedUsers, newGroups, removedGroups)
+          }
+      }
+    }
+  }
+
+  override protected def loadUsers: Seq[User] = {
+    log.info("Loading users from '{}'", usersBase)
+    val users = search(usersBase, usersFilter, userMapper)
+    userAddresses = patch(Map.empty, users)(_.address)
+    users.values.flatten.toSeq
+  }
+
   override protected def loadGroups: Seq[Group] = {
-    val groups = ldapTemplate.search(groupsBase, groupsFilter, SearchControls.SUBTREE_SCOPE, groupMapper.attributes.toArray, groupMapper)
-    groups.asScala.toSeq.collect {
-      case Some(group: Group) => group
+    log.info("Loading groups from '{}'", groupsBase)
+    val groups = search(groupsBase, groupsFilter, groupMapper)
+    groupAddresses = patch(Map.empty, groups)(_.address)
+    groups.values.flatten.toSeq
+  }
+
+  /**
+   * Searches entries and keeps track of the latest change.
+   * @return mapped entries by distinguished name, None for entries that can't be mapped
+   */
+  private def search[T](base: String, filter: String, mapper: LdapAttributesMapper[Option[T]]): Map[String, Option[T]] = {
+    val result = mutable.LinkedHashMap.empty[String, Option[T]]
+    pagedSearch.search(base, filter, mapper.attributes + changeAttribute)((dn, attributes) => {
+      result(dn) = mapper.mapFromAttributes(attributes)
+      lastChange = (lastChange ++ getChange(attributes)).reduceOption(ChangeOrdering.max)
+    })
+    result.toMap
+  }
+
+  private def getChange(attributes: Attributes): Option[String] = {
+    Option(attributes.get(changeAttribute)).map(_.get.toString)
+  }
+
+  /**
+   * Moves change times back by the replication overlap, other changes are used as they are.
+   */
+  private def changedSince(change: String): String = change match {
+    case ChangeTime(time) => ChangeTimeFormat.print(ChangeTimeFormat.parseMillis(time) - ChangeOverlap) + ".0Z"
+    case _ => change
+  }
+
+}
+
+object LdapUserManager {
+
+  /**
+   * Active Directory time of the latest change of an entry on the domain controller.
+   */
+  val DefaultChangeAttribute = "whenChanged"
+
+  /**
+   * How far refreshes look back from the latest change time seen, to get changes that were replicated late.
+   */
+  val ChangeOverlap = 5 * minute
+
+  // generalized time as Active Directory keeps it, in UTC
+  private val ChangeTime = "(\\d{14})(?:\\.\\d+)?Z".r
+
+  private val ChangeTimeFormat = DateTimeFormat.forPattern("yyyyMMddHHmmss").withZoneUTC()
+
+  /**
+   * Orders both numbers and generalized times without parsing them.
+   */
+  private val ChangeOrdering = Ordering.by((change: String) => (change.length, change))
+
+  /**
+   * Tells what the changed entries add and remove.
+   * @return changed entries and addresses of removed ones
+   */
+  private def changes[T](entries: Map[String, Option[T]], addresses: Map[String, String])(address: T => String): (Seq[T], Set[String]) = {
+    val changed = entries.values.flatten.toSeq
+    // entries that don't map any more and previous addresses of changed entries
+    val replaced = entries.keys.flatMap(addresses.get).toSet -- changed.map(address)
+    (changed, replaced)
+  }
+
+  private def patch[T](addresses: Map[String, String], entries: Map[String, Option[T]])(address: T => String): Map[String, String] = {
+    entries.foldLeft(addresses) {
+      case (result, (dn, Some(entry))) => result + (dn -> address(entry))
+      case (result, (dn, None)) => result - dn
     }
   }
 
@@ -35,6 +35,15 @@ trait UserManager {
   def getGroups: Seq[Group]
 
   def getGroupByAddress(address: String): Option[Group]
+
+  /**
+   * Finds users and groups having every word of the query as a prefix of a word of their name or address.
+   * @param query search query
+   * @param field fields to match the query against
+   * @param limit maximum number of results
+   * @return the best matches first
+   */
+  def search(query: String, field: SearchField.Value, limit: Int): Seq[SearchItem]
 }
 
 /**
@@ -54,3 +63,10 @@ case class User(displayName: String, address: String, account: String, photo: Op
  * @param address e-mail address
  */
 case class Group(displayName: String, address: String)
+
+/**
+ * Represents a user or a group found by a search.
+ * @param displayName name to display
+ * @param address e-mail address
+ */
+case class SearchItem(displayName: String, address: String)
@@ -0,0 +1,189 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.user
+
+import java.text.Normalizer
+import scala.collection.mutable
+
+/**
+ * An immutable search index of users and groups for autocomplete.
+ *
+ * Names and addresses are normalized and split into words, every prefix of a word up to the maximum indexed length
+ * points to the entries having that word, so a query is looked up by its words instead of scanning all the entries.
+ * Every word of a query must be a prefix of some word of an entry. Matches are ranked by how well they match: the
+ * whole name, the whole address, the name words and then the rest. Equal matches used more recently come first.
+ */
+class UserSearchIndex(users: Seq[User], groups: Seq[Group]) {
+
+  import UserSearchIndex._
+
+  // sorted by name, so equally ranked entries are returned in the alphabetical order
+  private val entries = (users.map(u => SearchItem(u.displayName, u.address)) ++
+    groups.map(g => SearchItem(g.displayName, g.address))).sortBy(e => (normalize(e.displayName), e.address)).toArray
+
+  private val names = entries.map(e => normalize(e.displayName))
+
+  private val addresses = entries.map(e => normalize(e.address))
+
+  private val nameWords = names.map(words)
+
+  private val addressWords = addresses.map(words)
+
+  private val nameIndex = buildIndex(nameWords)
+
+  private val addressIndex = buildIndex(addressWords)
+
+  def size = entries.length
+
+  /**
+   * Finds the best matches of the given query.
+   * @param query search query
+   * @param field fields to match the query against
+   * @param limit maximum number of results
+   * @param lastUsed the last time an address was used, 0 if never
+   * @return the best matches first
+   */
+  def search(query: String, field: SearchField.Value, limit: Int, lastUsed: String => Long = _ => 0L): Seq[SearchItem] = {
+    val normalized = normalize(query)
+    val queryWords = words(normalized)
+    if (queryWords.isEmpty || limit <= 0) {
+      return Seq.empty
+    }
+    val indexes = field match {
+      case SearchField.Name => Seq(nameIndex)
+      case SearchField.Email => Seq(addressIndex)
+      case _ => Seq(nameIndex, addressIndex)
+    }
+    // the entries matching the most selective word are the candidates
+    val candidates = queryWords.map(word => {
+      indexes.map(_.getOrElse(word.take(MaxPrefixLength), NoEntries)).reduce(union)
+    }).minBy(_.length)
+    // the worst of the best matches is on top
+    val best = mutable.PriorityQueue.empty[Match](MatchOrdering)
+    for (id <- candidates) {
+      if (matches(id, queryWords, field)) {
+        val m = Match(rank(id, normalized, queryWords), -lastUsed(entries(id).address), id)
+        if (best.size < limit) {
+          best.enqueue(m)
+        } else if (MatchOrdering.lt(m, best.head)) {
+          best.dequeue()
+          best.enqueue(m)
+        }
+      }
+    }
+    best.dequeueAll.reverse.map(m => entries(m.id))
+  }
+
+  private def matches(id: Int, queryWords: Seq[String], field: SearchField.Value): Boolean = {
+    queryWords.forall(word => {
+      val inName = field != SearchField.Email && nameWords(id).exists(_.startsWith(word))
+      inName || field != SearchField.Name && addressWords(id).exists(_.startsWith(word))
+    })
+  }
+
+  private def rank(id: Int, query: String, queryWords: Seq[String]): Int = {
+    if (names(id).startsWith(query)) {
+      0
+    } else if (addresses(id).startsWith(query)) {
+      1
+    } else if (queryWords.forall(word => nameWords(id).exists(_.startsWith(word)))) {
+      2
+    } else {
+      3
+    }
+  }
+
+}
+
+object UserSearchIndex {
+
+  /**
+   * Words are indexed by prefixes up to this length, longer query words are checked against the entries found.
+   */
+  val MaxPrefixLength = 6
+
+  private val NoEntries = Array.empty[Int]
+
+  private case class Match(rank: Int, recency: Long, id: Int)
+
+  private object MatchOrdering extends Ordering[Match] {
+    def compare(x: Match, y: Match) = {
+      if (x.rank != y.rank) {
+        x.rank.compare(y.rank)
+      } else if (x.recency != y.recency) {
+        x.recency.compare(y.recency)
+      } else {
+        x.id.compare(y.id)
+      }
+    }
+  }
+
+  /**
+   * Lower cases the text and strips accents, so "Jose" finds "José".
+   */
+  def normalize(text: String): String = {
+    Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}+", "").toLowerCase
+  }
+
+  private def words(text: String): Seq[String] = text.split("[^\\p{L}\\p{N}]+").filter(_.nonEmpty).toSeq
+
+  private def buildIndex(wordsById: Array[Seq[String]]): Map[String, Array[Int]] = {
+    val index = mutable.HashMap.empty[String, mutable.ArrayBuffer[Int]]
+    for (id <- wordsById.indices; word <- wordsById(id); length <- 1 to math.min(word.length, MaxPrefixLength)) {
+      val ids = index.getOrElseUpdate(word.take(length), mutable.ArrayBuffer.empty)
+      // ids come in the increasing order, the same prefix of different words of an entry is added once
+      if (ids.isEmpty || ids.last != id) {
+        ids += id
+      }
+    }
+    index.mapValues(_.toArray).toMap
+  }
+
+  /**
+   * Merges two sorted arrays of ids, an entry found by both its name and its address is taken once.
+   */
+  private def union(a: Array[Int], b: Array[Int]): Array[Int] = {
+    val result = new mutable.ArrayBuilder.ofInt
+    result.sizeHint(a.length + b.length)
+    var i = 0
+    var j = 0
+    while (i < a.length || j < b.length) {
+      if (j == b.length || i < a.length && a(i) < b(j)) {
+        result += a(i)
+        i += 1
+      } else {
+        if (i < a.length && a(i) == b(j)) {
+          i += 1
+        }
+        result += b(j)
+        j += 1
+      }
+    }
+    result.result()
+  }
+
+  val Empty = new UserSearchIndex(Seq.empty, Seq.empty)
+
+}
+
+/**
+ * Fields a search query is matched against.
+ */
+object SearchField extends Enumeration {
+  type SearchField = Value
+  val All, Name, Email = Value
+}
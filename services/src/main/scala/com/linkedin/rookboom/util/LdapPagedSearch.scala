@@ -0,0 +1,90 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.util
+
+import javax.naming.NameClassPair
+import javax.naming.directory.{SearchResult, Attributes, SearchControls}
+import org.springframework.ldap.core.{LdapOperations, NameClassPairCallbackHandler, LdapTemplate}
+import org.springframework.ldap.core.support.SingleContextSource
+import org.springframework.ldap.control.{PagedResultsCookie, PagedResultsDirContextProcessor}
+
+/**
+ * Runs LDAP subtree searches page by page with the simple paged results control, so a directory larger than the
+ * server size limit can be read. Entries are handed over as they arrive instead of being collected into a list first.
+ *
+ * All the pages of a search are read through one connection, as the paging cookie is only valid there.
+ *
+ * @param ldapTemplate template providing connections
+ * @param pageSize number of entries per page
+ */
+class LdapPagedSearch(val ldapTemplate: LdapTemplate, val pageSize: Int = LdapPagedSearch.DefaultPageSize) extends Logging {
+
+  /**
+   * Searches the given base.
+   * @param base search base
+   * @param filter search filter
+   * @param attributes attributes to return
+   * @param handle called for every entry with its distinguished name and attributes
+   * @return number of entries found
+   */
+  def search(base: String, filter: String, attributes: Set[String])(handle: (String, Attributes) => Unit): Int = {
+    val controls = new SearchControls()
+    controls.setSearchScope(SearchControls.SUBTREE_SCOPE)
+    controls.setReturningAttributes(attributes.toArray)
+    var count = 0
+    val handler = new NameClassPairCallbackHandler {
+      def handleNameClassPair(pair: NameClassPair) {
+        handle(pair.getNameInNamespace, pair.asInstanceOf[SearchResult].getAttributes)
+        count += 1
+      }
+    }
+    withSingleConnection(ldap => {
+      var cookie: PagedResultsCookie = null
+      var pages = 0
+      do {
+        val processor = new PagedResultsDirContextProcessor(pageSize, cookie)
+        ldap.search(base, filter, controls, handler, processor)
+        cookie = processor.getCookie
+        pages += 1
+      } while (cookie != null && cookie.getCookie != null)
+      log.debug("Searched '{}' in {} pages", base, pages)
+    })
+    count
+  }
+
+  private def withSingleConnection(action: LdapOperations => Unit) {
+    val contextSource = new SingleContextSource(ldapTemplate.getContextSource.getReadOnlyContext)
+    try {
+      val template = new LdapTemplate(contextSource)
+      // referrals are not followed
+      template.setIgnorePartialResultException(true)
+      action(template)
+    } finally {
+      contextSource.destroy()
+    }
+  }
+
+}
+
+object LdapPagedSearch {
+
+  /**
+   * Default page size, it is below the usual server size limit of 1000.
+   */
+  val DefaultPageSize = 500
+
+}
@@ -0,0 +1,48 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.util
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Spreads operations evenly in time so that no more than the given number of them is started per second.
+ * Unused permits are not accumulated, so there are no bursts after an idle period.
+ */
+class RateLimiter(val permitsPerSecond: Double) {
+
+  require(permitsPerSecond > 0, "rate must be positive")
+
+  private val interval = (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond).toLong
+
+  private var nextPermit = System.nanoTime()
+
+  /**
+   * Blocks until the next permit is available.
+   */
+  def acquire() {
+    val wait = synchronized {
+      val now = System.nanoTime()
+      val permit = math.max(nextPermit, now)
+      nextPermit = permit + interval
+      permit - now
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait)
+    }
+  }
+
+}
@@ -19,6 +19,7 @@ package com.linkedin.rookboom.util
 import org.springframework.transaction.support.DefaultTransactionDefinition
 import scala.util.control.NonFatal
 import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.dao.ConcurrencyFailureException
 
 /**
  * Programmatic transactions management helpers.
@@ -52,4 +53,19 @@ object TxUtils extends Logging {
 
   def readWriteTransaction[T](f: => T)(implicit txManager: PlatformTransactionManager): T = transaction(readOnly = false)(f)(txManager)
 
+  /**
+   * Executes the given block of code again if it fails because of a deadlock or a lock wait timeout. The block is
+   * expected to be a whole transaction, a rolled back one can be safely repeated.
+   */
+  def retryOnConflict[T](maxAttempts: Int)(f: => T): T = {
+    try {
+      f
+    } catch {
+      case e: ConcurrencyFailureException if maxAttempts > 1 => {
+        log.warn("Retrying the transaction: {}", e.getMessage)
+        retryOnConflict(maxAttempts - 1)(f)
+      }
+    }
+  }
+
 }
@@ -0,0 +1,121 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.metrics
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import javax.management.{ObjectName, MBeanServerFactory, MBeanServer}
+
+class MetricRegistryTest {
+
+  var mbeanServer: MBeanServer = _
+  var registry: MetricRegistry = _
+
+  @BeforeMethod
+  def init() {
+    mbeanServer = MBeanServerFactory.newMBeanServer()
+    registry = new MetricRegistry("test", Some(mbeanServer))
+  }
+
+  @Test
+  def testHistogram() {
+    val histogram = registry.histogram("latency")
+    (1 to 100).foreach(histogram.update(_))
+    assertEquals(100, histogram.getCount)
+    assertEquals(1, histogram.getMin)
+    assertEquals(100, histogram.getMax)
+    assertEquals(100, histogram.getLast)
+    assertEquals(50.5, histogram.getMean, 0.001)
+    // percentiles are estimated with the bucket bounds
+    assertEquals(50, histogram.get50thPercentile)
+    assertEquals(100, histogram.get95thPercentile)
+    assertEquals(100, histogram.get99thPercentile)
+  }
+
+  @Test
+  def testEmptyHistogram() {
+    val histogram = registry.histogram("latency")
+    assertEquals(0, histogram.getMin)
+    assertEquals(0, histogram.getMax)
+    assertEquals(0, histogram.get99thPercentile)
+  }
+
+  @Test
+  def testHistogramWindow() {
+    var now = 0L
+    val histogram = new Histogram(5000, () => now)
+    (1 to 100).foreach(histogram.update(_))
+    now = 4000
+    assertEquals(50, histogram.get50thPercentile)
+    histogram.update(1000)
+    // the first values leave the window, the totals still count them
+    now = 5000
+    assertEquals(1000, histogram.get50thPercentile)
+    assertEquals(101, histogram.getCount)
+    assertEquals(1, histogram.getMin)
+    now = 9000
+    assertEquals(0, histogram.get50thPercentile)
+  }
+
+  @Test
+  def testTime() {
+    val histogram = registry.histogram("latency")
+    assertEquals("result", histogram.time("result"))
+    try {
+      histogram.time(throw new IllegalStateException)
+      fail()
+    } catch {
+      case e: IllegalStateException =>
+    }
+    // failures are timed as well
+    assertEquals(2, histogram.getCount)
+  }
+
+  @Test
+  def testRegistry() {
+    registry.counter("hits").inc()
+    registry.counter("hits").inc(2)
+    registry.histogram("latency").update(10)
+    assertEquals(Map("count" -> 3), registry.snapshot("hits"))
+    assertEquals(Seq("hits", "latency"), registry.snapshot.keys.toSeq)
+    // exported to JMX
+    assertEquals(3L, mbeanServer.getAttribute(new ObjectName("test:type=Metrics,name=\"hits\""), "Count"))
+    assertEquals(10L, mbeanServer.getAttribute(new ObjectName("test:type=Metrics,name=\"latency\""), "Max"))
+    // a new registry replaces the metrics of the previous one
+    new MetricRegistry("test", Some(mbeanServer)).counter("hits")
+    assertEquals(0L, mbeanServer.getAttribute(new ObjectName("test:type=Metrics,name=\"hits\""), "Count"))
+  }
+
+  @Test
+  def testClose() {
+    registry.counter("hits").inc()
+    registry.close()
+    assertFalse(mbeanServer.isRegistered(new ObjectName("test:type=Metrics,name=\"hits\"")))
+    // the metrics still work, but new ones are not exported any more
+    registry.counter("hits").inc()
+    registry.counter("misses").inc()
+    assertEquals(Map("count" -> 2), registry.snapshot("hits"))
+    assertFalse(mbeanServer.isRegistered(new ObjectName("test:type=Metrics,name=\"misses\"")))
+  }
+
+  @Test(expectedExceptions = Array(classOf[IllegalArgumentException]))
+  def testTypeMismatch() {
+    registry.counter("hits")
+    registry.histogram("hits")
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.easymock.EasyMock._
+import org.testng.AssertJUnit._
+import org.testng.annotations.{AfterMethod, BeforeMethod, Test}
+import com.linkedin.rookboom.schedule.dao.{InternalScheduleDao, EwsAppointmentDao}
+import com.linkedin.rookboom.schedule.BookingJobStatus._
+import com.linkedin.rookboom.schedule.TrackingStatus._
+import org.springframework.transaction.PlatformTransactionManager
+import java.util.TimeZone
+import scala.compat.Platform
+import org.apache.http.auth.NTCredentials
+
+class BookingServiceImplTest {
+
+  val resource = "cr-jenga@linkedin.com"
+  val time = TimeSlot(0, 1000)
+  val timeZone = TimeZone.getTimeZone("UTC")
+  val credentials = new NTCredentials("owner", "password", "", "DOMAIN")
+  val appointment = Appointment("uid", "owner", time, "subject", "body", Set.empty, Set.empty, Set(resource), "location")
+
+  var appointmentDao: EwsAppointmentDao = _
+  var scheduleManager: ScheduleManager = _
+  var bookingService: BookingServiceImpl = _
+
+  @BeforeMethod
+  def init() {
+    appointmentDao = createMock(classOf[EwsAppointmentDao])
+    scheduleManager = createMock(classOf[ScheduleManager])
+    // every job calls Exchange as its submitter
+    expect(appointmentDao.withCredentials(credentials)).andReturn(appointmentDao).anyTimes()
+    bookingService = new BookingServiceImpl(createMock(classOf[PlatformTransactionManager]), appointmentDao,
+      createMock(classOf[InternalScheduleDao]), scheduleManager, Seq.empty, 1000, 1000, () => credentials,
+      trackingInterval = 10)
+  }
+
+  @AfterMethod
+  def close() {
+    bookingService.close()
+  }
+
+  @Test
+  def testBookAccepted() {
+    expect(scheduleManager.getSchedule(Set(resource), time)).andReturn(Map(resource -> Seq.empty))
+    expect(appointmentDao.create(timeZone, time, "subject", "body", Set.empty, Set.empty, Set(resource), "location", None))
+      .andReturn(appointment)
+    expect(appointmentDao.track(Set("uid"))).andReturn(Map.empty).times(2)
+    expect(appointmentDao.track(Set("uid"))).andReturn(Map("uid" -> Map(resource -> Accept)))
+    replay(appointmentDao, scheduleManager)
+
+    val job = bookingService.book("owner", time, timeZone, "subject", "body", "location", Set(resource), Set.empty,
+      Set.empty, None)
+
+    assertEquals(BookingJob(job, "owner", Succeeded), await(job))
+    verify(appointmentDao, scheduleManager)
+  }
+
+  @Test
+  def testBookDeclined() {
+    expect(scheduleManager.getSchedule(Set(resource), time)).andReturn(Map(resource -> Seq.empty))
+    expect(appointmentDao.create(timeZone, time, "subject", "body", Set.empty, Set.empty, Set(resource), "location", None))
+      .andReturn(appointment)
+    expect(appointmentDao.track(Set("uid"))).andReturn(Map("uid" -> Map(resource -> Decline)))
+    replay(appointmentDao, scheduleManager)
+
+    val job = bookingService.book("owner", time, timeZone, "subject", "body", "location", Set(resource), Set.empty,
+      Set.empty, None)
+
+    assertEquals(Failed, await(job).status)
+    verify(appointmentDao, scheduleManager)
+  }
+
+  @Test
+  def testBookingsTrackedTogether() {
+    bookingService.close()
+    bookingService = new BookingServiceImpl(createMock(classOf[PlatformTransactionManager]), appointmentDao,
+      createMock(classOf[InternalScheduleDao]), scheduleManager, Seq.empty, 1000, 1000, () => credentials,
+      trackingInterval = 500)
+    expect(scheduleManager.getSchedule(Set(resource), time)).andReturn(Map(resource -> Seq.empty)).times(2)
+    expect(appointmentDao.create(timeZone, time, "subject", "body", Set.empty, Set.empty, Set(resource), "location", None))
+      .andReturn(appointment.copy(uid = "uid1")).andReturn(appointment.copy(uid = "uid2"))
+    // both bookings are checked with one call
+    expect(appointmentDao.track(Set("uid1", "uid2")))
+      .andReturn(Map("uid1" -> Map(resource -> Accept), "uid2" -> Map(resource -> Accept)))
+    replay(appointmentDao, scheduleManager)
+
+    val jobs = (1 to 2).map(_ => bookingService.book("owner", time, timeZone, "subject", "body", "location",
+      Set(resource), Set.empty, Set.empty, None))
+
+    jobs.foreach(job => assertEquals(BookingJob(job, "owner", Succeeded), await(job)))
+    verify(appointmentDao, scheduleManager)
+  }
+
+  @Test
+  def testBookSlotTaken() {
+    expect(scheduleManager.getSchedule(Set(resource), time)).andReturn(Map(resource -> Seq(Event(1, time))))
+    replay(appointmentDao, scheduleManager)
+
+    val job = bookingService.book("owner", time, timeZone, "subject", "body", "location", Set(resource), Set.empty,
+      Set.empty, None)
+
+    assertEquals(BookingJob(job, "owner", Failed, Some("The given slot is already booked")), await(job))
+    verify(appointmentDao, scheduleManager)
+  }
+
+  @Test
+  def testBookOnBehalfOfSubmitter() {
+    val userDao = createMock(classOf[EwsAppointmentDao])
+    val systemDao = createMock(classOf[EwsAppointmentDao])
+    expect(systemDao.withCredentials(credentials)).andReturn(userDao)
+    expect(userDao.create(timeZone, time, "subject", "body", Set("attendee"), Set.empty, Set.empty, "location", None))
+      .andReturn(appointment)
+    replay(systemDao, userDao)
+    bookingService.close()
+    bookingService = new BookingServiceImpl(createMock(classOf[PlatformTransactionManager]), systemDao,
+      createMock(classOf[InternalScheduleDao]), scheduleManager, Seq.empty, 1000, 1000, () => credentials)
+
+    val job = bookingService.book("owner", time, timeZone, "subject", "body", "location", Set.empty, Set("attendee"),
+      Set.empty, None)
+
+    assertEquals(BookingJob(job, "owner", Succeeded), await(job))
+    verify(systemDao, userDao)
+  }
+
+  @Test
+  def testUnknownJob() {
+    assertEquals(None, bookingService.getJob("unknown", "owner"))
+  }
+
+  @Test
+  def testOtherUsersJob() {
+    expect(scheduleManager.getSchedule(Set(resource), time)).andReturn(Map(resource -> Seq(Event(1, time))))
+    replay(appointmentDao, scheduleManager)
+
+    val job = bookingService.book("owner", time, timeZone, "subject", "body", "location", Set(resource), Set.empty,
+      Set.empty, None)
+
+    assertEquals(Failed, await(job).status)
+    assertEquals(None, bookingService.getJob(job, "other"))
+  }
+
+  private def await(jobId: String): BookingJob = {
+    val deadline = Platform.currentTime + 5000
+    while (bookingService.getJob(jobId, "owner").get.status == Pending && Platform.currentTime < deadline) {
+      Thread.sleep(10)
+    }
+    bookingService.getJob(jobId, "owner").get
+  }
+
+}
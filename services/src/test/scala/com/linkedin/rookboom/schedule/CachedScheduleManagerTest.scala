@@ -17,6 +17,7 @@
 package com.linkedin.rookboom.schedule
 
 import org.easymock.EasyMock._
+import org.easymock.IAnswer
 import org.testng.AssertJUnit._
 import net.sf.ehcache.CacheManager
 import com.linkedin.rookboom.util.TimeUtils._
@@ -30,6 +31,7 @@ class CachedScheduleManagerTest {
   var cacheManager: CacheManager = _
 
   var scheduleMangerMock: ScheduleManager = _
+  var versions: ScheduleVersions = _
   var cachedScheduleManager: CachedScheduleManager = _
 
   @BeforeMethod
@@ -41,7 +43,8 @@ class CachedScheduleManagerTest {
     cacheManager.addCache("schedule")
 
     cacheManager.clearAll()
-    cachedScheduleManager = new CachedScheduleManager(scheduleMangerMock, cacheManager)
+    versions = new ScheduleVersions
+    cachedScheduleManager = new CachedScheduleManager(scheduleMangerMock, cacheManager, versions = versions)
   }
 
   @AfterMethod
@@ -113,9 +116,10 @@ class CachedScheduleManagerTest {
     val resource2 = "2@linkedin.com"
     val resource3 = "3@linkedin.com"
 
-    val event1 = Event(1, TimeSlot(from, from + hour))
-    val event2 = Event(2, TimeSlot(from + hour, from + 2 * hour))
-    val event3 = Event(3, TimeSlot(from + 2 * hour, from + 3 * hour))
+    val start: Long = from
+    val event1 = Event(1, TimeSlot(start, start + hour))
+    val event2 = Event(2, TimeSlot(start + hour, start + 2 * hour))
+    val event3 = Event(3, TimeSlot(start + 2 * hour, start + 3 * hour))
 
     expect(
       scheduleMangerMock.getSchedule(resource1, TimeSlot(roundToDayDown(from), roundToDayUp(to)))
@@ -139,6 +143,151 @@ class CachedScheduleManagerTest {
     verify(scheduleMangerMock)
   }
 
+  @Test
+  def testReloadMissingDays() {
+    val event1 = Event(1, TimeSlot("2012-08-23 10:00", "2012-08-23 11:00"))
+    val event2 = Event(2, TimeSlot("2012-08-24 10:00", "2012-08-24 11:00"))
+    val event3 = Event(3, TimeSlot("2012-08-25 10:00", "2012-08-25 11:00"))
+
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-24 00:00", "2012-08-25 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event2))
+    )
+    // only the days missing in cache are requested
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-23 00:00", "2012-08-24 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event1))
+    )
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-25 00:00", "2012-08-26 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event3))
+    )
+
+    replay(scheduleMangerMock)
+
+    cachedScheduleManager.getSchedule(resource, TimeSlot("2012-08-24 09:00", "2012-08-24 18:00"))
+    val schedule = cachedScheduleManager.getSchedule(resource, TimeSlot("2012-08-23 09:00", "2012-08-25 18:00"))
+
+    assertEquals(Map(resource -> Seq(event1, event2, event3)), schedule)
+
+    verify(scheduleMangerMock)
+  }
+
+  @Test
+  def testReloadContiguousDays() {
+    val event1 = Event(1, TimeSlot("2012-08-23 23:00", "2012-08-24 01:00"))
+
+    // contiguous days are loaded with one request
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-23 00:00", "2012-08-25 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event1))
+    )
+
+    replay(scheduleMangerMock)
+
+    val schedule = cachedScheduleManager.getSchedule(resource, TimeSlot("2012-08-23 09:00", "2012-08-24 18:00"))
+
+    // the event crossing the day boundary is returned once
+    assertEquals(Map(resource -> Seq(event1)), schedule)
+
+    verify(scheduleMangerMock)
+  }
+
+  @Test
+  def testReloadNewVersion() {
+    val event1 = Event(1, TimeSlot("2012-08-23 10:00", "2012-08-23 11:00"))
+    val event2 = Event(2, TimeSlot("2012-08-23 12:00", "2012-08-23 13:00"))
+
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-23 00:00", "2012-08-24 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event1))
+    )
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-23 00:00", "2012-08-24 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event1, event2))
+    )
+
+    replay(scheduleMangerMock)
+
+    val time = TimeSlot("2012-08-23 09:00", "2012-08-23 18:00")
+    assertEquals(Map(resource -> Seq(event1)), cachedScheduleManager.getSchedule(resource, time))
+    // a day with a new version is not served from cache
+    versions.bump(Seq(resource -> event2.time))
+    assertEquals(Map(resource -> Seq(event1, event2)), cachedScheduleManager.getSchedule(resource, time))
+    assertEquals(Map(resource -> Seq(event1, event2)), cachedScheduleManager.getSchedule(resource, time))
+
+    verify(scheduleMangerMock)
+  }
+
+  @Test
+  def testReloadChangedWhileLoading() {
+    val event1 = Event(1, TimeSlot("2012-08-23 10:00", "2012-08-23 11:00"))
+    val event2 = Event(2, TimeSlot("2012-08-23 12:00", "2012-08-23 13:00"))
+
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-23 00:00", "2012-08-24 00:00"))
+    ).andAnswer(new IAnswer[Map[String, Seq[Event]]] {
+      def answer() = {
+        // the day changes after the load has read it
+        versions.bump(Seq(resource -> event2.time))
+        Map(resource -> Seq(event1))
+      }
+    })
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-23 00:00", "2012-08-24 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event1, event2))
+    )
+
+    replay(scheduleMangerMock)
+
+    val time = TimeSlot("2012-08-23 09:00", "2012-08-23 18:00")
+    assertEquals(Map(resource -> Seq(event1, event2)), cachedScheduleManager.getSchedule(resource, time))
+    assertEquals(Map(resource -> Seq(event1, event2)), cachedScheduleManager.getSchedule(resource, time))
+
+    verify(scheduleMangerMock)
+  }
+
+  @Test
+  def testRecurringSchedule() {
+    val event1 = Event(1, TimeSlot("2012-08-23 10:00", "2012-08-23 11:00"))
+    val event2 = Event(2, TimeSlot("2012-08-30 10:30", "2012-08-30 12:00"))
+    val event3 = Event(3, TimeSlot("2012-08-30 15:00", "2012-08-30 16:00"))
+
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-23 00:00", "2012-08-24 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event1))
+    )
+    expect(
+      scheduleMangerMock.getSchedule(resource, TimeSlot("2012-08-30 00:00", "2012-08-31 00:00"))
+    ).andReturn(
+      Map(resource -> Seq(event2, event3))
+    )
+
+    replay(scheduleMangerMock)
+
+    val times = Seq(TimeSlot("2012-08-23 09:00", "2012-08-23 18:00"), TimeSlot("2012-08-30 09:00", "2012-08-30 18:00"))
+    val schedule1 = cachedScheduleManager.getSchedule(resource, times)
+    val schedule2 = cachedScheduleManager.getSchedule(resource, times)
+
+    // the occurrences are folded onto the first one
+    val expected = Map(resource -> Seq(
+      Event(0, TimeSlot("2012-08-23 10:00", "2012-08-23 12:00")),
+      Event(0, TimeSlot("2012-08-23 15:00", "2012-08-23 16:00"))
+    ))
+    assertEquals(expected, schedule1)
+    assertEquals(expected, schedule2)
+
+    verify(scheduleMangerMock)
+  }
+
   private implicit def toUtcTime(timeStr: String): Long = {
     val dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm")
     dateFormat.setTimeZone(utc)
@@ -0,0 +1,69 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import com.linkedin.rookboom.util.TimeUtils._
+import scala.util.Random
+
+class CompactScheduleTest {
+
+  val mask = TimeMask(30 * minute, (0 until 48).map(_ * 30 * minute: Long))
+
+  @Test
+  def testBusyFrames() {
+    val events = Seq(
+      // the first two frames
+      Event(1, TimeSlot(0, hour)),
+      // frame 40 only, it's beyond the first bitmask word
+      Event(2, TimeSlot(20 * hour + 10 * minute, 20 * hour + 20 * minute))
+    )
+    val compact = CompactSchedule(Map("room" -> events), mask)
+    assertEquals(CompactRecord(Seq(3, 1 << 8), Seq(0, 1)), compact.records("room"))
+    assertEquals(events, compact.events)
+  }
+
+  @Test
+  def testEventsShared() {
+    val shared = Event(1, TimeSlot(hour, 2 * hour))
+    val own = Event(2, TimeSlot(3 * hour, 4 * hour))
+    // out of the mask
+    val late = Event(3, TimeSlot(25 * hour, 26 * hour))
+    val compact = CompactSchedule(Map("room1" -> Seq(shared, late), "room2" -> Seq(own, shared)), mask)
+    assertEquals(Set(shared, own), compact.events.toSet)
+    assertEquals(2, compact.events.size)
+    assertEquals(Seq(shared), compact.records("room1").events.map(compact.events))
+    assertEquals(Seq(shared, own), compact.records("room2").events.map(compact.events))
+  }
+
+  @Test
+  def testSameAsAvailabilityRecords() {
+    val random = new Random(42)
+    val events = (1 to 100).map(i => {
+      val begin = random.nextInt(26 * 60) * minute
+      Event(i, TimeSlot(begin, begin + random.nextInt(4 * 60) * minute))
+    })
+    val record = CompactSchedule(Map("room" -> events), mask).records("room")
+    mask.frames.zipWithIndex.foreach {
+      case (frame, i) =>
+        val busy = events.exists(_.time.overlaps(TimeSlot(frame + 1, frame + mask.interval - 1)))
+        assertEquals("Frame " + i, busy, (record.busy(i / 32) & (1 << (i % 32))) != 0)
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import com.linkedin.rookboom.schedule.dao.InternalEvent
+
+class EventIndexTest {
+
+  val window = TimeSlot(0, 1000)
+
+  val events = Seq(
+    InternalEvent(1, "mailbox1", TimeSlot(0, 100)),
+    InternalEvent(2, "mailbox1", TimeSlot(50, 500)),
+    InternalEvent(3, "mailbox1", TimeSlot(200, 300)),
+    InternalEvent(4, "mailbox2", TimeSlot(100, 200))
+  )
+
+  var index: EventIndex = _
+
+  @BeforeMethod
+  def init() {
+    index = new EventIndex
+    index.rebuild(Set("mailbox1", "mailbox2", "mailbox3"), window)(events)
+  }
+
+  @Test
+  def testEmpty() {
+    assertEquals(None, new EventIndex().getEvents(Set("mailbox1"), TimeSlot(0, 10)))
+  }
+
+  @Test
+  def testNotCoveredTime() {
+    assertEquals(None, index.getEvents(Set("mailbox1"), TimeSlot(900, 1100)))
+  }
+
+  @Test
+  def testNotCoveredMailbox() {
+    assertEquals(None, index.getEvents(Set("mailbox1", "mailbox4"), TimeSlot(0, 10)))
+  }
+
+  @Test
+  def testNoEvents() {
+    assertEquals(Some(Seq.empty), index.getEvents(Set("mailbox3"), window))
+  }
+
+  @Test
+  def testOverlapping() {
+    // the long event starting before the slot must be found as well
+    assertEquals(Set(2L, 3L), ids(index.getEvents(Set("mailbox1"), TimeSlot(250, 260))))
+    assertEquals(Set(1L, 2L, 4L), ids(index.getEvents(Set("mailbox1", "mailbox2"), TimeSlot(60, 150))))
+  }
+
+  @Test
+  def testTouching() {
+    // same as the database query: end > from AND start < to
+    assertEquals(Set(2L), ids(index.getEvents(Set("mailbox1"), TimeSlot(100, 200))))
+  }
+
+  @Test
+  def testUpdate() {
+    index.update(Set("mailbox1"), TimeSlot(250, 260))(Seq(InternalEvent(5, "mailbox1", TimeSlot(240, 270))))
+    assertEquals(Set(1L, 5L), ids(index.getEvents(Set("mailbox1"), window)))
+    assertEquals(Set(4L), ids(index.getEvents(Set("mailbox2"), window)))
+  }
+
+  @Test
+  def testUpdateDuringRebuild() {
+    val update = new Thread(new Runnable {
+      def run() {
+        index.update(Set("mailbox1"), TimeSlot(250, 260))(Seq(InternalEvent(5, "mailbox1", TimeSlot(240, 270))))
+      }
+    })
+    index.rebuild(Set("mailbox1", "mailbox2", "mailbox3"), window) {
+      // the update must wait for the rebuild instead of being overwritten by the data loaded before it
+      update.start()
+      update.join(100)
+      events
+    }
+    update.join()
+    assertEquals(Set(1L, 5L), ids(index.getEvents(Set("mailbox1"), window)))
+  }
+
+  private def ids(events: Option[Seq[InternalEvent]]) = events.get.map(_.id).toSet
+
+}
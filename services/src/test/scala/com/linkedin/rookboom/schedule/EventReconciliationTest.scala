@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import com.linkedin.rookboom.schedule.dao.{EwsEvent, InternalEvent}
+import com.linkedin.rookboom.schedule.EwsScheduleManager.isSame
+import scala.util.Random
+
+class EventReconciliationTest {
+
+  @Test
+  def testSameAsPairwise() {
+    val random = new Random(42)
+    def mailbox = "mailbox" + random.nextInt(3)
+    def time = TimeSlot(random.nextInt(5), 5 + random.nextInt(5))
+    def id = if (random.nextBoolean()) Some("id" + random.nextInt(3)) else None
+    val stored = (1 to 200).map(i => InternalEvent(i, mailbox, time, id))
+    val current = (1 to 200).map(i => EwsEvent(id, mailbox, time))
+
+    val result = EventReconciliation.reconcile(stored, current)
+
+    assertEquals(current.filterNot(ext => stored.exists(isSame(_, ext))), result.created)
+    assertEquals(stored.filterNot(int => current.exists(isSame(int, _))), result.deleted)
+  }
+
+  @Test
+  def testChangesByMailbox() {
+    val stored = Seq(
+      InternalEvent(1, "mailbox1", TimeSlot(0, 1), Some("id1")),
+      InternalEvent(2, "mailbox2", TimeSlot(0, 1), Some("id2"))
+    )
+    val current = Seq(
+      EwsEvent(Some("id3"), "mailbox1", TimeSlot(0, 1)),
+      EwsEvent(None, "mailbox2", TimeSlot(0, 1)),
+      EwsEvent(None, "mailbox3", TimeSlot(0, 1))
+    )
+
+    val result = EventReconciliation.reconcile(stored, current)
+
+    assertEquals(Map("mailbox1" ->(1, 1), "mailbox3" ->(1, 0)), result.changesByMailbox)
+  }
+
+}
@@ -19,9 +19,17 @@ package com.linkedin.rookboom.schedule
 
 import org.testng.AssertJUnit._
 import com.linkedin.rookboom.util.NullSafe.anyToOption
-import com.linkedin.rookboom.schedule.dao.{InternalAppointment, InternalEvent, EwsEvent}
+import com.linkedin.rookboom.schedule.dao._
+import com.linkedin.rookboom.layout.{Layout, Room, LayoutManager}
+import com.linkedin.rookboom.util.TimeUtils
 import EwsScheduleManager._
 import org.testng.annotations.Test
+import org.springframework.transaction.{TransactionStatus, TransactionDefinition, PlatformTransactionManager}
+import org.springframework.transaction.support.SimpleTransactionStatus
+import scala.collection.mutable
+import scala.compat.Platform
+import scala.util.Try
+import org.springframework.dao.DeadlockLoserDataAccessException
 
 class EwsScheduleManagerTest {
 
@@ -117,4 +125,178 @@ class EwsScheduleManagerTest {
     assertTrue(deleted.isEmpty)
   }
 
+  @Test
+  def testReloadInBatches() {
+    val rooms = (0 to MailboxBatchSize).map(i => Room("room" + i + "@linkedin.com", "Room " + i, "mv"))
+    val time = TimeSlot(Platform.currentTime, Platform.currentTime + TimeUtils.hour)
+    val txManager = new RecordingTxManager
+    val internalDao = new MemoryScheduleDao(txManager)
+    // the first room has an event that is gone from Exchange, the last one has a new event
+    internalDao.addEvents(Seq(InternalEvent(0, rooms.head.email, time, "deleted")))
+    val manager = createManager(txManager, internalDao, rooms, Seq(EwsEvent("created", rooms.last.email, time)))
+    manager.reload()
+    assertEquals(Seq(EwsEvent("created", rooms.last.email, time)), internalDao.events.map(e => EwsEvent(e.extId, e.mailbox, e.time)))
+    // one write transaction per batch of mailboxes and one to read the result
+    assertEquals(Seq(false, false, true), txManager.transactions)
+  }
+
+  @Test
+  def testRetryOnDeadlock() {
+    val rooms = Seq(Room("room@linkedin.com", "Room", "mv"))
+    val time = TimeSlot(Platform.currentTime, Platform.currentTime + TimeUtils.hour)
+    val txManager = new RecordingTxManager
+    var deadlocks = 1
+    val internalDao = new MemoryScheduleDao(txManager) {
+      override def addEvents(added: Seq[InternalEvent]) {
+        if (deadlocks > 0) {
+          deadlocks -= 1
+          throw new DeadlockLoserDataAccessException("Deadlock found when trying to get lock", null)
+        }
+        super.addEvents(added)
+      }
+    }
+    val manager = createManager(txManager, internalDao, rooms, Seq(EwsEvent("created", rooms.head.email, time)))
+    manager.reload()
+    assertEquals(Seq(EwsEvent("created", rooms.head.email, time)), internalDao.events.map(e => EwsEvent(e.extId, e.mailbox, e.time)))
+    // the rolled back batch is repeated
+    assertEquals(Seq(false, false, true), txManager.transactions)
+  }
+
+  @Test
+  def testSyncAppliesChanges() {
+    val room = Room("room@linkedin.com", "Room", "mv")
+    val time = TimeSlot(Platform.currentTime, Platform.currentTime + TimeUtils.hour)
+    val moved = TimeSlot(time.end, time.end + TimeUtils.hour)
+    val txManager = new RecordingTxManager
+    val internalDao = new MemoryScheduleDao(txManager)
+    internalDao.addEvents(Seq(
+      InternalEvent(0, room.email, time, "hex1"),
+      InternalEvent(0, room.email, time, "hex2"),
+      InternalEvent(0, room.email, time, "hex3")
+    ))
+    internalDao.syncStates(room.email) = "state1"
+    // the first item is deleted, the second one is moved, the third one is unchanged
+    val synced = EwsSyncResult(Seq(EwsCalendarItem("2", moved, busy = true, recurring = false)), Seq("1"), "state2")
+    val manager = createManager(txManager, internalDao, Seq(room), Seq.empty, Map(room.email -> synced))
+    manager.sync()
+    assertEquals(Set(("hex2", moved), ("hex3", time)), internalDao.events.map(e => (e.extId.get, e.time)).toSet)
+    assertEquals(Map(room.email -> "state2"), internalDao.syncStates.toMap)
+  }
+
+  @Test
+  def testSyncReconcilesRecurring() {
+    val room = Room("room@linkedin.com", "Room", "mv")
+    val time = TimeSlot(Platform.currentTime, Platform.currentTime + TimeUtils.hour)
+    val txManager = new RecordingTxManager
+    val internalDao = new MemoryScheduleDao(txManager)
+    internalDao.syncStates(room.email) = "state1"
+    val synced = EwsSyncResult(Seq(EwsCalendarItem("1", time, busy = true, recurring = true)), Seq.empty, "state2")
+    val manager = createManager(txManager, internalDao, Seq(room), Seq(EwsEvent("hex1", room.email, time)), Map(room.email -> synced))
+    manager.sync()
+    // occurrences come from availability
+    assertEquals(Seq(("hex1", time)), internalDao.events.map(e => (e.extId.get, e.time)))
+    assertEquals(Map(room.email -> "state2"), internalDao.syncStates.toMap)
+  }
+
+  private def createManager(txManager: RecordingTxManager,
+                            internalDao: InternalScheduleDao,
+                            rooms: Seq[Room],
+                            fetched: Seq[EwsEvent],
+                            synced: Map[String, EwsSyncResult] = Map.empty) = {
+    val ewsDao = new EwsScheduleDao {
+      def getEvents(mailboxes: Set[String], slot: TimeSlot) = {
+        assertFalse("Exchange is called within a transaction", txManager.active)
+        fetched.groupBy(_.mailbox)
+      }
+      def convertEventIds(ids: Set[EwsItemId]) = Map.empty
+      def getAppointments(ids: Set[EwsItemId]) = Map.empty
+      def convertItemIds(ids: Set[EwsItemId]) = ids.map(id => id -> id.copy(id = "hex" + id.id)).toMap
+      def syncCalendars(syncStates: Map[String, Option[String]]) = {
+        assertFalse("Exchange is called within a transaction", txManager.active)
+        syncStates.map {
+          case (mailbox, state) => mailbox -> Try(synced.getOrElse(mailbox, EwsSyncResult(Seq.empty, Seq.empty, state.get)))
+        }
+      }
+    }
+    val layoutManager = new LayoutManager {
+      val layout = Layout("mv", "Mountain View", TimeUtils.utc, rooms)
+      def getAvailableLayouts = Seq(layout.id)
+      def getLayout(id: String) = Some(layout)
+      def getAll = Seq(layout)
+      def defaultLayoutId = None
+    }
+    new EwsScheduleManager(txManager, null, layoutManager, internalDao, ewsDao, 2, 2)
+  }
+
+}
+
+private class RecordingTxManager extends PlatformTransactionManager {
+
+  // read only flags of the started transactions
+  val transactions = mutable.Buffer.empty[Boolean]
+
+  var active = false
+
+  def getTransaction(definition: TransactionDefinition) = {
+    assertFalse("Nested transaction", active)
+    active = true
+    transactions += definition.isReadOnly
+    new SimpleTransactionStatus()
+  }
+
+  def commit(status: TransactionStatus) {
+    active = false
+  }
+
+  def rollback(status: TransactionStatus) {
+    active = false
+  }
+
+}
+
+private class MemoryScheduleDao(txManager: RecordingTxManager) extends InternalScheduleDao {
+
+  val events = mutable.Buffer.empty[InternalEvent]
+
+  def getEventsById(ids: Set[Long]) = events.filter(e => ids.contains(e.id)).map(e => e.id -> e).toMap
+
+  def getEvents(mailboxes: Set[String], time: TimeSlot) = events.filter(e => mailboxes.contains(e.mailbox) && e.time.overlaps(time)).toList
+
+  def addEvents(added: Seq[InternalEvent]) {
+    events ++= added.zipWithIndex.map(x => x._1.copy(id = events.size + x._2 + 1))
+  }
+
+  def deleteEvents(ids: Set[Long]) {
+    assertTrue("Deleting outside of a transaction", txManager.active)
+    events --= events.filter(e => ids.contains(e.id))
+  }
+
+  def updateAppointmentIds(ids: Map[Long, Long]) {}
+
+  def addAppointments(appointments: Seq[InternalAppointment]) {}
+
+  def getAppointmentsById(ids: Set[Long]) = Map.empty
+
+  def getAppointmentsByExtId(extIds: Set[String]) = Map.empty
+
+  val syncStates = mutable.Map.empty[String, String]
+
+  def getSyncStates(mailboxes: Set[String]) = syncStates.filterKeys(mailboxes.contains).toMap
+
+  def updateSyncStates(states: Map[String, Option[String]]) {
+    assertTrue("Updating outside of a transaction", txManager.active)
+    states.foreach {
+      case (mailbox, Some(state)) => syncStates(mailbox) = state
+      case (mailbox, None) => syncStates -= mailbox
+    }
+  }
+
+  def purgeEvents(before: Long, limit: Int) = 0
+
+  def purgeAppointments(before: Long, limit: Int) = 0
+
+  def addPartitions(until: Long) = 0
+
+  def dropPartitions(before: Long) = 0
+
 }
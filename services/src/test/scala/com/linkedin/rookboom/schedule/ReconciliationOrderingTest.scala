@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+
+class ReconciliationOrderingTest {
+
+  val day = TimeSlot(0, 1000)
+
+  val hour = TimeSlot(100, 200)
+
+  @Test
+  def testLaterFetchCommittedFirst() {
+    val ordering = new ReconciliationOrdering
+    val reload = ordering.start()
+    val booking = ordering.start()
+    ordering.commit(booking, Set("mailbox1"), hour)(later => assertEquals(Map("mailbox1" -> Seq.empty), later))
+    ordering.finish(booking)
+    // the reload has fetched before the booking, so it must leave the booked hour alone
+    ordering.commit(reload, Set("mailbox1", "mailbox2"), day) {
+      later => assertEquals(Map("mailbox1" -> Seq(hour), "mailbox2" -> Seq.empty), later)
+    }
+    ordering.finish(reload)
+  }
+
+  @Test
+  def testEarlierFetchCommittedFirst() {
+    val ordering = new ReconciliationOrdering
+    val reload = ordering.start()
+    val booking = ordering.start()
+    ordering.commit(reload, Set("mailbox1"), day)(later => assertEquals(Map("mailbox1" -> Seq.empty), later))
+    ordering.finish(reload)
+    ordering.commit(booking, Set("mailbox1"), hour)(later => assertEquals(Map("mailbox1" -> Seq.empty), later))
+    ordering.finish(booking)
+  }
+
+  @Test
+  def testFinishedFetchesForgotten() {
+    val ordering = new ReconciliationOrdering
+    val booking = ordering.start()
+    ordering.commit(booking, Set("mailbox1"), hour)(later => ())
+    ordering.finish(booking)
+    val reload = ordering.start()
+    ordering.commit(reload, Set("mailbox1"), day)(later => assertEquals(Map("mailbox1" -> Seq.empty), later))
+    ordering.finish(reload)
+  }
+
+}
@@ -20,7 +20,8 @@ import org.testng.AssertJUnit._
 import DayOfWeek._
 import WeekOfMonth._
 import java.text.{ParseException, SimpleDateFormat}
-import com.linkedin.rookboom.util.TimeUtils.utc
+import com.linkedin.rookboom.util.TimeUtils.{hour, utc}
+import java.util.TimeZone
 import org.testng.Assert
 import org.testng.annotations.Test
 
@@ -162,6 +163,43 @@ class RepetitionTest {
     assertEquals(expected, r.toOccurrences("2012-07-01 12:00", utc))
   }
 
+  @Test
+  def testRepetitionEndBy() {
+    val r = Repetition(TimeSlot("2012-07-02 12:00", "2012-07-02 13:00"), Weekly(1, Set(Monday)), By("2012-07-16"))
+    val expected = Seq(
+      TimeSlot("2012-07-02 12:00", "2012-07-02 13:00"),
+      TimeSlot("2012-07-09 12:00", "2012-07-09 13:00"),
+      TimeSlot("2012-07-16 12:00", "2012-07-16 13:00"))
+    assertEquals(expected, r.toOccurrences("2012-07-01 12:00", utc))
+  }
+
+  @Test
+  def testRepetitionWindow() {
+    val r = Repetition(TimeSlot("2012-07-01 12:00", "2012-07-01 13:00"), Daily(1), By("2112-07-01"))
+    val window = TimeSlot("2012-07-10 00:00", "2012-07-12 00:00")
+    val expected = Seq(
+      TimeSlot("2012-07-10 12:00", "2012-07-10 13:00"),
+      TimeSlot("2012-07-11 12:00", "2012-07-11 13:00"))
+    assertEquals(expected, r.occurrences("2012-07-01 12:00", utc, window).toList)
+    assertEquals(TimeSlot("2012-07-01 12:00", "2012-07-01 13:00"), r.firstOccurrence("2012-07-01 12:00", utc))
+  }
+
+  @Test
+  def testRepetitionDaylightSaving() {
+    val zone = TimeZone.getTimeZone("America/Los_Angeles")
+    val start: Long = "2013-03-08 20:00" // noon in Los Angeles (PST)
+    val r = Repetition(TimeSlot(start, start + hour), Daily(1), After(3))
+    // the time of day is kept when the clocks are changed on 2013-03-10
+    val expected = Seq(start, toTime("2013-03-09 20:00"), toTime("2013-03-10 19:00"))
+    assertEquals(expected, r.toOccurrences(start, zone).map(_.begin))
+  }
+
+  @Test
+  def testFirstFarFromStart() {
+    assertEquals("2032-07-19 12:00", Daily(1).first("2012-07-15 12:00", "2032-07-19 11:00", utc))
+    assertEquals("2032-07-23 12:00", Weekly(1, Set(Friday)).first("2012-07-15 12:00", "2032-07-19 11:00", utc))
+  }
+
   @Test()
   def testWeeklyPrettyPrint() {
     assertEquals("on Monday every week", Weekly(1, Set(Monday)).toPrettyString)
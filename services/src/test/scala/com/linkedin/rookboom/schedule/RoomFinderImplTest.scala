@@ -0,0 +1,130 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.easymock.EasyMock._
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import com.linkedin.rookboom.layout.{Layout, Room, LayoutManager}
+import com.linkedin.rookboom.util.TimeUtils._
+import java.util.TimeZone
+
+class RoomFinderImplTest {
+
+  val dayStart = 10 * day
+
+  val small = Room("small@linkedin.com", "Small", "layout1", Map("capacity" -> "4"))
+  val smallFree = Room("small-free@linkedin.com", "Small Free", "layout1", Map("capacity" -> "4"))
+  val large = Room("large@linkedin.com", "Large", "layout2", Map("capacity" -> "10"))
+  val unknown = Room("unknown@linkedin.com", "Unknown", "layout2", Map("capacity" -> "10"))
+  val noCapacity = Room("no-capacity@linkedin.com", "No Capacity", "layout1", Map.empty)
+
+  val layouts = Seq(
+    Layout("layout1", "Layout 1", TimeZone.getTimeZone("UTC"), Seq(small, smallFree, noCapacity)),
+    Layout("layout2", "Layout 2", TimeZone.getTimeZone("UTC"), Seq(large, unknown))
+  )
+
+  val schedule = Map(
+    small.email -> Seq(Event(1, at(9, 0, 10, 0))),
+    smallFree.email -> Seq.empty,
+    noCapacity.email -> Seq.empty,
+    large.email -> Seq(Event(2, at(13, 15, 13, 45)))
+  )
+
+  var scheduleManager: ScheduleManager = _
+  var roomFinder: RoomFinderImpl = _
+
+  @BeforeMethod
+  def init() {
+    val layoutManager = createMock(classOf[LayoutManager])
+    expect(layoutManager.getAll).andReturn(layouts).anyTimes()
+    expect(layoutManager.getLayout("layout2")).andReturn(Some(layouts(1))).anyTimes()
+    scheduleManager = createMock(classOf[ScheduleManager])
+    replay(layoutManager)
+    roomFinder = new RoomFinderImpl(scheduleManager, layoutManager)
+  }
+
+  @Test
+  def testRanking() {
+    expect(scheduleManager.getSchedule(layouts.flatMap(_.rooms).map(_.email).toSet, TimeSlot(dayStart, dayStart + day)))
+      .andReturn(schedule).once()
+    replay(scheduleManager)
+
+    val rooms = roomFinder.findRooms(RoomQuery(at(8, 0, 12, 0), hour, 4))
+
+    assertEquals(Seq(
+      RoomMatch(small, at(8, 0, 9, 0), at(8, 0, 9, 0)),
+      RoomMatch(smallFree, at(8, 0, 9, 0), at(8, 0, 12, 0)),
+      RoomMatch(large, at(8, 0, 9, 0), at(8, 0, 12, 0)),
+      // it may be too small, but it is still better than nothing
+      RoomMatch(noCapacity, at(8, 0, 9, 0), at(8, 0, 12, 0))
+    ), rooms)
+    // the masks are reused
+    assertEquals(4, roomFinder.findRooms(RoomQuery(at(8, 0, 12, 0), hour, 4)).size)
+    verify(scheduleManager)
+  }
+
+  @Test
+  def testPartiallyBusySlots() {
+    expect(scheduleManager.getSchedule(anyObject[Set[String]], anyObject[TimeSlot])).andReturn(schedule)
+    replay(scheduleManager)
+
+    val rooms = roomFinder.findRooms(RoomQuery(at(13, 0, 15, 0), hour, 5, Some("layout2")))
+
+    // 13:15 - 13:45 makes both 13:00 and 13:30 slots busy
+    assertEquals(Seq(RoomMatch(large, at(14, 0, 15, 0), at(14, 0, 15, 0))), rooms)
+  }
+
+  @Test
+  def testLayoutMasks() {
+    expect(scheduleManager.getSchedule(Set(large.email, unknown.email), TimeSlot(dayStart, dayStart + day)))
+      .andReturn(schedule).once()
+    expect(scheduleManager.getSchedule(layouts.flatMap(_.rooms).map(_.email).toSet, TimeSlot(dayStart, dayStart + day)))
+      .andReturn(schedule).once()
+    replay(scheduleManager)
+
+    // only the rooms of the layout are loaded
+    roomFinder.findRooms(RoomQuery(at(8, 0, 12, 0), hour, 0, Some("layout2")))
+    roomFinder.findRooms(RoomQuery(at(8, 0, 12, 0), hour, 0, Some("layout2")))
+    roomFinder.findRooms(RoomQuery(at(8, 0, 12, 0), hour))
+
+    verify(scheduleManager)
+  }
+
+  @Test
+  def testInvalidation() {
+    expect(scheduleManager.getSchedule(anyObject[Set[String]], anyObject[TimeSlot])).andReturn(schedule).times(2)
+    replay(scheduleManager)
+
+    roomFinder.findRooms(RoomQuery(at(8, 0, 12, 0), hour))
+    roomFinder.onBook(at(10, 0, 11, 0), Set(small.email), Set.empty)
+    roomFinder.findRooms(RoomQuery(at(8, 0, 12, 0), hour))
+
+    verify(scheduleManager)
+  }
+
+  @Test
+  def testTooShort() {
+    replay(scheduleManager)
+    assertTrue(roomFinder.findRooms(RoomQuery(at(8, 0, 8, 30), hour)).isEmpty)
+  }
+
+  private def at(fromHour: Int, fromMinute: Int, toHour: Int, toMinute: Int) = {
+    TimeSlot(dayStart + fromHour * hour + fromMinute * minute, dayStart + toHour * hour + toMinute * minute)
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.easymock.EasyMock._
+import org.easymock.Capture
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import com.linkedin.rookboom.schedule.dao.InternalScheduleDao
+import com.linkedin.rookboom.util.TimeUtils._
+import org.springframework.transaction.PlatformTransactionManager
+import scala.compat.Platform
+
+class SchedulePurgerTest {
+
+  var txManager: PlatformTransactionManager = _
+  var internalDao: InternalScheduleDao = _
+
+  @BeforeMethod
+  def init() {
+    txManager = createNiceMock(classOf[PlatformTransactionManager])
+    internalDao = createStrictMock(classOf[InternalScheduleDao])
+    replay(txManager)
+  }
+
+  @Test
+  def testPurge() {
+    val start = Platform.currentTime
+    val before = roundToDayDown(start) - 30 * day
+    expect(internalDao.addPartitions(anyLong())).andReturn(1)
+    expect(internalDao.dropPartitions(before)).andReturn(2)
+    // deleting goes on while batches are full
+    expect(internalDao.purgeEvents(before, 10)).andReturn(10).times(2)
+    expect(internalDao.purgeEvents(before, 10)).andReturn(3)
+    expect(internalDao.purgeAppointments(before, 10)).andReturn(0)
+    replay(internalDao)
+
+    new SchedulePurger(txManager, internalDao, 30, 220, 10).purge()
+
+    verify(internalDao)
+  }
+
+  @Test
+  def testPartitionsAhead() {
+    val start = Platform.currentTime
+    val until = new Capture[java.lang.Long]()
+    expect(internalDao.addPartitions(captureLong(until))).andReturn(0)
+    expect(internalDao.dropPartitions(anyLong())).andReturn(0)
+    expect(internalDao.purgeEvents(anyLong(), anyInt())).andReturn(0)
+    expect(internalDao.purgeAppointments(anyLong(), anyInt())).andReturn(0)
+    replay(internalDao)
+
+    new SchedulePurger(txManager, internalDao, 30, 220).purge()
+
+    assertTrue(until.getValue >= start + 220 * day)
+    verify(internalDao)
+  }
+
+  @Test(expectedExceptions = Array(classOf[IllegalArgumentException]))
+  def testNoRetention() {
+    new SchedulePurger(txManager, internalDao, 0, 220)
+  }
+
+}
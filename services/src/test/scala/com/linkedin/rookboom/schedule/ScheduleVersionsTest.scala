@@ -0,0 +1,68 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import com.linkedin.rookboom.util.TimeUtils._
+
+class ScheduleVersionsTest {
+
+  val room1 = "room1@linkedin.com"
+  val room2 = "room2@linkedin.com"
+
+  @Test
+  def testBump() {
+    val versions = new ScheduleVersions
+    assertEquals(0, versions.version(Set(room1, room2), Seq(TimeSlot(0, 2 * day))))
+    // an event crossing midnight changes both days
+    versions.bump(Seq(room1 -> TimeSlot(day - hour, day + hour)))
+    val first = versions.version(room1, 0)
+    assertTrue(first > 0)
+    assertEquals(first, versions.version(room1, day))
+    assertEquals(0, versions.version(room2, 0))
+    assertEquals(0, versions.version(room1, 2 * day))
+    // any changed day changes the version of a set of days
+    versions.bump(Seq(room2 -> TimeSlot(day, day)))
+    assertTrue(versions.version(Set(room1, room2), Seq(TimeSlot(0, 2 * day))) > first)
+    assertEquals(first, versions.version(Set(room1, room2), Seq(TimeSlot(0, day))))
+  }
+
+  @Test
+  def testNoChanges() {
+    val versions = new ScheduleVersions
+    versions.bump(Seq.empty)
+    versions.bump(Seq(room1 -> TimeSlot(0, hour)))
+    val version = versions.version(room1, 0)
+    versions.bump(Seq.empty)
+    assertEquals(version, versions.version(room1, 0))
+  }
+
+  @Test
+  def testPrune() {
+    val versions = new ScheduleVersions
+    versions.bump(Seq(room1 -> TimeSlot(0, hour), room1 -> TimeSlot(2 * day, 2 * day + hour)))
+    val before = versions.version(Set(room1, room2), Seq(TimeSlot(0, day)))
+    val kept = versions.version(room1, 2 * day)
+    versions.prune(day + hour)
+    // pruned days get a common version that never matches an older one
+    assertTrue(versions.version(room1, 0) > before)
+    assertEquals(versions.version(room1, 0), versions.version(room2, 0))
+    assertEquals(kept, versions.version(room1, 2 * day))
+  }
+
+}
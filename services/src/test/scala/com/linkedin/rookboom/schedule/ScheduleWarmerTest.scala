@@ -0,0 +1,115 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import com.linkedin.rookboom.layout.{Room, Layout, LayoutManager}
+import com.linkedin.rookboom.util.TimeUtils._
+import java.util.{Calendar, TimeZone}
+import scala.collection.mutable
+import scala.compat.Platform
+
+class ScheduleWarmerTest {
+
+  val room1 = Room("room1@linkedin.com", "Room 1", "mv")
+  val room2 = Room("room2@linkedin.com", "Room 2", "sf")
+  val mv = Layout("mv", "Mountain View", utc, Seq(room1))
+  val sf = Layout("sf", "San Francisco", utc, Seq(room2))
+
+  var scheduleManager: RecordingScheduleManager = _
+  var warmer: ScheduleWarmer = _
+
+  @BeforeMethod
+  def init() {
+    scheduleManager = new RecordingScheduleManager
+    val layoutManager = new LayoutManager {
+      def getAvailableLayouts = Seq(mv.id, sf.id)
+      def getLayout(id: String) = Seq(mv, sf).find(_.id == id)
+      def getAll = Seq(mv, sf)
+      def defaultLayoutId = None
+    }
+    warmer = new ScheduleWarmer(scheduleManager, layoutManager, 2)
+  }
+
+  @Test
+  def testFirstWarmUp() {
+    val today = ScheduleWarmer.today(utc, Platform.currentTime)
+    val next = ScheduleWarmer.nextBusinessDay(today, utc)
+    warmer.warmUp()
+    // all the layouts today and the next business day
+    assertEquals(Set(
+      (Set(room1.email), today), (Set(room1.email), next), (Set(room2.email), today), (Set(room2.email), next)
+    ), scheduleManager.requests.toSet)
+  }
+
+  @Test
+  def testPopular() {
+    warmer.warmUp()
+    scheduleManager.requests.clear()
+    val tomorrow = TimeSlot(roundToDayUp(Platform.currentTime), roundToDayUp(Platform.currentTime) + day)
+    val later = TimeSlot(tomorrow.begin + week, tomorrow.end + week)
+    val past = TimeSlot(tomorrow.begin - week, tomorrow.end - week)
+    warmer.record("mv", tomorrow)
+    warmer.record("mv", tomorrow)
+    warmer.record("sf", later)
+    warmer.record("sf", past)
+    warmer.record("sf", past)
+    warmer.record("sf", past)
+    warmer.warmUp()
+    // the past is never warmed
+    assertEquals(Seq((Set(room1.email), tomorrow), (Set(room2.email), later)), scheduleManager.requests)
+    scheduleManager.requests.clear()
+    // a single request fades away after a warm up
+    warmer.warmUp()
+    assertEquals(Seq((Set(room1.email), tomorrow)), scheduleManager.requests)
+  }
+
+  @Test
+  def testRoomsAdded() {
+    val room3 = Room("room3@linkedin.com", "Room 3", "mv")
+    warmer.onRoomsAdded(mv.copy(rooms = Seq(room1, room3)), Seq(room3))
+    assertEquals(Seq(Set(room3.email), Set(room3.email)), scheduleManager.requests.map(_._1))
+  }
+
+  @Test
+  def testNextBusinessDay() {
+    val zone = TimeZone.getTimeZone("America/Los_Angeles")
+    val calendar = Calendar.getInstance(zone)
+    calendar.clear()
+    // a Friday
+    calendar.set(2014, Calendar.JANUARY, 10)
+    val friday = ScheduleWarmer.today(zone, calendar.getTimeInMillis)
+    calendar.set(2014, Calendar.JANUARY, 13)
+    val monday = ScheduleWarmer.today(zone, calendar.getTimeInMillis)
+    assertEquals(monday, ScheduleWarmer.nextBusinessDay(friday, zone))
+    calendar.set(2014, Calendar.JANUARY, 14)
+    assertEquals(ScheduleWarmer.today(zone, calendar.getTimeInMillis), ScheduleWarmer.nextBusinessDay(monday, zone))
+  }
+
+}
+
+class RecordingScheduleManager extends AbstractScheduleManager {
+
+  val requests = mutable.Buffer.empty[(Set[String], TimeSlot)]
+
+  override def getSchedule(mailboxes: Set[String], time: TimeSlot): Map[String, Seq[Event]] = {
+    requests += ((mailboxes, time))
+    Map.empty
+  }
+
+}
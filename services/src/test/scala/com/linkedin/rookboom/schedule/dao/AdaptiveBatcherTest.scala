@@ -0,0 +1,92 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import scala.collection.mutable
+import scala.compat.Platform
+
+class AdaptiveBatcherTest {
+
+  @Test
+  def testAllProcessed() {
+    val batcher = new AdaptiveBatcher(10)
+    val batches = mutable.Buffer.empty[Seq[Int]]
+    val result = batcher(1 to 25)(batch => {
+      batches += batch
+      BatchResult(batch.map(x => x -> x * 2).toMap)
+    })
+    assertEquals((1 to 25).map(x => x -> x * 2).toMap, result)
+    assertEquals(Seq(10, 10, 5), batches.map(_.size))
+  }
+
+  @Test
+  def testThrottledRetriedInSmallerBatches() {
+    val batcher = new AdaptiveBatcher(10, baseBackOff = 1)
+    val batches = mutable.Buffer.empty[Seq[Int]]
+    val result = batcher(1 to 10)(batch => {
+      batches += batch
+      if (batches.size == 1) {
+        BatchResult(Map.empty[Int, Int], batch)
+      } else {
+        BatchResult(batch.map(x => x -> x).toMap)
+      }
+    })
+    assertEquals((1 to 10).map(x => x -> x).toMap, result)
+    // halved after throttling, then grows back by a step
+    assertEquals(Seq(10, 5, 5), batches.map(_.size))
+    assertEquals(7, batcher.size)
+  }
+
+  @Test
+  def testShrinkWhenSlow() {
+    val batcher = new AdaptiveBatcher(8, targetLatency = -1)
+    val batches = mutable.Buffer.empty[Seq[Int]]
+    batcher(1 to 15)(batch => {
+      batches += batch
+      BatchResult(Map.empty[Int, Int])
+    })
+    assertEquals(Seq(8, 4, 2, 1), batches.map(_.size))
+  }
+
+  @Test
+  def testGiveUpThrottled() {
+    val batcher = new AdaptiveBatcher(2, maxAttempts = 3, baseBackOff = 1)
+    var calls = 0
+    val result = batcher(Seq(1, 2))(batch => {
+      calls += 1
+      // the first item is always throttled
+      BatchResult(batch.filter(_ != 1).map(x => x -> x).toMap, batch.filter(_ == 1))
+    })
+    assertEquals(Map(2 -> 2), result)
+    assertEquals(3, calls)
+  }
+
+  @Test
+  def testBackOffHint() {
+    val batcher = new AdaptiveBatcher(1, baseBackOff = 1)
+    var calls = 0
+    val start = Platform.currentTime
+    batcher(Seq(1))(batch => {
+      calls += 1
+      if (calls == 1) BatchResult(Map.empty[Int, Int], batch, Some(100L)) else BatchResult(Map(1 -> 1))
+    })
+    assertTrue(Platform.currentTime - start >= 100)
+  }
+
+}
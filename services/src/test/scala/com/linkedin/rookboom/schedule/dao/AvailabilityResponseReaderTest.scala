@@ -0,0 +1,133 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import javax.xml.bind.DatatypeConverter
+import org.springframework.xml.transform.StringSource
+import com.linkedin.rookboom.schedule.TimeSlot
+
+class AvailabilityResponseReaderTest {
+
+  @Test
+  def testBusyEventsOnly() {
+    val response = availabilityResponse(
+      success(
+        event("2012-08-23T10:00:00Z", "2012-08-23T11:00:00Z", "Busy", Some("id1")),
+        event("2012-08-23T11:00:00Z", "2012-08-23T12:00:00Z", "Free", Some("id2")),
+        event("2012-08-23T12:00:00Z", "2012-08-23T13:00:00Z", "Tentative", None),
+        event("2012-08-23T13:00:00Z", "2012-08-23T14:00:00Z", "OOF", None)
+      )
+    )
+    val expected = Map("room@linkedin.com" -> Seq(
+      EwsEvent(Some("id1"), "room@linkedin.com", TimeSlot(time("2012-08-23T10:00:00Z"), time("2012-08-23T11:00:00Z"))),
+      EwsEvent(None, "room@linkedin.com", TimeSlot(time("2012-08-23T13:00:00Z"), time("2012-08-23T14:00:00Z")))
+    ))
+    assertEquals(BatchResult(expected), read(response, Seq("room@linkedin.com")))
+  }
+
+  @Test
+  def testFailedMailboxSkipped() {
+    val response = availabilityResponse(
+      error("ErrorMailRecipientNotFound"),
+      success(),
+      success(event("2012-08-23T10:00:00Z", "2012-08-23T11:00:00Z", "Busy", None))
+    )
+    val result = read(response, Seq("missing@linkedin.com", "free@linkedin.com", "busy@linkedin.com")).results
+    assertEquals(Set("free@linkedin.com", "busy@linkedin.com"), result.keySet)
+    assertEquals(Seq.empty, result("free@linkedin.com"))
+    assertEquals(1, result("busy@linkedin.com").size)
+  }
+
+  @Test
+  def testThrottledMailbox() {
+    val response = availabilityResponse(
+      success(),
+      throttled(3000),
+      throttled(5000)
+    )
+    val result = read(response, Seq("room1@linkedin.com", "room2@linkedin.com", "room3@linkedin.com"))
+    assertEquals(Set("room1@linkedin.com"), result.results.keySet)
+    assertEquals(Seq("room2@linkedin.com", "room3@linkedin.com"), result.throttled)
+    // the longest back off is honored
+    assertEquals(Some(5000L), result.backOff)
+  }
+
+  private def read(response: String, mailboxes: Seq[String]) = {
+    AvailabilityResponseReader.read(EwsDaoSupport.toElement(new StringSource(response)), mailboxes)
+  }
+
+  private def time(s: String) = DatatypeConverter.parseDateTime(s).getTimeInMillis
+
+  private def availabilityResponse(responses: String*) = {
+    <m:GetUserAvailabilityResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages"
+                                   xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+      <m:FreeBusyResponseArray>{scala.xml.Unparsed(responses.mkString)}</m:FreeBusyResponseArray>
+    </m:GetUserAvailabilityResponse>.toString()
+  }
+
+  private def success(events: String*) = {
+    <m:FreeBusyResponse>
+      <m:ResponseMessage ResponseClass="Success">
+        <m:ResponseCode>NoError</m:ResponseCode>
+      </m:ResponseMessage>
+      <m:FreeBusyView>
+        <t:FreeBusyViewType>Detailed</t:FreeBusyViewType>
+        <t:CalendarEventArray>{scala.xml.Unparsed(events.mkString)}</t:CalendarEventArray>
+        <t:WorkingHours>
+          <t:WorkingPeriodArray>
+            <t:WorkingPeriod>
+              <t:DayOfWeek>Monday</t:DayOfWeek>
+            </t:WorkingPeriod>
+          </t:WorkingPeriodArray>
+        </t:WorkingHours>
+      </m:FreeBusyView>
+    </m:FreeBusyResponse>.toString()
+  }
+
+  private def error(code: String) = {
+    <m:FreeBusyResponse>
+      <m:ResponseMessage ResponseClass="Error">
+        <m:MessageText>Failed</m:MessageText>
+        <m:ResponseCode>{code}</m:ResponseCode>
+        <m:MessageXml><t:Value Name="Mailbox">missing</t:Value></m:MessageXml>
+      </m:ResponseMessage>
+    </m:FreeBusyResponse>.toString()
+  }
+
+  private def throttled(backOff: Long) = {
+    <m:FreeBusyResponse>
+      <m:ResponseMessage ResponseClass="Error">
+        <m:MessageText>The server cannot service this request right now. Try again later.</m:MessageText>
+        <m:ResponseCode>ErrorServerBusy</m:ResponseCode>
+        <m:DescriptiveLinkKey>0</m:DescriptiveLinkKey>
+        <m:MessageXml><t:Value Name="BackOffMilliseconds">{backOff}</t:Value></m:MessageXml>
+      </m:ResponseMessage>
+    </m:FreeBusyResponse>.toString()
+  }
+
+  private def event(start: String, end: String, busyType: String, id: Option[String]) = {
+    <t:CalendarEvent>
+      <t:StartTime>{start}</t:StartTime>
+      <t:EndTime>{end}</t:EndTime>
+      <t:BusyType>{busyType}</t:BusyType>
+      {id.map(id => <t:CalendarEventDetails><t:ID>{id}</t:ID><t:Subject>Meeting</t:Subject><t:IsMeeting>true</t:IsMeeting></t:CalendarEventDetails>).getOrElse("")}
+    </t:CalendarEvent>.toString()
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import org.springframework.ws.test.client.MockWebServiceServer
+import org.springframework.ws.test.client.RequestMatchers._
+import org.springframework.ws.test.client.ResponseCreators._
+import org.springframework.xml.transform.StringSource
+import scala.collection.JavaConverters._
+import com.linkedin.rookboom.schedule.TrackingStatus._
+
+class EwsAppointmentDaoImplTest {
+
+  val Namespaces = Map(
+    "m" -> "http://schemas.microsoft.com/exchange/services/2006/messages",
+    "t" -> "http://schemas.microsoft.com/exchange/services/2006/types"
+  ).asJava
+
+  val resource = "cr-jenga@linkedin.com"
+
+  var dao: EwsAppointmentDaoImpl = _
+  var server: MockWebServiceServer = _
+
+  @BeforeMethod
+  def init() {
+    val marshaller = new PooledJaxb2Marshaller
+    marshaller.setContextPath("com.microsoft.exchange.messages:com.microsoft.exchange.types")
+    marshaller.afterPropertiesSet()
+    dao = new EwsAppointmentDaoImpl
+    dao.setMarshaller(marshaller)
+    dao.setUnmarshaller(marshaller)
+    dao.setDefaultUri("http://localhost/EWS/Exchange.asmx")
+    server = MockWebServiceServer.createServer(dao)
+  }
+
+  @Test
+  def testTrackTogether() {
+    // item ids are searched for only once
+    for (id <- Seq("id1", "id2")) {
+      server.expect(xpath("//m:FindItem", Namespaces).exists())
+        .andRespond(withPayload(findItemResponse(id)))
+    }
+    for (i <- 1 to 2) {
+      server.expect(xpath("count(//m:GetItem//t:ItemId)", Namespaces).evaluatesTo(2))
+        .andRespond(withPayload(getItemResponse(Seq("id1" -> "Accept", "id2" -> "NoResponseReceived"))))
+    }
+    val expected = Map("uid1" -> Map(resource -> Accept), "uid2" -> Map(resource -> Unknown))
+    assertEquals(expected, dao.track(Set("uid1", "uid2")))
+    assertEquals(expected, dao.track(Set("uid1", "uid2")))
+    server.verify()
+  }
+
+  @Test
+  def testTrackNotFound() {
+    server.expect(xpath("//m:FindItem", Namespaces).exists())
+      .andRespond(withPayload(findItemResponse()))
+    assertEquals(Map.empty, dao.track(Set("uid")))
+    server.verify()
+  }
+
+  @Test
+  def testDeleteWithOutdatedId() {
+    server.expect(xpath("//m:FindItem", Namespaces).exists())
+      .andRespond(withPayload(findItemResponse("id1")))
+    server.expect(xpath("//m:GetItem", Namespaces).exists())
+      .andRespond(withPayload(getItemResponse(Seq("id1" -> "Accept"))))
+    // the cached id has changed in the meantime
+    server.expect(xpath("//m:DeleteItem//t:ItemId/@Id", Namespaces).evaluatesTo("id1"))
+      .andRespond(withPayload(deleteItemResponse("ErrorItemNotFound")))
+    server.expect(xpath("//m:FindItem", Namespaces).exists())
+      .andRespond(withPayload(findItemResponse("id2")))
+    server.expect(xpath("//m:DeleteItem//t:ItemId/@Id", Namespaces).evaluatesTo("id2"))
+      .andRespond(withPayload(deleteItemResponse("NoError")))
+    dao.track(Set("uid"))
+    dao.delete("uid")
+    server.verify()
+  }
+
+  @Test
+  def testDeleteFailed() {
+    server.expect(xpath("//m:FindItem", Namespaces).exists())
+      .andRespond(withPayload(findItemResponse("id1")))
+    server.expect(xpath("//m:GetItem", Namespaces).exists())
+      .andRespond(withPayload(getItemResponse(Seq("id1" -> "Accept"))))
+    // the id is fine, so the deletion is not repeated with a searched one
+    server.expect(xpath("//m:DeleteItem//t:ItemId/@Id", Namespaces).evaluatesTo("id1"))
+      .andRespond(withPayload(deleteItemResponse("ErrorAccessDenied")))
+    dao.track(Set("uid"))
+    try {
+      dao.delete("uid")
+      fail()
+    } catch {
+      case e: RuntimeException => assertTrue(e.getMessage.contains("ErrorAccessDenied"))
+    }
+    server.verify()
+  }
+
+  @Test
+  def testReadDeleted() {
+    server.expect(xpath("//m:FindItem", Namespaces).exists())
+      .andRespond(withPayload(findItemResponse("id1")))
+    server.expect(xpath("//m:GetItem", Namespaces).exists())
+      .andRespond(withPayload(getItemResponse(Seq("id1" -> "Accept"))))
+    // the item has been deleted since its id was cached
+    server.expect(xpath("//m:GetItem//t:ItemId/@Id", Namespaces).evaluatesTo("id1"))
+      .andRespond(withPayload(getItemResponse(Seq.empty)))
+    server.expect(xpath("//m:FindItem", Namespaces).exists())
+      .andRespond(withPayload(findItemResponse()))
+    dao.track(Set("uid"))
+    assertEquals(None, dao.read("uid"))
+    server.verify()
+  }
+
+  private def findItemResponse(ids: String*) = new StringSource(
+    <m:FindItemResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages"
+                        xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+      <m:ResponseMessages>
+        <m:FindItemResponseMessage ResponseClass="Success">
+          <m:ResponseCode>NoError</m:ResponseCode>
+          <m:RootFolder TotalItemsInView={ids.size.toString} IncludesLastItemInRange="true">
+            <t:Items>
+              {ids.map(id => <t:CalendarItem><t:ItemId Id={id}/></t:CalendarItem>)}
+            </t:Items>
+          </m:RootFolder>
+        </m:FindItemResponseMessage>
+      </m:ResponseMessages>
+    </m:FindItemResponse>.toString()
+  )
+
+  private def getItemResponse(items: Seq[(String, String)]) = new StringSource(
+    <m:GetItemResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages"
+                       xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+      <m:ResponseMessages>
+        {items.map {
+        case (id, response) =>
+          <m:GetItemResponseMessage ResponseClass="Success">
+            <m:ResponseCode>NoError</m:ResponseCode>
+            <m:Items>
+              <t:CalendarItem>
+                <t:ItemId Id={id}/>
+                <t:Resources>
+                  <t:Attendee>
+                    <t:Mailbox>
+                      <t:EmailAddress>{resource}</t:EmailAddress>
+                    </t:Mailbox>
+                    <t:ResponseType>{response}</t:ResponseType>
+                  </t:Attendee>
+                </t:Resources>
+              </t:CalendarItem>
+            </m:Items>
+          </m:GetItemResponseMessage>
+      }}
+      </m:ResponseMessages>
+    </m:GetItemResponse>.toString()
+  )
+
+  private def deleteItemResponse(code: String) = new StringSource(
+    <m:DeleteItemResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages">
+      <m:ResponseMessages>
+        <m:DeleteItemResponseMessage ResponseClass={if (code == "NoError") "Success" else "Error"}>
+          <m:MessageText>{code}</m:MessageText>
+          <m:ResponseCode>{code}</m:ResponseCode>
+        </m:DeleteItemResponseMessage>
+      </m:ResponseMessages>
+    </m:DeleteItemResponse>.toString()
+  )
+
+}
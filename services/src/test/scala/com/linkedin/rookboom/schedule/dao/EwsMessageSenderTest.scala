@@ -0,0 +1,115 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.{AfterMethod, BeforeMethod, Test}
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+import java.net.InetSocketAddress
+import org.apache.http.impl.conn.PoolingClientConnectionManager
+import org.apache.http.auth.NTCredentials
+import org.springframework.ws.client.core.WebServiceTemplate
+import org.springframework.xml.transform.{StringResult, StringSource}
+import scala.collection.mutable
+
+class EwsMessageSenderTest {
+
+  val Response = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body/></soap:Envelope>"
+
+  var server: HttpServer = _
+  var connectionManager: PoolingClientConnectionManager = _
+
+  // client ports of the received requests, every connection has its own port
+  val clientPorts = new mutable.ArrayBuffer[Int] with mutable.SynchronizedBuffer[Int]
+
+  @BeforeMethod
+  def init() {
+    clientPorts.clear()
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    server.createContext("/EWS/Exchange.asmx", new HttpHandler {
+      def handle(exchange: HttpExchange) {
+        clientPorts += exchange.getRemoteAddress.getPort
+        val body = Response.getBytes("UTF-8")
+        exchange.getResponseHeaders.add("Content-Type", "text/xml; charset=utf-8")
+        exchange.sendResponseHeaders(200, body.length)
+        exchange.getResponseBody.write(body)
+        exchange.close()
+      }
+    })
+    server.start()
+    connectionManager = new PoolingClientConnectionManager()
+  }
+
+  @AfterMethod
+  def tearDown() {
+    connectionManager.shutdown()
+    server.stop(0)
+  }
+
+  @Test
+  def testConnectionReused() {
+    val template = createTemplate("user")
+    for (i <- 1 to 3) {
+      send(template)
+    }
+    assertEquals(3, clientPorts.size)
+    assertEquals(1, clientPorts.distinct.size)
+  }
+
+  @Test
+  def testConnectionsSeparatedByUser() {
+    val template1 = createTemplate("user1")
+    val template2 = createTemplate("user2")
+    send(template1)
+    send(template2)
+    send(template1)
+    // a connection authenticated for one user is never used for another one
+    assertFalse(clientPorts(0) == clientPorts(1))
+    assertEquals(clientPorts(0), clientPorts(2))
+  }
+
+  @Test
+  def testWithCredentials() {
+    val template1 = createTemplate("user1")
+    val template2 = createTemplate(template1.getMessageSenders.head.asInstanceOf[EwsMessageSender]
+      .withCredentials(new NTCredentials("user2", "password", "", "DOMAIN")))
+    send(template1)
+    send(template2)
+    // the pool is shared, the connections are not
+    assertFalse(clientPorts(0) == clientPorts(1))
+    assertEquals(2, connectionManager.getTotalStats.getAvailable)
+  }
+
+  private def createTemplate(user: String): WebServiceTemplate = {
+    val sender = new EwsMessageSender(connectionManager)
+    sender.setCredentials(new NTCredentials(user, "password", "", "DOMAIN"))
+    sender.setReadTimeout(5000)
+    sender.afterPropertiesSet()
+    createTemplate(sender)
+  }
+
+  private def createTemplate(sender: EwsMessageSender): WebServiceTemplate = {
+    val template = new WebServiceTemplate()
+    template.setMessageSender(sender)
+    template.setDefaultUri("http://localhost:" + server.getAddress.getPort + "/EWS/Exchange.asmx")
+    template
+  }
+
+  private def send(template: WebServiceTemplate) {
+    template.sendSourceAndReceiveToResult(new StringSource("<GetItem/>"), new StringResult)
+  }
+
+}
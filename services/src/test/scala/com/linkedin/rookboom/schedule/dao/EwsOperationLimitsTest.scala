@@ -0,0 +1,65 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import java.util.concurrent.{TimeUnit, CountDownLatch}
+import scala.collection.JavaConverters._
+
+class EwsOperationLimitsTest {
+
+  val limits = new EwsOperationLimits(Map("GetItem" -> Int.box(1)).asJava, 2, 100)
+
+  @Test
+  def testLimitedOperation() {
+    val started = new CountDownLatch(1)
+    val release = new CountDownLatch(1)
+    val running = new Thread(new Runnable {
+      def run() {
+        limits("GetItem") {
+          started.countDown()
+          release.await(5, TimeUnit.SECONDS)
+        }
+      }
+    })
+    running.start()
+    assertTrue(started.await(5, TimeUnit.SECONDS))
+    try {
+      limits("GetItem")(fail("The limit is exceeded"))
+    } catch {
+      case e: IllegalStateException => // expected
+    }
+    // other operations are not affected
+    assertEquals("done", limits("CreateItem")("done"))
+    release.countDown()
+    running.join()
+    assertEquals("done", limits("GetItem")("done"))
+  }
+
+  @Test
+  def testPermitReleasedOnError() {
+    for (i <- 1 to 3) {
+      try {
+        limits("GetItem")(throw new RuntimeException)
+      } catch {
+        case e: RuntimeException => // expected
+      }
+    }
+    assertEquals("done", limits("GetItem")("done"))
+  }
+
+}
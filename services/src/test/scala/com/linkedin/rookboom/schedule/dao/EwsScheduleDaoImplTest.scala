@@ -0,0 +1,218 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import org.springframework.ws.test.client.MockWebServiceServer
+import org.springframework.ws.test.client.RequestMatchers._
+import org.springframework.ws.test.client.ResponseCreators._
+import org.springframework.xml.transform.StringSource
+import scala.collection.JavaConverters._
+import scala.xml.Unparsed
+import com.linkedin.rookboom.schedule.TimeSlot
+import com.linkedin.rookboom.util.TimeUtils._
+
+class EwsScheduleDaoImplTest {
+
+  val Namespaces = Map(
+    "m" -> "http://schemas.microsoft.com/exchange/services/2006/messages",
+    "t" -> "http://schemas.microsoft.com/exchange/services/2006/types"
+  ).asJava
+
+  var dao: EwsScheduleDaoImpl = _
+  var server: MockWebServiceServer = _
+
+  @BeforeMethod
+  def init() {
+    val marshaller = new PooledJaxb2Marshaller
+    marshaller.setContextPath("com.microsoft.exchange.messages:com.microsoft.exchange.types")
+    marshaller.afterPropertiesSet()
+    dao = new EwsScheduleDaoImpl
+    dao.setMarshaller(marshaller)
+    dao.setUnmarshaller(marshaller)
+    dao.setDefaultUri("http://localhost/EWS/Exchange.asmx")
+    server = MockWebServiceServer.createServer(dao)
+  }
+
+  @Test
+  def testInitialSync() {
+    server.expect(xpath("//m:SyncState", Namespaces).doesNotExist())
+      .andExpect(xpath("//t:AdditionalProperties", Namespaces).doesNotExist())
+      .andRespond(withPayload(syncResponse("state1", last = true, created("1"))))
+    // existing items are not changes
+    assertEquals(EwsSyncResult(Seq.empty, Seq.empty, "state1"), sync(None))
+    server.verify()
+  }
+
+  @Test
+  def testPagedSync() {
+    server.expect(xpath("//m:SyncState", Namespaces).evaluatesTo("state1"))
+      .andExpect(xpath("count(//t:AdditionalProperties/t:FieldURI)", Namespaces).evaluatesTo(4))
+      .andRespond(withPayload(syncResponse("state2", last = false, created("1") + created("2", "Free"))))
+    server.expect(xpath("//m:SyncState", Namespaces).evaluatesTo("state2"))
+      .andRespond(withPayload(syncResponse("state3", last = true, deleted("3") + updated("1", "RecurringMaster") + deleted("2"))))
+    val time = TimeSlot(10 * hour, 11 * hour)
+    val expected = EwsSyncResult(Seq(EwsCalendarItem("1", time, busy = true, recurring = true)), Seq("3", "2"), "state3")
+    assertEquals(expected, sync(Some("state1")))
+    server.verify()
+  }
+
+  @Test
+  def testSyncError() {
+    server.expect(xpath("//t:EmailAddress", Namespaces).evaluatesTo("room@linkedin.com"))
+      .andRespond(withPayload(errorResponse("ErrorInvalidSyncStateData")))
+    val result = dao.syncCalendars(Map("room@linkedin.com" -> Some("broken")))
+    assertTrue(result("room@linkedin.com").failed.get.isInstanceOf[IllegalStateException])
+  }
+
+  private def sync(syncState: Option[String]) = {
+    dao.syncCalendars(Map("room@linkedin.com" -> syncState))("room@linkedin.com").get
+  }
+
+  @Test
+  def testGetEventsAllChunks() {
+    dao.setAvailabilityParallelism(1)
+    // 2 mailbox groups in 2 time windows
+    val mailboxes = (1 to 101).map("room" + _ + "@linkedin.com").toSet
+    val time = TimeSlot(0, 63 * day)
+    for (window <- 1 to 2; groupSize <- Seq(100, 1)) {
+      server.expect(xpath("count(//t:MailboxData)", Namespaces).evaluatesTo(groupSize))
+        .andRespond(withPayload(availabilityResponse(groupSize)))
+    }
+    val events = dao.getEvents(mailboxes, time)
+    server.verify()
+    assertEquals(mailboxes, events.keySet)
+    // the same event is returned for both windows
+    assertTrue(events.values.forall(_.size == 1))
+  }
+
+  @Test
+  def testConvertIdThrottled() {
+    dao.setThrottlingBackOff(1)
+    server.expect(xpath("//m:ConvertId", Namespaces).exists())
+      .andRespond(withSoapEnvelope(serverBusyFault(10)))
+    server.expect(xpath("//m:ConvertId", Namespaces).exists())
+      .andRespond(withPayload(convertIdResponse("ews1")))
+    val id = EwsItemId("hex1", "room@linkedin.com")
+    assertEquals(Map(id -> EwsItemId("ews1", "room@linkedin.com")), dao.convertEventIds(Set(id)))
+    server.verify()
+  }
+
+  private def availabilityResponse(mailboxes: Int) = new StringSource(
+    <m:GetUserAvailabilityResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages"
+                                   xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+      <m:FreeBusyResponseArray>
+        {(1 to mailboxes).map(_ =>
+        <m:FreeBusyResponse>
+          <m:ResponseMessage ResponseClass="Success">
+            <m:ResponseCode>NoError</m:ResponseCode>
+          </m:ResponseMessage>
+          <m:FreeBusyView>
+            <t:FreeBusyViewType>Detailed</t:FreeBusyViewType>
+            <t:CalendarEventArray>
+              <t:CalendarEvent>
+                <t:StartTime>1970-03-03T10:00:00Z</t:StartTime>
+                <t:EndTime>1970-03-03T11:00:00Z</t:EndTime>
+                <t:BusyType>Busy</t:BusyType>
+              </t:CalendarEvent>
+            </t:CalendarEventArray>
+          </m:FreeBusyView>
+        </m:FreeBusyResponse>
+      )}
+      </m:FreeBusyResponseArray>
+    </m:GetUserAvailabilityResponse>.toString()
+  )
+
+  private def syncResponse(syncState: String, last: Boolean, changes: String) = new StringSource(
+    <m:SyncFolderItemsResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages"
+                               xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+      <m:ResponseMessages>
+        <m:SyncFolderItemsResponseMessage ResponseClass="Success">
+          <m:ResponseCode>NoError</m:ResponseCode>
+          <m:SyncState>{syncState}</m:SyncState>
+          <m:IncludesLastItemInRange>{last}</m:IncludesLastItemInRange>
+          <m:Changes>{Unparsed(changes)}</m:Changes>
+        </m:SyncFolderItemsResponseMessage>
+      </m:ResponseMessages>
+    </m:SyncFolderItemsResponse>.toString()
+  )
+
+  private def errorResponse(code: String) = new StringSource(
+    <m:SyncFolderItemsResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages">
+      <m:ResponseMessages>
+        <m:SyncFolderItemsResponseMessage ResponseClass="Error">
+          <m:MessageText>Sync failed</m:MessageText>
+          <m:ResponseCode>{code}</m:ResponseCode>
+        </m:SyncFolderItemsResponseMessage>
+      </m:ResponseMessages>
+    </m:SyncFolderItemsResponse>.toString()
+  )
+
+  private def convertIdResponse(id: String) = new StringSource(
+    <m:ConvertIdResponse xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages"
+                         xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types"
+                         xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance">
+      <m:ResponseMessages>
+        <m:ConvertIdResponseMessage ResponseClass="Success">
+          <m:ResponseCode>NoError</m:ResponseCode>
+          <m:AlternateId xsi:type="t:AlternateIdType" Format="EwsId" Id={id} Mailbox="room@linkedin.com"/>
+        </m:ConvertIdResponseMessage>
+      </m:ResponseMessages>
+    </m:ConvertIdResponse>.toString()
+  )
+
+  private def serverBusyFault(backOff: Long) = new StringSource(
+    <s:Envelope xmlns:s="http://schemas.xmlsoap.org/soap/envelope/">
+      <s:Body>
+        <s:Fault>
+          <faultcode xmlns:a="http://schemas.microsoft.com/exchange/services/2006/types">a:ErrorServerBusy</faultcode>
+          <faultstring xml:lang="en-US">The server cannot service this request right now. Try again later.</faultstring>
+          <detail>
+            <e:ResponseCode xmlns:e="http://schemas.microsoft.com/exchange/services/2006/errors">ErrorServerBusy</e:ResponseCode>
+            <t:MessageXml xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+              <t:Value Name="BackOffMilliseconds">{backOff}</t:Value>
+            </t:MessageXml>
+          </detail>
+        </s:Fault>
+      </s:Body>
+    </s:Envelope>.toString()
+  )
+
+  private def created(id: String, status: String = "Busy") = {
+    <t:Create>{calendarItem(id, status, "Single")}</t:Create>.toString()
+  }
+
+  private def updated(id: String, itemType: String) = {
+    <t:Update>{calendarItem(id, "Busy", itemType)}</t:Update>.toString()
+  }
+
+  private def calendarItem(id: String, status: String, itemType: String) = {
+    <t:CalendarItem xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+      <t:ItemId Id={id}/>
+      <t:Start>1970-01-01T10:00:00Z</t:Start>
+      <t:End>1970-01-01T11:00:00Z</t:End>
+      <t:LegacyFreeBusyStatus>{status}</t:LegacyFreeBusyStatus>
+      <t:CalendarItemType>{itemType}</t:CalendarItemType>
+    </t:CalendarItem>
+  }
+
+  private def deleted(id: String) = {
+    "<t:Delete><t:ItemId Id=\"" + id + "\"/></t:Delete>"
+  }
+
+}
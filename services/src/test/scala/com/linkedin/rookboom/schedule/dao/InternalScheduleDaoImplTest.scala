@@ -0,0 +1,89 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import com.linkedin.rookboom.util.TimeUtils._
+import java.text.SimpleDateFormat
+import InternalScheduleDaoImpl._
+
+class InternalScheduleDaoImplTest {
+
+  @Test
+  def testNextMonth() {
+    assertEquals(toUtcTime("2014-10-01 00:00"), nextMonth(toUtcTime("2014-09-17 13:45")))
+    assertEquals(toUtcTime("2014-10-01 00:00"), nextMonth(toUtcTime("2014-09-01 00:00")))
+    assertEquals(toUtcTime("2015-01-01 00:00"), nextMonth(toUtcTime("2014-12-31 23:59")))
+  }
+
+  @Test
+  def testPartitionName() {
+    // a partition is named after the month it takes the events of
+    assertEquals("p201409", partitionName(toUtcTime("2014-10-01 00:00")))
+    assertEquals("p201412", partitionName(toUtcTime("2015-01-01 00:00")))
+  }
+
+  @Test
+  def testPartitionBound() {
+    assertEquals(Some(1412121600000L), partitionBound("1412121600000"))
+    assertEquals(None, partitionBound("MAXVALUE"))
+  }
+
+  @Test
+  def testNewPartitionBounds() {
+    val partitions = Seq("p201409" -> Some(toUtcTime("2014-10-01 00:00")), MaxPartition -> None)
+    val now = toUtcTime("2014-09-17 13:45")
+    // partitions are added up to the end of the month
+    assertEquals(Seq(toUtcTime("2014-11-01 00:00"), toUtcTime("2014-12-01 00:00")),
+      newPartitionBounds(partitions, toUtcTime("2014-11-15 00:00"), now))
+    assertEquals(Seq.empty, newPartitionBounds(partitions, toUtcTime("2014-09-30 00:00"), now))
+    // the first monthly partition takes the events until the end of the current month
+    assertEquals(Seq(toUtcTime("2014-10-01 00:00")), newPartitionBounds(Seq(MaxPartition -> None), now, now))
+    // a table partitioned some other way is left alone
+    assertEquals(Seq.empty, newPartitionBounds(Seq("p0" -> Some(0L)), toUtcTime("2014-11-15 00:00"), now))
+  }
+
+  @Test
+  def testAddPartitionsSql() {
+    val sql = addPartitionsSql(Seq(toUtcTime("2014-11-01 00:00"), toUtcTime("2014-12-01 00:00")))
+    assertEquals("ALTER TABLE event REORGANIZE PARTITION pmax INTO (" +
+      "PARTITION p201410 VALUES LESS THAN (1414800000000), " +
+      "PARTITION p201411 VALUES LESS THAN (1417392000000), " +
+      "PARTITION pmax VALUES LESS THAN MAXVALUE)", sql)
+  }
+
+  @Test
+  def testDropPartitions() {
+    val partitions = Seq(
+      "p201408" -> Some(toUtcTime("2014-09-01 00:00")),
+      "p201409" -> Some(toUtcTime("2014-10-01 00:00")),
+      MaxPartition -> None
+    )
+    // a partition is dropped once all its events are expired
+    assertEquals(Seq("p201408"), expiredPartitions(partitions, toUtcTime("2014-09-30 00:00")))
+    assertEquals(Seq("p201408", "p201409"), expiredPartitions(partitions, toUtcTime("2014-10-01 00:00")))
+    assertEquals("ALTER TABLE event DROP PARTITION p201408, p201409", dropPartitionsSql(Seq("p201408", "p201409")))
+  }
+
+  private def toUtcTime(timeStr: String): Long = {
+    val dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm")
+    dateFormat.setTimeZone(utc)
+    dateFormat.parse(timeStr).getTime
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.schedule.dao
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import javax.xml.namespace.QName
+import com.microsoft.exchange.messages.{GetItemType, ObjectFactory => MessageObjectFactory}
+import com.microsoft.exchange.types.{ProxySecurityContextType, TimeZoneContextType, ObjectFactory => TypeObjectFactory}
+
+class JaxbElementRegistryTest {
+
+  val registry = new JaxbElementRegistry(classOf[MessageObjectFactory], classOf[TypeObjectFactory])
+
+  @Test
+  def testWrapRequest() {
+    val request = new GetItemType
+    val element = registry.wrap(request)
+    assertEquals(new QName("http://schemas.microsoft.com/exchange/services/2006/messages", "GetItem"), element.getName)
+    assertEquals(classOf[GetItemType], element.getDeclaredType)
+    assertSame(request, element.getValue)
+  }
+
+  @Test
+  def testWrapHeader() {
+    val element = registry.wrap(new TimeZoneContextType)
+    assertEquals(new QName("http://schemas.microsoft.com/exchange/services/2006/types", "TimeZoneContext"), element.getName)
+  }
+
+  @Test(expectedExceptions = Array(classOf[IllegalArgumentException]))
+  def testWrapAmbiguous() {
+    // declared as several elements
+    registry.wrap(new ProxySecurityContextType)
+  }
+
+  @Test(expectedExceptions = Array(classOf[IllegalArgumentException]))
+  def testWrapUnknown() {
+    registry.wrap("not an element")
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.user
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.{BeforeMethod, Test}
+import javax.naming.directory.{BasicAttributes, Attributes}
+import scala.collection.mutable
+import com.linkedin.rookboom.util.LdapPagedSearch
+
+class LdapUserManagerTest {
+
+  var directory: FakeDirectory = _
+
+  var userManager: LdapUserManager = _
+
+  @BeforeMethod
+  def init() {
+    directory = new FakeDirectory("uSNChanged")
+    directory.putUser("cn=john", "John Smith", "jsmith", 1)
+    directory.putUser("cn=bob", "Bob Johnson", "bob", 2)
+    directory.putGroup("cn=team", "Team", "team", 3)
+    userManager = new LdapUserManager(directory, "users", "(objectclass=person)", "groups", "(objectclass=group)", "uSNChanged")
+    userManager.reload()
+  }
+
+  @Test
+  def testReload() {
+    assertEquals(Set("John Smith", "Bob Johnson"), userManager.getUsers.map(_.displayName).toSet)
+    assertEquals(Some("Team"), userManager.getGroupByAddress("team@linkedin.com").map(_.displayName))
+    assertEquals(Seq("(objectclass=person)", "(objectclass=group)"), directory.filters)
+  }
+
+  @Test
+  def testRefresh() {
+    directory.putUser("cn=john", "John Smith Jr", "jsmith", 4)
+    directory.putUser("cn=ann", "Ann Lee", "alee", 5)
+    directory.filters.clear()
+    userManager.refresh()
+    // only the changes are requested
+    assertEquals(Seq("(&(uSNChanged>=3)(objectclass=person))", "(&(uSNChanged>=3)(objectclass=group))"), directory.filters)
+    assertEquals(Some("John Smith Jr"), userManager.getUserByAccount("jsmith").map(_.displayName))
+    assertEquals(None, userManager.getUserByName("John Smith"))
+    assertEquals(Some("alee"), userManager.getUserByAddress("alee@linkedin.com").map(_.account))
+    assertEquals(3, userManager.getUsers.size)
+    assertEquals(Seq("alee@linkedin.com"), userManager.search("ann", SearchField.All, 10).map(_.address))
+    // the next refresh starts from the latest change
+    directory.filters.clear()
+    userManager.refresh()
+    assertEquals("(&(uSNChanged>=5)(objectclass=person))", directory.filters.head)
+  }
+
+  @Test
+  def testRefreshChangeTime() {
+    directory = new FakeDirectory("whenChanged")
+    directory.putUser("cn=john", "John Smith", "jsmith", "20140301100000.0Z")
+    directory.putGroup("cn=team", "Team", "team", "20140301110000.0Z")
+    userManager = new LdapUserManager(directory, "users", "(objectclass=person)", "groups", "(objectclass=group)")
+    userManager.reload()
+    // replicated late, it is older than the latest change seen
+    directory.putUser("cn=ann", "Ann Lee", "alee", "20140301105800.0Z")
+    directory.filters.clear()
+    userManager.refresh()
+    assertEquals("(&(whenChanged>=20140301105500.0Z)(objectclass=person))", directory.filters.head)
+    assertEquals(Some("Ann Lee"), userManager.getUserByAddress("alee@linkedin.com").map(_.displayName))
+  }
+
+  @Test
+  def testRefreshChangedAddress() {
+    directory.putUser("cn=bob", "Bob Johnson", "robert", 4)
+    userManager.refresh()
+    assertEquals(None, userManager.getUserByAddress("bob@linkedin.com"))
+    assertEquals(Some("Bob Johnson"), userManager.getUserByAddress("robert@linkedin.com").map(_.displayName))
+    assertEquals(2, userManager.getUsers.size)
+  }
+
+  @Test
+  def testRefreshUnmapped() {
+    // an entry without an address is not a user any more
+    val attributes = new BasicAttributes(true)
+    attributes.put("samaccountname", "jsmith")
+    attributes.put("displayName", "John Smith")
+    attributes.put("uSNChanged", "4")
+    directory.entries("users")("cn=john") = attributes
+    userManager.refresh()
+    assertEquals(None, userManager.getUserByAccount("jsmith"))
+    assertEquals(Seq("bob@linkedin.com"), userManager.getUsers.map(_.address))
+  }
+
+}
+
+/**
+ * A directory serving entries from memory, it only understands the change number part of the filters.
+ */
+class FakeDirectory(changeAttribute: String) extends LdapPagedSearch(null) {
+
+  val entries = Map("users" -> mutable.LinkedHashMap.empty[String, Attributes], "groups" -> mutable.LinkedHashMap.empty[String, Attributes])
+
+  val filters = mutable.Buffer.empty[String]
+
+  private val ChangeFilter = (".*\\(" + changeAttribute + ">=([^)]+)\\).*").r
+
+  // numbers and generalized times, the same way the directory compares them
+  private val ChangeOrdering = Ordering.by((change: String) => (change.length, change))
+
+  def putUser(dn: String, name: String, account: String, change: Any) {
+    val attributes = new BasicAttributes(true)
+    attributes.put("samaccountname", account)
+    attributes.put("mail", account + "@linkedin.com")
+    attributes.put("displayName", name)
+    attributes.put(changeAttribute, change.toString)
+    entries("users")(dn) = attributes
+  }
+
+  def putGroup(dn: String, name: String, address: String, change: Any) {
+    val attributes = new BasicAttributes(true)
+    attributes.put("mail", address + "@linkedin.com")
+    attributes.put("displayName", name)
+    attributes.put(changeAttribute, change.toString)
+    entries("groups")(dn) = attributes
+  }
+
+  override def search(base: String, filter: String, attributes: Set[String])(handle: (String, Attributes) => Unit) = {
+    filters += filter
+    val since = filter match {
+      case ChangeFilter(change) => Some(change)
+      case _ => None
+    }
+    val found = entries(base).filter(e => since.forall(ChangeOrdering.gteq(e._2.get(changeAttribute).get.toString, _)))
+    found.foreach(e => handle(e._1, e._2))
+    found.size
+  }
+
+}
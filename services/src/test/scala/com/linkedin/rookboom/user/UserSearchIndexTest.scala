@@ -0,0 +1,77 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.user
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+
+class UserSearchIndexTest {
+
+  val john = User("John Smith", "jsmith@linkedin.com", "jsmith")
+  val johanna = User("Johanna Jones", "jjones@linkedin.com", "jjones")
+  val bob = User("Bob Johnson", "bob@linkedin.com", "bob")
+  val jose = User("José Alvarez", "jalvarez@linkedin.com", "jalvarez")
+  val group = Group("Search Team", "search-team@linkedin.com")
+
+  val index = new UserSearchIndex(Seq(john, johanna, bob, jose), Seq(group))
+
+  @Test
+  def testPrefixes() {
+    assertEquals(names("JOH"), Seq("Johanna Jones", "John Smith", "Bob Johnson"))
+    // every word of a query has to match
+    assertEquals(names("john smi"), Seq("John Smith"))
+    // words are matched from the beginning only
+    assertEquals(names("ohn"), Seq.empty)
+    // longer words than the indexed prefixes
+    assertEquals(names("johnson"), Seq("Bob Johnson"))
+  }
+
+  @Test
+  def testAddresses() {
+    assertEquals(names("search-team@"), Seq("Search Team"))
+    assertEquals(names("linkedin.com").size, 5)
+    assertEquals(index.search("jsm", SearchField.Name, 10), Seq.empty)
+    assertEquals(index.search("jsm", SearchField.Email, 10).map(_.address), Seq("jsmith@linkedin.com"))
+    assertEquals(index.search("smith", SearchField.Name, 10).map(_.address), Seq("jsmith@linkedin.com"))
+  }
+
+  @Test
+  def testNormalization() {
+    assertEquals(names("jose"), Seq("José Alvarez"))
+    assertEquals(names("JOSÉ"), Seq("José Alvarez"))
+    assertEquals(names("  "), Seq.empty)
+  }
+
+  @Test
+  def testRanking() {
+    // the name prefix first, then the address prefix, then name words, then the rest
+    assertEquals(names("j"), Seq("Johanna Jones", "John Smith", "José Alvarez", "Bob Johnson"))
+    // the recently used first among equal matches
+    val lastUsed = Map("jsmith@linkedin.com" -> 100L, "bob@linkedin.com" -> 200L).withDefaultValue(0L)
+    assertEquals(index.search("j", SearchField.All, 10, lastUsed).map(_.displayName),
+      Seq("John Smith", "Johanna Jones", "José Alvarez", "Bob Johnson"))
+  }
+
+  @Test
+  def testLimit() {
+    assertEquals(index.search("j", SearchField.All, 2).map(_.displayName), Seq("Johanna Jones", "John Smith"))
+    assertEquals(index.search("j", SearchField.All, 0), Seq.empty)
+  }
+
+  private def names(query: String) = index.search(query, SearchField.All, 10).map(_.displayName)
+
+}
@@ -27,9 +27,24 @@ var DustTools = {
             }
         )
         return ''
+    },
+
+    stream: function(name, model, writer) {
+        // the output is written chunk by chunk as the template is rendered
+        var stream = new dust.Stream()
+        stream.on('data', function(data) {
+            writer.write(data)
+        })
+        stream.on('error', function(err) {
+            writer.write(String(err))
+        })
+        dust.load(name, stream.head, dust.makeBase({}).push(model)).end()
+        return ''
     }
 };
 
 dust.filters.json = function(value) {
-    return JSON.stringify(value);
+    // model objects are serialized on the Java side
+    var json = value && typeof value === 'object' ? DustModel.toJson(value) : null;
+    return json != null ? String(json) : JSON.stringify(value);
 };
@@ -23,11 +23,13 @@ import org.springframework.web.bind.annotation.{RequestMapping, RequestParam}
 import com.linkedin.rookboom.schedule._
 import com.linkedin.rookboom.layout.LayoutManager
 import java.security.Principal
+import javax.servlet.http.HttpServletResponse
 import java.io.StringWriter
 import collection.JavaConverters._
 
 /**
  * Serves meetings booking requests.
+ * Booking operations are asynchronous: a request returns the id of a job, which outcome is then polled for.
  * @author Dmitriy Yefremov
  */
 @Controller
@@ -60,8 +62,8 @@ class BookingController extends ExceptionResolver {
     val timeZone = layoutManager.getLayout(location).get.timezone
     val slot = TimeSlot(from, to)
     val repetition = RepetitionHelper.getRepetition(slot, repPattern, repInterval, repDay, repWeek, repAfter, repBy)
-    bookingService.book(principal.getName, slot, timeZone, subject, getBody(body), meetingLocation, resources.toSet,
-      requiredAttendees.toSet, optionalAttendees.toSet, repetition)
+    val jobId = bookingService.book(principal.getName, slot, timeZone, subject, getBody(body), meetingLocation,
+      resources.toSet, requiredAttendees.toSet, optionalAttendees.toSet, repetition)
     val room = if (resources.isEmpty) {
       None
     } else {
@@ -70,6 +72,7 @@ class BookingController extends ExceptionResolver {
 
     Map(
       "success" -> true,
+      "job" -> jobId,
       "room" -> room
     ).asJava
   }
@@ -78,13 +81,35 @@ class BookingController extends ExceptionResolver {
   def handleCancel(principal: Principal,
                    @RequestParam("id") appointmentId: Long) = {
 
-    bookingService.cancel(appointmentId)
+    val jobId = bookingService.cancel(appointmentId)
 
     Map(
-      "success" -> true
+      "success" -> true,
+      "job" -> jobId
     ).asJava
   }
 
+  @RequestMapping(Array("status"))
+  def handleStatus(principal: Principal,
+                   @RequestParam("job") jobId: String,
+                   response: HttpServletResponse) = {
+
+    // other users' jobs are reported the same way as the unknown ones
+    bookingService.getJob(jobId, principal.getName) match {
+      case Some(job) => Map(
+        "success" -> true,
+        "status" -> job.status.toString.toLowerCase,
+        "error" -> job.error.orNull
+      ).asJava
+      case None =>
+        response.setStatus(HttpServletResponse.SC_NOT_FOUND)
+        Map(
+          "success" -> false,
+          "error" -> "Unknown booking operation"
+        ).asJava
+    }
+  }
+
   private def getBody(body: String) = {
     val writer = new StringWriter()
     dustEngineFactory.getEngine.render("appointment_body", Map("text" -> body, "url" -> rookboomUrl), writer)
@@ -0,0 +1,38 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.web
+
+import org.springframework.stereotype.Controller
+import org.springframework.web.bind.annotation.RequestMapping
+import javax.servlet.http.HttpServletResponse
+import com.linkedin.rookboom.metrics.Metrics
+import com.linkedin.rookboom.util.JsonUtils
+
+/**
+ * Serves the current values of all the metrics as JSON, whatever format is requested.
+ */
+@Controller
+@RequestMapping(Array("metrics"))
+class MetricsController {
+
+  @RequestMapping
+  def handle(response: HttpServletResponse) {
+    response.setContentType(JsonView.ContentTypeJson)
+    JsonUtils.serialize(Metrics.registry.snapshot, response.getOutputStream)
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.web
+
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter
+import org.springframework.web.method.HandlerMethod
+import javax.servlet.http.{HttpServletResponse, HttpServletRequest}
+import com.linkedin.rookboom.metrics.Metrics
+import scala.compat.Platform
+
+/**
+ * Records the latency of every controller method, rendering of the view included.
+ */
+class MetricsInterceptor extends HandlerInterceptorAdapter {
+
+  import MetricsInterceptor._
+
+  override def preHandle(request: HttpServletRequest, response: HttpServletResponse, handler: AnyRef) = {
+    request.setAttribute(StartAttribute, Platform.currentTime)
+    true
+  }
+
+  override def afterCompletion(request: HttpServletRequest, response: HttpServletResponse, handler: AnyRef, ex: Exception) {
+    (handler, request.getAttribute(StartAttribute)) match {
+      case (method: HandlerMethod, start: java.lang.Long) =>
+        val name = "web." + method.getBeanType.getSimpleName + "." + method.getMethod.getName
+        Metrics.histogram(name).update(Platform.currentTime - start)
+      case _ =>
+    }
+  }
+
+}
+
+object MetricsInterceptor {
+
+  /**
+   * The name of the request attribute keeping the time the request handling has started.
+   */
+  val StartAttribute = classOf[MetricsInterceptor].getName + ".start"
+
+}
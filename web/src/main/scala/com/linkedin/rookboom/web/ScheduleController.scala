@@ -27,19 +27,23 @@ import compat.Platform
 import com.linkedin.rookboom.schedule.TimeSlot
 import com.linkedin.rookboom.schedule.TimeMask
 import com.linkedin.rookboom.layout.Room
-import java.util.{Date, TimeZone}
-import java.text.SimpleDateFormat
+import java.util.TimeZone
 import com.linkedin.rookboom.util.TimeUtils
+import org.springframework.web.context.request.WebRequest
 
 
 case class ScheduleRecord(room: Room, schedule: Seq[AvailabilityRecord])
 
 case class AvailabilityRecord(from: Long, to: Long, busy: Boolean, eventId: Int = 0)
 
+case class CompactScheduleRecord(room: Room, busy: Seq[Int], events: Seq[Int])
+
 @Controller
 @RequestMapping(Array("schedule"))
 class ScheduleController extends ExceptionResolver {
 
+  import ScheduleController._
+
   @Autowired
   val scheduleManager: ScheduleManager = null
 
@@ -52,6 +56,15 @@ class ScheduleController extends ExceptionResolver {
   @Autowired
   val userManager: UserManager = null
 
+  @Autowired
+  val roomFinder: RoomFinder = null
+
+  @Autowired
+  val scheduleVersions: ScheduleVersions = null
+
+  @Autowired
+  val scheduleWarmer: ScheduleWarmer = null
+
   @RequestMapping
   def getSchedule(@RequestParam(value = "day", defaultValue = "0") fromParam: Long,
                   @RequestParam(value = "timeframe", defaultValue = "Day") timeframe: String,
@@ -61,7 +74,9 @@ class ScheduleController extends ExceptionResolver {
                   @RequestParam(value = "repDays", defaultValue = "") repDay: Array[String],
                   @RequestParam(value = "repWeek", defaultValue = "") repWeek: String,
                   @RequestParam(value = "repAfter", defaultValue = "0") repAfter: Int,
-                  @RequestParam(value = "repBy", defaultValue = "0") repBy: Long) = {
+                  @RequestParam(value = "repBy", defaultValue = "0") repBy: Long,
+                  @RequestParam(value = "view", defaultValue = "full") view: String,
+                  request: WebRequest) = {
 
     val layout = layoutManager.getLayout(location).get
 
@@ -69,24 +84,23 @@ class ScheduleController extends ExceptionResolver {
     val repetition = RepetitionHelper.getRepetition(originalSlot, repPattern, repInterval, repDay, repWeek, repAfter, repBy)
     val slot = repetition match {
       case None => originalSlot
-      case Some(rep) => rep.toOccurrences(originalSlot.begin, layout.timezone).head
+      case Some(rep) => rep.firstOccurrence(originalSlot.begin, layout.timezone)
     }
 
     val roomByEmail = layout.rooms.map(r => (r.email, r)).toMap
     val emails = roomByEmail.keySet
     val mask = timeMaskManager.getMask(slot.begin, Timeframe.withName(timeframe))
 
-    val schedule = loadSchedule(emails, slot, repetition, layout.timezone)
+    // popular schedules are kept in cache
+    scheduleWarmer.record(layout.id, slot)
 
-    val fullSchedule = schedule.map { case (email, events) => 
-      ScheduleRecord(roomByEmail(email), convertSchedule(email, events, mask))
+    val times = scheduleTimes(slot, repetition, layout.timezone)
+    val version = scheduleVersions.version(emails, times)
+    if (request.checkNotModified(eTag(request, scheduleVersions.epoch, version, emails, slot))) {
+      null
+    } else {
+      scheduleResponse(roomByEmail, loadSchedule(emails, repetition, times), slot, mask, view).asJava
     }
-
-    val allEvents = schedule.map { case (email, events) =>
-      events.map(e => (email, e))
-    }.flatten.map(p => (p.hashCode(), p._2)).toMap
-
-    Map("day" -> slot.begin, "schedule" -> fullSchedule, "events" -> allEvents).asJava
   }
 
   @RequestMapping(Array("rep-info"))
@@ -106,12 +120,12 @@ class ScheduleController extends ExceptionResolver {
     val result = repetition match {
       case None => Map.empty
       case Some(rep) =>
-        rep.toOccurrences(slot.begin, layout.timezone).toList match {
-          case some :: tail => Map(
+        rep.occurrences(slot.begin, layout.timezone).toStream.headOption match {
+          case Some(first) => Map(
             "description" -> repetitionDescription(rep, layout.timezone),
-            "first" -> some.begin
+            "first" -> first.begin
           )
-          case _ => Map.empty
+          case None => Map.empty
         }
     }
 
@@ -136,7 +150,7 @@ class ScheduleController extends ExceptionResolver {
     val zone = timeZone(location)
     val slot = repetition match {
       case None => originalSlot
-      case Some(rep) => rep.toOccurrences(originalSlot.begin, zone).head
+      case Some(rep) => rep.firstOccurrence(originalSlot.begin, zone)
     }
     val mask = timeMaskManager.getMask(slot.begin, Timeframe.withName(timeframe))
     userSchedules(Set(email), slot, mask, repetition, zone).head.asJava
@@ -152,23 +166,48 @@ class ScheduleController extends ExceptionResolver {
                @RequestParam(value = "repDays", defaultValue = "") repDay: Array[String],
                @RequestParam(value = "repWeek", defaultValue = "") repWeek: String,
                @RequestParam(value = "repAfter", defaultValue = "0") repAfter: Int,
-               @RequestParam(value = "repBy", defaultValue = "0") repBy: Long) = {
+               @RequestParam(value = "repBy", defaultValue = "0") repBy: Long,
+               request: WebRequest) = {
     val originalSlot = timeSlot(fromParam)
     val repetition = RepetitionHelper.getRepetition(originalSlot, repPattern, repInterval, repDay, repWeek, repAfter, repBy)
     val zone = timeZone(location)
     val slot = repetition match {
       case None => originalSlot
-      case Some(rep) => rep.toOccurrences(originalSlot.begin, zone).head
+      case Some(rep) => rep.firstOccurrence(originalSlot.begin, zone)
     }
     val mask = timeMaskManager.getMask(slot.begin, Timeframe.withName(timeframe))
-    Map("day" -> slot.begin, "result" -> userSchedules(emails.toSet, slot, mask, repetition, zone)).asJava
+    val version = scheduleVersions.version(emails.toSet, scheduleTimes(slot, repetition, zone))
+    // user schedules come from Exchange, they may change without a new version
+    val period = Platform.currentTime / UserScheduleLifetime
+    if (request.checkNotModified(eTag(request, scheduleVersions.epoch, version, emails.toSet, slot, period))) {
+      null
+    } else {
+      Map("day" -> slot.begin, "result" -> userSchedules(emails.toSet, slot, mask, repetition, zone)).asJava
+    }
+  }
+
+  @RequestMapping(Array("find"))
+  def findRooms(@RequestParam("from") from: Long,
+                @RequestParam("to") to: Long,
+                @RequestParam("duration") durationMinutes: Int,
+                @RequestParam(value = "capacity", defaultValue = "0") capacity: Int,
+                @RequestParam(value = "location", defaultValue = "") location: String) = {
+    val layout = if (location.isEmpty) None else Some(location)
+    val query = RoomQuery(TimeSlot(from, to), durationMinutes * TimeUtils.minute, capacity, layout)
+    Map("rooms" -> roomFinder.findRooms(query)).asJava
   }
 
   @RequestMapping(Array("timemask"))
   def getTimeMask(@RequestParam(value = "day", defaultValue = "0") from: Long,
-                  @RequestParam(value = "timeframe", defaultValue = "Day") timeframe: String) = {
-    val mask = timeMaskManager.getMask(from, Timeframe.withName(timeframe))
-    Map("day" -> from, "timeMask" -> mask).asJava
+                  @RequestParam(value = "timeframe", defaultValue = "Day") timeframe: String,
+                  request: WebRequest) = {
+    // time masks depend on the parameters only
+    if (request.checkNotModified(eTag(request, scheduleVersions.epoch, 0))) {
+      null
+    } else {
+      val mask = timeMaskManager.getMask(from, Timeframe.withName(timeframe))
+      Map("day" -> from, "timeMask" -> mask).asJava
+    }
   }
 
 
@@ -178,7 +217,7 @@ class ScheduleController extends ExceptionResolver {
 
     val usersSchedule = grouped.get(true) match {
       case None => List.empty
-      case Some(users) => loadSchedule(users, slot, repetition, timeZone).map{ case (email, events) =>
+      case Some(users) => loadSchedule(users, repetition, scheduleTimes(slot, repetition, timeZone)).map{ case (email, events) =>
         val sch = convertSchedule(email, events, mask)
         Map("schedule" -> sch, "user" -> userManager.getUserByAddress(email))
       }.toList
@@ -195,26 +234,45 @@ class ScheduleController extends ExceptionResolver {
     usersSchedule ::: groupsSchedule
   }
 
-  private def loadSchedule(emails: Set[String], slot: TimeSlot, repetition: Option[Repetition], timeZone: TimeZone): Map[String, Seq[Event]] = {
-    repetition match {
-      case None => scheduleManager.getSchedule(emails, slot)
-      case Some(rep) =>
-        val times = rep.toOccurrences(slot.begin, timeZone)
-        scheduleManager.getSchedule(emails, times)
+  private def scheduleResponse(roomByEmail: Map[String, Room], schedule: Map[String, Seq[Event]], slot: TimeSlot, mask: TimeMask, view: String) = {
+    if (view == CompactView) {
+      // busy frames as bitmasks and events referenced by index
+      val compact = CompactSchedule(schedule, mask)
+      val compactSchedule = compact.records.map { case (email, record) =>
+        CompactScheduleRecord(roomByEmail(email), record.busy, record.events)
+      }
+      Map("day" -> slot.begin, "timeMask" -> mask, "schedule" -> compactSchedule, "events" -> compact.events)
+    } else {
+      val fullSchedule = schedule.map { case (email, events) =>
+        ScheduleRecord(roomByEmail(email), convertSchedule(email, events, mask))
+      }
+
+      val allEvents = schedule.map { case (email, events) =>
+        events.map(e => (email, e))
+      }.flatten.map(p => (p.hashCode(), p._2)).toMap
+
+      Map("day" -> slot.begin, "schedule" -> fullSchedule, "events" -> allEvents)
     }
   }
 
-  private def convertSchedule(email: String, events: Seq[Event], mask: TimeMask): Seq[AvailabilityRecord] = {
-    mask.frames.map { frame =>
-      val slot = TimeSlot(frame + 1, frame + mask.interval - 1)
-      val eventOption = events.find(_.time.overlaps(slot))
-      val id = eventOption.fold(0)(eventId(email, _))
-      AvailabilityRecord(frame, frame + mask.interval, busy = eventOption.isDefined, id)
+  private def loadSchedule(emails: Set[String], repetition: Option[Repetition], times: Seq[TimeSlot]): Map[String, Seq[Event]] = {
+    repetition match {
+      case None => scheduleManager.getSchedule(emails, times.head)
+      case Some(_) => scheduleManager.getSchedule(emails, times)
     }
   }
 
-  private def eventId(email: String, event: Event): Int = {
-    (email, event).hashCode()
+  /**
+   * Returns the time slots a schedule is loaded for: the slot itself or the occurrences of the repetition.
+   */
+  private def scheduleTimes(slot: TimeSlot, repetition: Option[Repetition], timeZone: TimeZone): Seq[TimeSlot] = {
+    repetition match {
+      case None => Seq(slot)
+      case Some(rep) =>
+        // occurrences too far in the future are not taken into account
+        val horizon = TimeSlot(slot.begin, slot.begin + RepetitionHorizon)
+        rep.occurrences(slot.begin, timeZone, horizon).toList
+    }
   }
 
   private def timeSlot(fromParam: Long): TimeSlot = {
@@ -230,10 +288,8 @@ class ScheduleController extends ExceptionResolver {
   private def repetitionDescription(rep: Repetition, timeZone: TimeZone): String = {
 
     def formatStart = {
-      val timeFormatter = new SimpleDateFormat("MM/dd/yyyy")
-      timeFormatter.setTimeZone(timeZone)
       val first = rep.pattern.first(rep.slot.begin, rep.slot.begin, timeZone)
-      timeFormatter.format(new Date(first))
+      RepetitionFormat.formatDate(first, timeZone)
     }
 
     "%s, effective %s, stop %s".format(
@@ -245,3 +301,54 @@ class ScheduleController extends ExceptionResolver {
 
   private def timeZone(location: String): TimeZone = layoutManager.getLayout(location).get.timezone
 }
+
+object ScheduleController {
+
+  /**
+   * How far ahead occurrences of a repetition are checked for availability.
+   */
+  val RepetitionHorizon = 365 * TimeUtils.day
+
+  /**
+   * Schedule view with busy bitmasks instead of availability records. The view isn't selected with the "format"
+   * parameter, it chooses the content type already.
+   */
+  val CompactView = "compact"
+
+  /**
+   * How long a user schedule response may be reused.
+   */
+  val UserScheduleLifetime = TimeUtils.minute
+
+  /**
+   * Builds an entity tag of a response. It is different for every schedule version, every set of request parameters
+   * (including the padded JSON callback) and every accepted content type.
+   * @param request the request
+   * @param epoch epoch of the schedule versions
+   * @param version schedule version
+   * @param parts anything else the response depends on
+   * @return entity tag
+   */
+  def eTag(request: WebRequest, epoch: Long, version: Long, parts: Any*): String = {
+    val params = request.getParameterMap.asScala.mapValues(_.toSeq).toMap
+    val hash = (params, request.getHeader("Accept"), parts).hashCode
+    "\"%x-%x-%x\"".format(epoch, version, hash)
+  }
+
+  /**
+   * Converts events into availability records of the time mask frames.
+   */
+  def convertSchedule(email: String, events: Seq[Event], mask: TimeMask): Seq[AvailabilityRecord] = {
+    mask.frames.map { frame =>
+      val slot = TimeSlot(frame + 1, frame + mask.interval - 1)
+      val eventOption = events.find(_.time.overlaps(slot))
+      val id = eventOption.fold(0)(eventId(email, _))
+      AvailabilityRecord(frame, frame + mask.interval, busy = eventOption.isDefined, id)
+    }
+  }
+
+  private def eventId(email: String, event: Event): Int = {
+    (email, event).hashCode()
+  }
+
+}
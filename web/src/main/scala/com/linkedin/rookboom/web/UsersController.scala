@@ -20,8 +20,7 @@ import org.springframework.stereotype.Controller
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.web.bind.annotation.{RequestParam, RequestMapping}
 import collection.JavaConversions._
-import com.linkedin.rookboom.user.UserManager
-import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.user.{SearchField, UserManager}
 
 @Controller
 @RequestMapping(Array("users"))
@@ -34,23 +33,26 @@ class UsersController extends ExceptionResolver {
 
   @RequestMapping(Array("/search"))
   def search(@RequestParam(value = "query") query: String,
-             @RequestParam(value = "search", defaultValue = "all") search: String) = {
+             @RequestParam(value = "search", defaultValue = "all") search: String,
+             @RequestParam(value = "limit", defaultValue = "10") limit: Int) = {
 
-    case class SearchItem(displayName: String, address: String)
+    val field = search match {
+      case "email" => SearchField.Email
+      case "name" => SearchField.Name
+      case _ => SearchField.All
+    }
 
-    val usersAndGroups = userManager.getUsers.map(u => SearchItem(u.displayName, u.address)).toList :::
-      userManager.getGroups.map(g => SearchItem(g.displayName, g.address)).toList
-
-    val result = usersAndGroups.filter(searchItem => {
-      val queryLc = query.toLowerCase
-      search match {
-        case "email" => searchItem.address.toLowerCase.contains(queryLc)
-        case "name" => searchItem.displayName.toLowerCase.contains(queryLc)
-        case _ => searchItem.displayName.toLowerCase.contains(queryLc) ||
-          searchItem.address.toLowerCase.contains(queryLc)
-      }
-    })
+    val result = userManager.search(query, field, math.min(limit, UsersController.MaxSearchLimit))
 
     mapAsJavaMap(Map("users" -> result.asInstanceOf[AnyRef]))
   }
 }
+
+object UsersController {
+
+  /**
+   * The maximum number of users and groups returned by a search.
+   */
+  val MaxSearchLimit = 100
+
+}
@@ -0,0 +1,41 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.web.dust.engine
+
+import java.io.File
+import com.linkedin.rookboom.web.dust.loader.FileSystemTemplateLoader
+import com.linkedin.rookboom.util.{Logging, JsonUtils}
+
+/**
+ * Compiles templates at build time, so the application only loads them on startup.
+ *
+ * Usage: DustCompiler output-file template-dir...
+ */
+object DustCompiler extends Logging {
+
+  def main(args: Array[String]) {
+    require(args.length > 1, "Usage: DustCompiler output-file template-dir...")
+    val output = new File(args(0))
+    val paths = args.tail.map(new File(_))
+    val loader = new FileSystemTemplateLoader(paths, ".dust")
+    val compiled = new DustEngineFactoryImpl(DustEngineFactoryImpl.DefaultResources, loader, true).compile()
+    output.getParentFile.mkdirs()
+    JsonUtils.serialize(compiled, output)
+    log.info("Compiled {} templates to {}", compiled.size, output)
+  }
+
+}
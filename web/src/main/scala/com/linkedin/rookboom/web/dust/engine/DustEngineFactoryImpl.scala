@@ -21,7 +21,7 @@ import java.io.InputStreamReader
 import collection.mutable.Set
 import com.linkedin.rookboom.web.dust.loader.TemplateLoader
 import compat.Platform
-import com.linkedin.rookboom.util.Logging
+import com.linkedin.rookboom.util.{JsonUtils, Logging}
 
 
 /**
@@ -29,7 +29,8 @@ import com.linkedin.rookboom.util.Logging
  */
 class DustEngineFactoryImpl(val resources: Array[String],
                             val templateLoader: TemplateLoader,
-                            val cacheTemplates: Boolean) extends DustEngineFactory with Logging {
+                            val cacheTemplates: Boolean,
+                            val compiledTemplates: String = null) extends DustEngineFactory with Logging {
 
   private val ALL_OPTIMIZATIONS = 9
 
@@ -50,6 +51,7 @@ class DustEngineFactoryImpl(val resources: Array[String],
     })
 
     scope.put("log", scope, log)
+    scope.put("DustModel", scope, DustModel)
     scope
   })
 
@@ -72,6 +74,40 @@ class DustEngineFactoryImpl(val resources: Array[String],
   }
 
   def reloadTemplates() {
+    // templates compiled at build time are used as they are, unless they can change
+    val compiled = if (cacheTemplates && compiledTemplates != null) {
+      Option(this.getClass.getClassLoader.getResource(compiledTemplates))
+    } else {
+      None
+    }
+    compiled match {
+      case Some(resource) if lastUpdated == 0 => loadCompiledTemplates(resource)
+      case _ => compileTemplates()
+    }
+  }
+
+  /**
+   * Compiles all the templates of the loader without loading them.
+   * @return compiled templates by name
+   */
+  def compile(): Map[String, String] = {
+    templateLoader.loadTemplates().map(t => {
+      t._1 -> DustUtils.evaluate(sharedScope, "DustTools.compile", ("rawSource", t._2), ("name", t._1))
+    })
+  }
+
+  private def loadCompiledTemplates(resource: java.net.URL) {
+    log.info("Loading compiled templates from {}", resource)
+    val templatesData = JsonUtils.deserialize[Map[String, String]](resource.openStream)
+    templatesData.foreach(t => {
+      DustUtils.evaluate(sharedScope, "DustTools.load", ("compiled", t._2))
+      templates.add(t._1)
+    })
+    log.info("There are {} templates loaded", templatesData.size)
+    lastUpdated = Platform.currentTime
+  }
+
+  private def compileTemplates() {
     log.info("Reloading templates modified since {}", lastUpdated)
     val templatesData = templateLoader.loadTemplates(lastUpdated)
     templatesData.foreach(t => {
@@ -82,4 +118,17 @@ class DustEngineFactoryImpl(val resources: Array[String],
     lastUpdated = Platform.currentTime
   }
 
-}
\ No newline at end of file
+}
+
+object DustEngineFactoryImpl {
+
+  /**
+   * Scripts the templates need to be compiled and rendered.
+   */
+  val DefaultResources = Array(
+    "META-INF/resources/webjars/json/20121008/json.js",
+    "META-INF/resources/webjars/dustjs-linkedin/2.3.4/dust-full.min.js",
+    "js/dust-tools.js"
+  )
+
+}
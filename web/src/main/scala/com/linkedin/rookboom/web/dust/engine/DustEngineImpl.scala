@@ -19,7 +19,6 @@ package com.linkedin.rookboom.web.dust.engine
 
 import java.io.Writer
 import org.mozilla.javascript.Scriptable
-import com.linkedin.rookboom.util.JsonUtils
 
 
 /**
@@ -44,6 +43,7 @@ class DustEngineImpl(val sharedScope: Scriptable) extends DustEngine {
   }
 
   override def render(template: String, model: Map[String, AnyRef], writer: Writer) {
-    render(template, JsonUtils.serialize(model), writer)
+    // the model is read by the template directly and the output goes straight to the writer
+    DustUtils.call(scope, "DustTools", "stream", template, DustModel.wrap(model, scope), writer)
   }
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.linkedin.rookboom.web.dust.engine
+
+import org.mozilla.javascript.{Wrapper, ScriptableObject, Scriptable}
+import com.fasterxml.jackson.databind.JsonNode
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import com.linkedin.rookboom.util.JsonUtils
+
+/**
+ * Exposes a model to templates as JavaScript objects without serializing it to JSON first.
+ *
+ * Maps, collections and options are wrapped as they are and their values are wrapped only when a template reads them.
+ * Other objects are converted by Jackson when a template reaches them, so templates see the same structure the JSON
+ * serialization used to produce.
+ */
+object DustModel {
+
+  /**
+   * Wraps the given value for the given scope.
+   * @param value model value
+   * @param scope scope the value is used in
+   * @return a JavaScript value
+   */
+  def wrap(value: Any, scope: Scriptable): AnyRef = value match {
+    case null | None => null
+    case Some(x) => wrap(x, scope)
+    case s: String => s
+    case n: Number => n
+    case b: java.lang.Boolean => b
+    case c: java.lang.Character => c.toString
+    case node: JsonNode => wrapNode(node, scope)
+    case m: collection.Map[_, _] => new ObjectModel(m, m.map(e => e._1.toString -> e._2), scope)
+    case m: java.util.Map[_, _] => new ObjectModel(m, m.asScala.map(e => e._1.toString -> e._2), scope)
+    case t: TraversableOnce[_] => new ArrayModel(t, t.toIndexedSeq, scope)
+    case a: Array[_] => new ArrayModel(a, a.toIndexedSeq, scope)
+    case i: java.lang.Iterable[_] => new ArrayModel(i, i.asScala.toIndexedSeq, scope)
+    case other => wrapNode(JsonUtils.mapper.valueToTree[JsonNode](other), scope)
+  }
+
+  /**
+   * Serializes a wrapped value to JSON. It is called by the json filter.
+   * @param value unwrapped value
+   * @return JSON or null if the value is not a model object
+   */
+  def toJson(value: AnyRef): String = value match {
+    case _: Scriptable | _: String | _: Number | _: java.lang.Boolean => null
+    case other => JsonUtils.serialize(other)
+  }
+
+  private def wrapNode(node: JsonNode, scope: Scriptable): AnyRef = {
+    if (node.isObject) {
+      new ObjectModel(node, node.fields.asScala.map(e => e.getKey -> e.getValue).toMap, scope)
+    } else if (node.isArray) {
+      new ArrayModel(node, node.elements.asScala.toIndexedSeq, scope)
+    } else if (node.isTextual) {
+      node.asText
+    } else if (node.isNumber) {
+      node.numberValue
+    } else if (node.isBoolean) {
+      java.lang.Boolean.valueOf(node.booleanValue)
+    } else {
+      null
+    }
+  }
+
+  /**
+   * Base of the wrappers, wrapped values are cached as templates read the same properties many times.
+   */
+  private abstract class Model(value: Any, scope: Scriptable, prototype: Scriptable)
+    extends ScriptableObject(scope, prototype) with Wrapper {
+
+    private val cache = mutable.Map.empty[Any, AnyRef]
+
+    protected def wrapped(key: Any, value: Any): AnyRef = cache.getOrElseUpdate(key, wrap(value, scope))
+
+    override def unwrap() = value.asInstanceOf[AnyRef]
+
+    override def put(name: String, start: Scriptable, value: AnyRef) {
+      // the model is read only
+    }
+
+    override def put(index: Int, start: Scriptable, value: AnyRef) {
+      // the model is read only
+    }
+
+  }
+
+  private class ObjectModel(value: Any, fields: => collection.Map[String, Any], scope: Scriptable)
+    extends Model(value, scope, ScriptableObject.getObjectPrototype(scope)) {
+
+    private lazy val properties = fields
+
+    override def getClassName = "Object"
+
+    override def has(name: String, start: Scriptable) = properties.contains(name)
+
+    override def get(name: String, start: Scriptable) = {
+      properties.get(name) match {
+        case Some(v) => wrapped(name, v)
+        case None => super.get(name, start)
+      }
+    }
+
+    override def getIds = properties.keys.toArray[AnyRef]
+
+  }
+
+  private class ArrayModel(value: Any, elements: => IndexedSeq[Any], scope: Scriptable)
+    extends Model(value, scope, ScriptableObject.getClassPrototype(scope, "Array")) {
+
+    private lazy val items = elements
+
+    // templates tell arrays from objects by the class name
+    override def getClassName = "Array"
+
+    override def has(name: String, start: Scriptable) = name == "length"
+
+    override def get(name: String, start: Scriptable) = {
+      if (name == "length") Integer.valueOf(items.size) else super.get(name, start)
+    }
+
+    override def has(index: Int, start: Scriptable) = index >= 0 && index < items.size
+
+    override def get(index: Int, start: Scriptable) = {
+      if (has(index, start)) wrapped(index, items(index)) else Scriptable.NOT_FOUND
+    }
+
+    override def getIds = items.indices.map(Integer.valueOf).toArray[AnyRef]
+
+  }
+
+}
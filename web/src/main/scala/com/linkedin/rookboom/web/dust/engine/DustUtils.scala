@@ -17,7 +17,7 @@
 package com.linkedin.rookboom.web.dust.engine
 
 
-import org.mozilla.javascript.{Scriptable, Context}
+import org.mozilla.javascript.{ScriptableObject, Scriptable, Context}
 
 
 /**
@@ -51,4 +51,14 @@ object DustUtils {
       context.evaluateString(compileScope, sb.toString(), function, 0, null).toString
     })
   }
+
+  /**
+   * Calls a method of a global object without compiling a script for the call.
+   */
+  def call(globalScope: Scriptable, obj: String, method: String, args: AnyRef*) = {
+    executeInContext(context => {
+      val target = ScriptableObject.getProperty(globalScope, obj).asInstanceOf[Scriptable]
+      ScriptableObject.callMethod(context, target, method, args.map(Context.javaToJS(_, globalScope)).toArray)
+    })
+  }
 }
\ No newline at end of file
@@ -162,16 +162,35 @@ var BookDialogView = Backbone.View.extend({
             }
         };
 
+        var done = function () {
+            self.options.manager.onDateChange();
+            self.remove();
+        };
+
         if (data.success) {
-            analyticsEvent('booking-succeed', data);
-            $.successMsg('Meeting created successfully!<br/>Confirmation email sent to you');
-            this.options.attendees.onDateChange();
+            $.waitForBookingJob(data.job, {
+                success: function () {
+                    analyticsEvent('booking-succeed', data);
+                    $.successMsg('Meeting created successfully!<br/>Confirmation email sent to you');
+                    self.options.attendees.onDateChange();
+                    done();
+                },
+                failure: function (msg) {
+                    analyticsEvent('booking-failed', data);
+                    $.errorMsg(msg || 'Sorry, something wrong happened during booking');
+                    done();
+                },
+                error: function () {
+                    analyticsEvent('booking-failed', data);
+                    done();
+                },
+                errorMsg: 'Sorry, something wrong happened during booking'
+            });
         } else {
             analyticsEvent('booking-failed', data);
             $.errorMsg('Sorry, something wrong happened during booking');
+            done();
         }
-        this.options.manager.onDateChange();
-        this.remove();
     },
 
     remove: function () {
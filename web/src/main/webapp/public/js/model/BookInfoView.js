@@ -70,13 +70,28 @@ var BookInfoView = Backbone.View.extend({
             self.options.dialog.blackout();
             $('.cancel-form').ajaxSubmit($.withErrorHandling({
                 success: function (data) {
-                    self.options.dialog.hide();
                     if (data && data.success === true) {
-                        $.successMsg('Meeting has been cancelled!');
-                        self.options.manager.onDateChange();
-                        self.options.attendees.onDateChange();
-                        $.gaq('cancel', 'cancel-succeed');
+                        $.waitForBookingJob(data.job, {
+                            success: function () {
+                                self.options.dialog.hide();
+                                $.successMsg('Meeting has been cancelled!');
+                                self.options.manager.onDateChange();
+                                self.options.attendees.onDateChange();
+                                $.gaq('cancel', 'cancel-succeed');
+                            },
+                            failure: function (msg) {
+                                self.options.dialog.hide();
+                                $.errorMsg(msg || 'Something went wrong.<br/>Meeting has not been cancelled');
+                                $.gaq('cancel', 'cancel-failed');
+                            },
+                            error: function () {
+                                self.options.dialog.hide();
+                                $.gaq('cancel', 'cancel-failed');
+                            },
+                            errorMsg: 'Something went wrong.<br/>Meeting has not been cancelled'
+                        });
                     } else {
+                        self.options.dialog.hide();
                         $.errorMsg('Something went wrong.<br/>Meeting has not been cancelled');
                         $.gaq('cancel', 'cancel-failed');
                     }
@@ -245,6 +245,31 @@
         }
     };
 
+    /**
+     * Polls the status of a booking job until it is completed.
+     * Calls params.success if the job succeeds, params.failure with the error message if it fails and params.error if
+     * the status can't be obtained (the error message is shown then).
+     */
+    $.waitForBookingJob = function(jobId, params) {
+        $.ajax($.withErrorHandling({
+            url: '/booking/status',
+            data: {job: jobId},
+            success: function (data) {
+                if (data.status === 'pending') {
+                    setTimeout(function () {
+                        $.waitForBookingJob(jobId, params);
+                    }, 1000);
+                } else if (data.status === 'succeeded') {
+                    params.success(data);
+                } else {
+                    params.failure(data.error);
+                }
+            },
+            error: params.error,
+            errorMsg: params.errorMsg
+        }));
+    };
+
     $.withErrorHandling = function(ajaxParams) {
         return _.extend({}, ajaxParams, {
             error: function(response) {
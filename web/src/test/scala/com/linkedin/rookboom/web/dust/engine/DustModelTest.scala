@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2014 LinkedIn Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.rookboom.web.dust.engine
+
+import org.testng.AssertJUnit._
+import org.testng.annotations.Test
+import org.mozilla.javascript.Function
+import com.linkedin.rookboom.schedule.{Event, TimeSlot}
+import com.linkedin.rookboom.util.JsonUtils
+
+/**
+ * Templates must see the same model the JSON round trip used to produce, so the tests walk both the way dust does and
+ * compare what they find.
+ */
+class DustModelTest {
+
+  // prints a value the way templates see it: arrays by the class name, objects by their enumerable properties
+  private val Describe =
+    """(function describe(value) {
+      |  if (value === null || value === undefined) {
+      |    return 'null';
+      |  }
+      |  if (Object.prototype.toString.call(value) === '[object Array]') {
+      |    var items = [];
+      |    for (var i = 0; i < value.length; i++) {
+      |      items.push(describe(value[i]));
+      |    }
+      |    return '[' + items.join(',') + ']';
+      |  }
+      |  if (typeof value === 'object') {
+      |    var keys = [];
+      |    for (var key in value) {
+      |      keys.push(key);
+      |    }
+      |    keys.sort();
+      |    var fields = [];
+      |    for (var j = 0; j < keys.length; j++) {
+      |      fields.push(keys[j] + ':' + describe(value[keys[j]]));
+      |    }
+      |    return '{' + fields.join(',') + '}';
+      |  }
+      |  return typeof value + ':' + String(value);
+      |})""".stripMargin
+
+  @Test
+  def testSameAsJson() {
+    val javaMap = new java.util.HashMap[String, AnyRef]()
+    javaMap.put("list", java.util.Arrays.asList("a", "b"))
+    javaMap.put("empty", null)
+    val model = Map[String, AnyRef](
+      "title" -> "Rooms",
+      "count" -> Int.box(3),
+      "ratio" -> Double.box(0.5),
+      "enabled" -> Boolean.box(true),
+      "missing" -> null,
+      "none" -> None,
+      "some" -> Some("value"),
+      "nested" -> Map("rooms" -> Seq(
+        Map("name" -> "jenga", "capacity" -> Some(8)),
+        Map("name" -> "tetris", "capacity" -> None)
+      )),
+      "sequences" -> Seq(Seq(1, 2), Seq.empty, Seq(Some(3), None, null)),
+      "javaMap" -> javaMap,
+      "event" -> Event(1, TimeSlot(0, 1000))
+    )
+    DustUtils.executeInContext(context => {
+      val scope = context.initStandardObjects()
+      val describe = context.evaluateString(scope, Describe, "describe", 0, null).asInstanceOf[Function]
+      val parsed = context.evaluateString(scope, "(" + JsonUtils.serialize(model) + ")", "json", 0, null)
+      val expected = describe.call(context, scope, scope, Array(parsed))
+      val actual = describe.call(context, scope, scope, Array(DustModel.wrap(model, scope)))
+      assertEquals(expected, actual)
+    })
+  }
+
+  @Test
+  def testReadOnly() {
+    DustUtils.executeInContext(context => {
+      val scope = context.initStandardObjects()
+      scope.put("model", scope, DustModel.wrap(Map("name" -> "jenga", "rooms" -> Seq("a")), scope))
+      context.evaluateString(scope, "model.name = 'tetris'; model.rooms[0] = 'b'; model.added = 1", "write", 0, null)
+      val read = context.evaluateString(scope, "[model.name, model.rooms[0], model.added].join()", "read", 0, null)
+      assertEquals("jenga,a,", read)
+    })
+  }
+
+}